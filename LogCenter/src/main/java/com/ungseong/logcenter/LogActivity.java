@@ -1,31 +1,55 @@
 package com.ungseong.logcenter;
 
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.ActionBar;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.appcompat.widget.Toolbar;
+import androidx.core.content.FileProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
 public class LogActivity extends AppCompatActivity {
 
     private static final int ID_CLEAR_LOGCAT = R.id.menu_clear_logcat;
     private static final int ID_SCROLL_TO_END = R.id.menu_scroll_to_end;
+    private static final int ID_FILTER_LEVEL = R.id.menu_filter_level;
+    private static final int ID_SEARCH = R.id.menu_search;
+    private static final int ID_EXPORT = R.id.menu_export;
+
+    private static final String EXPORT_DIRECTORY = "logcenter-export";
+    private static final long SEARCH_DELAY_MILLIS = 300;
 
     RecyclerView mLogListView;
     TextView mNoLogAlertView;
 
     LogListAdapter logListAdapter;
 
+    private final Handler mSearchHandler = new Handler(Looper.getMainLooper());
+    private Runnable mPendingSearch;
+
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -34,18 +58,15 @@ public class LogActivity extends AppCompatActivity {
         actionBarControl();
         initContent();
 
-        LogCenter.registerLogAddedListener((index) -> {
-            logListAdapter.setData();
-            logListAdapter.notifyItemRangeInserted(index, 1);
-            mLogListView.smoothScrollToPosition(mLogListView.getHeight());
-            setLogVisibility();
-        });
+        LogCenter.registerLogAddedListener((index, log) -> logListAdapter.onLogPosted(index, log));
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        cancelPendingSearch();
         LogCenter.registerLogAddedListener(null);
+        logListAdapter.cancelPostedLogs();
     }
 
     @Override
@@ -53,6 +74,26 @@ public class LogActivity extends AppCompatActivity {
 
         getMenuInflater().inflate(R.menu.logcenter_menu_log, menu);
 
+        SearchView searchView = (SearchView) menu.findItem(ID_SEARCH).getActionView();
+        searchView.setQueryHint("단어 또는 접두어* 검색");
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                cancelPendingSearch();
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                // searched once typing pauses, not for every keystroke
+                cancelPendingSearch();
+                mPendingSearch = () -> search(newText);
+                mSearchHandler.postDelayed(mPendingSearch, SEARCH_DELAY_MILLIS);
+                return true;
+            }
+        });
+
         return super.onCreateOptionsMenu(menu);
     }
 
@@ -69,11 +110,125 @@ public class LogActivity extends AppCompatActivity {
             logListAdapter.notifyItemRangeRemoved(0, logListAdapter.getItemCount());
             logListAdapter.setData();
             setLogVisibility();
+        } else if (itemId == ID_FILTER_LEVEL) {
+            showLevelFilterDialog();
+        } else if (itemId == ID_EXPORT) {
+            exportLogs();
         }
 
         return super.onOptionsItemSelected(item);
     }
 
+    /*package-private*/
+    void onLogsAppended() {
+        mLogListView.smoothScrollToPosition(mLogListView.getHeight());
+        setLogVisibility();
+    }
+
+    /*package-private*/
+    void onFilterChanged() {
+        LogFilter filter = logListAdapter.getFilter();
+        String title = "로그";
+        if (filter != null && filter.getMinimumLevel() != LogCenter.Level.VERBOSE) {
+            title += " " + filter.getMinimumLevel().getLabel() + "+";
+        }
+        if (filter != null && filter.getTag() != null) {
+            title += " " + filter.getTag();
+        }
+        if (filter != null && filter.getQuery() != null && !filter.getQuery().getText().trim().isEmpty()) {
+            title += " \"" + filter.getQuery().getText().trim() + "\"";
+        }
+        getSupportActionBar().setTitle(title);
+        setLogVisibility();
+    }
+
+    private void showLevelFilterDialog() {
+        LogCenter.Level[] levels = LogCenter.Level.values();
+        String[] items = new String[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            items[i] = levels[i].name();
+        }
+        LogFilter filter = logListAdapter.getFilter();
+        int checked = filter != null ? filter.getMinimumLevel().ordinal() : 0;
+
+        new AlertDialog.Builder(this)
+                .setTitle("레벨 필터")
+                .setSingleChoiceItems(items, checked, (dialog, which) -> {
+                    String tag = filter != null ? filter.getTag() : null;
+                    LogQuery query = filter != null ? filter.getQuery() : null;
+                    logListAdapter.setFilter(levels[which], tag, query);
+                    onFilterChanged();
+                    dialog.dismiss();
+                })
+                .show();
+    }
+
+    /**
+     * Lists only the records holding every word of {@code text}, as found by the search index.
+     */
+    private void search(String text) {
+        LogFilter filter = logListAdapter.getFilter();
+        LogQuery query = text.trim().isEmpty() ? null : LogQuery.parse(text);
+        LogQuery currentQuery = filter != null ? filter.getQuery() : null;
+        if (query == null ? currentQuery == null : currentQuery != null && query.getText().equals(currentQuery.getText())) {
+            return;
+        }
+        LogCenter.Level minimumLevel = filter != null ? filter.getMinimumLevel() : LogCenter.Level.VERBOSE;
+        String tag = filter != null ? filter.getTag() : null;
+        logListAdapter.setFilter(minimumLevel, tag, query);
+        onFilterChanged();
+    }
+
+    private void cancelPendingSearch() {
+        if (mPendingSearch != null) {
+            mSearchHandler.removeCallbacks(mPendingSearch);
+            mPendingSearch = null;
+        }
+    }
+
+    /**
+     * Streams the records at the current minimum level into a ZIP in the cache directory on a
+     * background thread, then offers it to other apps. Only the previous export is replaced.
+     */
+    private void exportLogs() {
+        Context context = getApplicationContext();
+        LogFilter filter = logListAdapter.getFilter();
+        LogCenter.Level minimumLevel = filter != null ? filter.getMinimumLevel() : LogCenter.Level.VERBOSE;
+        Toast.makeText(context, "로그를 내보내는 중입니다", Toast.LENGTH_SHORT).show();
+
+        new Thread(() -> {
+            File directory = new File(context.getCacheDir(), EXPORT_DIRECTORY);
+            File[] previousExports = directory.listFiles();
+            if (previousExports != null) {
+                for (File previousExport : previousExports) {
+                    previousExport.delete();
+                }
+            }
+            directory.mkdirs();
+
+            File file = new File(directory, "logs-" + System.currentTimeMillis() + ".zip");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                LogCenter.exportLogs(context, out, LogCenter.ExportFormat.ZIP, Long.MIN_VALUE, Long.MAX_VALUE, minimumLevel);
+            } catch (IOException e) {
+                e.printStackTrace();
+                file.delete();
+                runOnUiThread(() -> Toast.makeText(context, "로그를 내보내지 못했습니다", Toast.LENGTH_SHORT).show());
+                return;
+            }
+
+            Uri uri = FileProvider.getUriForFile(context, context.getPackageName() + LogFileProvider.AUTHORITY_SUFFIX, file);
+            Intent send = new Intent(Intent.ACTION_SEND)
+                    .setType("application/zip")
+                    .putExtra(Intent.EXTRA_STREAM, uri)
+                    .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            runOnUiThread(() -> {
+                if (!isFinishing()) {
+                    startActivity(Intent.createChooser(send, "로그 내보내기"));
+                }
+            });
+        }, "LogCenter-export").start();
+    }
+
     private void actionBarControl() {
         ActionBar actionBar = getSupportActionBar();
         if (actionBar == null) {
@@ -1,181 +1,368 @@
 package com.ungseong.logcenter;
 
-import static com.ungseong.logcenter.util.Utils.Now;
 import static com.ungseong.logcenter.util.Utils.getLogFolder;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 
-import com.ungseong.logcenter.util.Utils;
-
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.util.Arrays;
+import java.io.OutputStream;
 import java.util.LinkedList;
-import java.util.StringTokenizer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The app-wide {@link LogEngine}, kept in the app's files directory. Every call goes straight to that
+ * engine; the {@link Context} is only needed to find the directory the first time. A
+ * {@code postLog} below the minimum level returns before the directory is looked up.
+ */
+public class LogCenter implements LogTypes {
 
-public class LogCenter {
+    private static final LogEngine sEngine = new LogEngine();
 
-    private static final String TAG_TIME = "caused time: ";
+    private static LogEngine engine(Context context) {
+        if (!sEngine.hasDirectory()) {
+            sEngine.setDirectory(getLogFolder(context));
+        }
+        return sEngine;
+    }
 
-    private static final int MAX_LOG_FILES = 100;
+    /**
+     * Selects where records are kept, see {@link LogEngine#setStorageBackend(StorageBackend)}.
+     * {@link StorageBackend#MAPPED_RING} keeps a fixed-size ring in a memory-mapped file, so a record
+     * posted right before the process dies is still there on the next start.
+     */
+    public static void setStorageBackend(StorageBackend storageBackend) {
+        sEngine.setStorageBackend(storageBackend);
+    }
 
-    private static boolean LOG_FOLDER_EXIST;
+    /**
+     * Keeps records in a store of one's own instead of a built-in one, see
+     * {@link LogEngine#setLogStoreFactory(LogStoreFactory)}.
+     */
+    public static void setLogStoreFactory(LogStoreFactory storeFactory) {
+        sEngine.setLogStoreFactory(storeFactory);
+    }
 
-    private static LogPostedListener mLogPostedListener;
+    /**
+     * Folds a repeated record into the stored one, see
+     * {@link LogEngine#setDeduplicationEnabled(boolean)}.
+     */
+    public static void setDeduplicationEnabled(boolean enabled) {
+        sEngine.setDeduplicationEnabled(enabled);
+    }
+
+    /**
+     * Sets how much the store keeps, see {@link LogEngine#setRetentionPolicy(RetentionPolicy)}.
+     */
+    public static void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        sEngine.setRetentionPolicy(retentionPolicy);
+    }
+
+    /**
+     * Records crashes before the handler installed before sees them, see
+     * {@link LogEngine#installCrashHandler()}.
+     */
+    public static void installCrashHandler(Context context) {
+        engine(context).installCrashHandler();
+    }
 
-    private static String stackTraceToString(Exception e) {
-        StringWriter stringWriter = new StringWriter();
-        PrintWriter printWriter = new PrintWriter(stringWriter);
-        e.printStackTrace(printWriter);
-        return stringWriter.toString();
+    /**
+     * Puts the handler that was installed before back, see {@link LogEngine#uninstallCrashHandler()}.
+     */
+    public static void uninstallCrashHandler() {
+        sEngine.uninstallCrashHandler();
     }
 
-    private static void maintenanceLogFiles(Context context) {
-        if (!LOG_FOLDER_EXIST) {
-            Utils.initLogDirectory(context);
-            LOG_FOLDER_EXIST = true;
+    public static void postLog(Context context, String log) {
+        if (sEngine.isLoggable(Level.INFO)) {
+            engine(context).postLog(log);
         }
-        File rootFile = getLogFolder(context);
+    }
+
+    public static void postLog(Context context, String log, Durability durability) {
+        if (sEngine.isLoggable(Level.INFO)) {
+            engine(context).postLog(log, durability);
+        }
+    }
 
-        File[] logList = rootFile.listFiles();
+    public static void postLog(Context context, Level level, String tag, String message) {
+        if (sEngine.isLoggable(level)) {
+            engine(context).postLog(level, tag, message);
+        }
+    }
 
-        if (logList == null) {
-            return;
+    /**
+     * Only asks {@code messageSupplier} for the message if {@code level} is loggable, see
+     * {@link LogEngine#postLog(Level, String, LogSupplier)}.
+     */
+    public static void postLog(Context context, Level level, String tag, LogSupplier messageSupplier) {
+        if (sEngine.isLoggable(level)) {
+            engine(context).postLog(level, tag, messageSupplier);
         }
-        Arrays.sort(logList);
-        for (int i = 0; logList.length - i >= MAX_LOG_FILES; i++) {
-            logList[i].delete();
+    }
+
+    public static void postLog(Context context, Level level, String tag, Throwable throwable) {
+        if (sEngine.isLoggable(level)) {
+            engine(context).postLog(level, tag, throwable);
         }
     }
 
-    public static void postLog(Context context, String log) {
-        maintenanceLogFiles(context);
-
-        long time = Now().getTimeInMillis();
-        File rootFile = getLogFolder(context);
-        File logFile;
-        FileWriter fileWriter;
-        BufferedWriter bufferedWriter;
-        try {
-            int i = 0;
-            while (true) {
-                if (i > 0) {
-                    logFile = new File(rootFile, time + "_" + i + ".log");
-                } else {
-                    logFile = new File(rootFile, time + ".log");
-                }
-                if (logFile.createNewFile()) {
-                    fileWriter = new FileWriter(logFile);
-                    bufferedWriter = new BufferedWriter(fileWriter);
-
-                    bufferedWriter.write(TAG_TIME + Now().getTimeInMillis() + "\n");
-                    StringTokenizer tokenizer = new StringTokenizer(log, "\n");
-                    while (tokenizer.hasMoreTokens()) {
-                        bufferedWriter.write(tokenizer.nextToken() + "\n");
-                    }
-                    bufferedWriter.flush();
-                    bufferedWriter.close();
-                    fileWriter.close();
-                    break;
-                } else {
-                    i++;
-                }
-            }
-
-            if (mLogPostedListener != null) {
-                mLogPostedListener.onLogPosted(rootFile.list().length - 1);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Posts a record with its own durability instead of the default one, see
+     * {@link LogEngine#postLog(Level, String, String, Durability)}.
+     */
+    public static void postLog(Context context, Level level, String tag, String message, Durability durability) {
+        if (sEngine.isLoggable(level)) {
+            engine(context).postLog(level, tag, message, durability);
         }
     }
 
     public static void postLog(Context context, Exception exception) {
-        postLog(context, stackTraceToString(exception));
+        if (sEngine.isLoggable(Level.ERROR)) {
+            engine(context).postLog(exception);
+        }
+    }
+
+    public static void postLog(Context context, Throwable throwable, Durability durability) {
+        if (sEngine.isLoggable(Level.ERROR)) {
+            engine(context).postLog(throwable, durability);
+        }
+    }
+
+    /**
+     * Drops records below {@code level}, see {@link LogEngine#setMinimumLevel(Level)}.
+     */
+    public static void setMinimumLevel(Level level) {
+        sEngine.setMinimumLevel(level);
+    }
+
+    public static boolean isLoggable(Level level) {
+        return sEngine.isLoggable(level);
+    }
+
+    /**
+     * Caps how fast records are written, see
+     * {@link LogEngine#setRateLimit(double, int, double, int)}.
+     */
+    public static void setRateLimit(Context context, double recordsPerSecond, int burst,
+                                    double recordsPerSecondPerRecord, int burstPerRecord) {
+        engine(context).setRateLimit(recordsPerSecond, burst, recordsPerSecondPerRecord, burstPerRecord);
+    }
+
+    /**
+     * Stops limiting, see {@link LogEngine#disableRateLimit()}.
+     */
+    public static void disableRateLimit(Context context) {
+        engine(context).disableRateLimit();
+    }
+
+    public static long getSuppressedLogCount() {
+        return sEngine.getSuppressedLogCount();
+    }
+
+    /**
+     * Caps how many frames are written for each throwable in a posted trace, see
+     * {@link LogEngine#setStackTraceFrameLimit(int)}.
+     */
+    public static void setStackTraceFrameLimit(int maxFrames) {
+        sEngine.setStackTraceFrameLimit(maxFrames);
+    }
+
+    /**
+     * Durability used by the {@code postLog} overloads that do not take one, see
+     * {@link LogEngine#setDefaultDurability(Durability)}.
+     */
+    public static void setDefaultDurability(Durability durability) {
+        sEngine.setDefaultDurability(durability);
+    }
+
+    /**
+     * Sets when {@link Durability#BATCHED} records are committed, see
+     * {@link LogEngine#setGroupCommitPolicy(int, long)}.
+     */
+    public static void setGroupCommitPolicy(int batchRecords, long batchDelayMillis) {
+        sEngine.setGroupCommitPolicy(batchRecords, batchDelayMillis);
+    }
+
+    public static void setCommitListener(CommitListener commitListener) {
+        sEngine.setCommitListener(commitListener);
     }
 
     public static LinkedList<Log> getLogSet(Context context) {
-        LinkedList<Log> logSet = new LinkedList<>();
-
-        File rootFile = getLogFolder(context);
-        FileReader fileReader;
-        BufferedReader bufferedReader;
-
-        try {
-            if (rootFile.exists() && rootFile.isDirectory()) {
-                File[] logList = rootFile.listFiles();
-                Arrays.sort(logList);
-                for (File logFile : logList) {
-                    fileReader = new FileReader(logFile);
-                    bufferedReader = new BufferedReader(fileReader);
-
-                    long time = Long.parseLong(bufferedReader.readLine().replace(TAG_TIME, ""));
-                    StringBuilder logString = new StringBuilder();
-                    String line;
-                    while ((line = bufferedReader.readLine()) != null) {
-                        logString.append(line).append("\n");
-                    }
-
-                    logSet.add(new Log(time, logString.toString().trim()));
-
-                    bufferedReader.close();
-                }
-            }
-        } catch (IOException | NullPointerException e) {
+        return engine(context).getLogSet();
+    }
 
-        }
+    /**
+     * Opens a random-access view of the records stored right now, see
+     * {@link LogEngine#openLogCursor()}.
+     */
+    public static LogCursor openLogCursor(Context context) {
+        return engine(context).openLogCursor();
+    }
+
+    /**
+     * Times at which {@code log} was posted, oldest first, see
+     * {@link LogEngine#getOccurrenceTimes(long, Log)}.
+     *
+     * @param index the store index of {@code log}, as used by {@link LogCursor}
+     */
+    public static long[] getOccurrenceTimes(Context context, long index, Log log) {
+        return engine(context).getOccurrenceTimes(index, log);
+    }
 
+    /**
+     * Like {@link #openLogCursor(Context)}, but only with the records {@code filter} accepts, see
+     * {@link LogEngine#openLogCursor(LogFilter)}.
+     */
+    public static LogCursor openLogCursor(Context context, LogFilter filter) {
+        return engine(context).openLogCursor(filter);
+    }
+
+    /**
+     * The records from {@code fromMillis} up to {@code toMillis}, see
+     * {@link LogEngine#openLogCursor(long, long)}.
+     */
+    public static LogCursor openLogCursor(Context context, long fromMillis, long toMillis) {
+        return engine(context).openLogCursor(fromMillis, toMillis);
+    }
+
+    /**
+     * Hands the records from {@code fromMillis} up to {@code toMillis} to {@code visitor}, see
+     * {@link LogEngine#readLogs(long, long, LogVisitor)}.
+     *
+     * @return how many records were visited
+     */
+    public static int readLogs(Context context, long fromMillis, long toMillis, LogVisitor visitor) {
+        return engine(context).readLogs(fromMillis, toMillis, visitor);
+    }
 
-        return logSet;
+    /**
+     * Streams records to {@code out} without loading the store into memory, see
+     * {@link LogEngine#exportLogs(OutputStream, ExportFormat, long, long, Level)}.
+     *
+     * @return how many records were written
+     */
+    public static int exportLogs(Context context, OutputStream out, ExportFormat format, long fromMillis, long toMillis,
+                                 Level minimumLevel) throws IOException {
+        return engine(context).exportLogs(out, format, fromMillis, toMillis, minimumLevel);
     }
 
     /*package-private*/
     static void clearLogcat(Context context) {
-        File rootFile = getLogFolder(context);
+        engine(context).clear();
+    }
 
-        File[] logList = rootFile.listFiles();
-        if (logList == null) {
-            return;
-        }
-        for (File file : logList) {
-            file.delete();
-        }
+    /**
+     * Moves log writing off the caller's thread, see
+     * {@link LogEngine#enableAsyncMode(int, OverflowPolicy)}.
+     */
+    public static void enableAsyncMode(Context context, int capacity, OverflowPolicy overflowPolicy) {
+        engine(context).enableAsyncMode(capacity, overflowPolicy);
     }
 
-    public static void registerLogAddedListener(LogPostedListener logPostedListener) {
-        mLogPostedListener = logPostedListener;
+    /**
+     * Returns to writing on the caller's thread, see {@link LogEngine#disableAsyncMode()}.
+     */
+    public static void disableAsyncMode() {
+        sEngine.disableAsyncMode();
     }
 
-    private LogCenter() {
+    /**
+     * Blocks until every record queued so far has been written, see {@link LogEngine#flush()}.
+     */
+    public static void flush() throws InterruptedException {
+        sEngine.flush();
+    }
 
+    /**
+     * Like {@link #flush()}, but gives up after {@code timeout}, see
+     * {@link LogEngine#awaitIdle(long, TimeUnit)}.
+     */
+    public static boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        return sEngine.awaitIdle(timeout, unit);
     }
 
-    interface LogPostedListener {
-        void onLogPosted(int postedIndex);
+    public static long getDroppedLogCount() {
+        return sEngine.getDroppedLogCount();
     }
 
-    public static class Log {
-        private final long milliSecond;
-        private final String logString;
+    /**
+     * Forwards records to a collector in batches, see {@link LogEngine#enableShipping(ShippingPolicy)}.
+     */
+    public static void enableShipping(Context context, ShippingPolicy policy) {
+        engine(context).enableShipping(policy);
+    }
 
-        private Log(long milliSecond, String stackTracedString) {
-            this.milliSecond = milliSecond;
-            this.logString = stackTracedString;
-        }
+    /**
+     * Stops forwarding, see {@link LogEngine#disableShipping()}.
+     */
+    public static void disableShipping() {
+        sEngine.disableShipping();
+    }
 
-        public long getMilliSecond() {
-            return milliSecond;
-        }
+    /**
+     * Starts or stops recording timing spans, see {@link LogEngine#setTracingEnabled(boolean)}.
+     */
+    public static void setTracingEnabled(Context context, boolean enabled) {
+        engine(context).setTracingEnabled(enabled);
+    }
 
-        public String getLogString() {
-            return logString;
-        }
+    /**
+     * Opens a span on the calling thread, closed by the next {@link #endSpan()} on it. Takes no
+     * {@link Context}: until {@link #setTracingEnabled(Context, boolean)} it does nothing at all.
+     */
+    public static void beginSpan(String name) {
+        sEngine.beginSpan(name);
+    }
+
+    public static void beginSpan(String name, String argName, String argValue) {
+        sEngine.beginSpan(name, argName, argValue);
+    }
+
+    public static void beginSpan(String name, String argName, long argValue) {
+        sEngine.beginSpan(name, argName, argValue);
+    }
+
+    public static void endSpan() {
+        sEngine.endSpan();
+    }
+
+    public static void flushSpans() {
+        sEngine.flushSpans();
+    }
+
+    /**
+     * Streams the recorded spans as Chrome trace-event JSON, see
+     * {@link LogEngine#exportTrace(OutputStream, long, long)}.
+     *
+     * @return how many spans were written
+     */
+    public static int exportTrace(Context context, OutputStream out, long fromMillis, long toMillis) throws IOException {
+        return engine(context).exportTrace(out, fromMillis, toMillis);
+    }
+
+    /**
+     * Watches the main thread for freezes that never throw, posting its checks to the main looper,
+     * see {@link LogEngine#startStallWatchdog(Thread, Executor, long, long, TimeUnit)}. Each freeze
+     * is listed in {@link LogActivity} like any other record.
+     */
+    public static void startStallWatchdog(Context context, long interval, long threshold, TimeUnit unit) {
+        Looper mainLooper = Looper.getMainLooper();
+        Handler mainHandler = new Handler(mainLooper);
+        engine(context).startStallWatchdog(mainLooper.getThread(), mainHandler::post, interval, threshold, unit);
+    }
+
+    public static void stopStallWatchdog() {
+        sEngine.stopStallWatchdog();
     }
 
+    public static void registerLogAddedListener(LogEngine.LogPostedListener logPostedListener) {
+        sEngine.setLogPostedListener(logPostedListener);
+    }
+
+    private LogCenter() {
+
+    }
 }
@@ -0,0 +1,13 @@
+package com.ungseong.logcenter;
+
+import androidx.core.content.FileProvider;
+
+/**
+ * Hands exported logs to other apps. A subclass of its own, so it does not clash with a
+ * {@link FileProvider} the app declares.
+ */
+public class LogFileProvider extends FileProvider {
+
+    /*package-private*/
+    static final String AUTHORITY_SUFFIX = ".logcenter.fileprovider";
+}
@@ -1,6 +1,5 @@
 package com.ungseong.logcenter;
 
-import static com.ungseong.logcenter.util.Utils.Now;
 import static com.ungseong.logcenter.util.Utils.FLAG_DATE;
 import static com.ungseong.logcenter.util.Utils.FLAG_HOUR;
 import static com.ungseong.logcenter.util.Utils.FLAG_MILLIS;
@@ -9,6 +8,9 @@ import static com.ungseong.logcenter.util.Utils.FLAG_MONTH;
 import static com.ungseong.logcenter.util.Utils.FLAG_SECOND;
 import static com.ungseong.logcenter.util.Utils.enhancedFormatDate;
 
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -17,13 +19,30 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.Calendar;
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class LogListAdapter extends RecyclerView.Adapter<LogListAdapter.ViewHolder> {
 
+    private static final int MAX_SHOWN_OCCURRENCE_TIMES = 50;
+    private static final int TIME_FLAGS = FLAG_MONTH | FLAG_DATE | FLAG_HOUR | FLAG_MINUTE | FLAG_SECOND | FLAG_MILLIS;
+
     private LogActivity mActivity;
-    private LinkedList<LogCenter.Log> mLogDataList;
+    private LogCursor mLogCursor;
+    private LogFilter mFilter;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ConcurrentLinkedQueue<PostedLog> mPostedLogs = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mAppendScheduled = new AtomicBoolean();
+    private final Runnable mAppendPostedLogs = this::appendPostedLogs;
+
+    // bumped for every cursor swap, a filter that finishes loading after a newer one is dropped
+    private int mCursorGeneration;
+    // posted records wait in the queue while a filtered cursor loads and go to the new one
+    private boolean mFilterLoading;
+
+    // reused by every bind, rows are only bound on the main thread
+    private final StringBuilder mTextBuilder = new StringBuilder(64);
 
     public LogListAdapter(LogActivity logActivity) {
         mActivity = logActivity;
@@ -40,47 +59,203 @@ public class LogListAdapter extends RecyclerView.Adapter<LogListAdapter.ViewHold
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-            LogCenter.Log logData = mLogDataList.get(position);
+            LogCenter.Log logData = mLogCursor.get(position);
+            if (logData == null) {
+                holder.badge.setText("");
+                holder.badge.setOnClickListener(null);
+                holder.time.setText("");
+                holder.stackTrace.setText("만료된 로그");
+                holder.itemView.setOnClickListener(null);
+                return;
+            }
 
             long time = logData.getMilliSecond();
             String stackTracedString = logData.getLogString();
 
-            Calendar calendar = Now();
-            calendar.setTimeInMillis(time);
+            String tag = logData.getTag();
+            holder.badge.setText(tag.isEmpty() ? String.valueOf(logData.getLevel().getLabel()) : logData.getLevel().getLabel() + "/" + tag);
+            holder.badge.setOnClickListener(v -> toggleTagFilter(tag));
 
-            String timeText = enhancedFormatDate(holder.itemView.getContext(), calendar, FLAG_MONTH | FLAG_DATE | FLAG_HOUR | FLAG_MINUTE | FLAG_SECOND | FLAG_MILLIS) + " (" + time + ")";
-            holder.time.setText(timeText);
+            mTextBuilder.setLength(0);
+            appendTime(holder.itemView.getContext(), time, mTextBuilder).append(" (").append(time).append(')');
+            holder.time.setText(mTextBuilder.toString());
             holder.stackTrace.setText(stackTracedString);
+            bindOccurrenceSummary(holder, logData);
 
             holder.itemView.setOnClickListener(v -> {
                 if (holder.stackTrace.getMaxLines() == 4) {
                     holder.stackTrace.setMaxLines(Integer.MAX_VALUE);
+                    bindOccurrenceTimes(holder, logData);
                 } else if (holder.stackTrace.getMaxLines() == Integer.MAX_VALUE) {
                     holder.stackTrace.setMaxLines(4);
+                    bindOccurrenceSummary(holder, logData);
                 }
             });
 
     }
 
+    private void bindOccurrenceSummary(ViewHolder holder, LogCenter.Log logData) {
+        int occurrenceCount = logData.getOccurrenceCount();
+        if (occurrenceCount <= 1) {
+            holder.occurrences.setVisibility(View.GONE);
+            return;
+        }
+        holder.occurrences.setVisibility(View.VISIBLE);
+        mTextBuilder.setLength(0);
+        mTextBuilder.append(occurrenceCount).append("회 발생, 마지막 ");
+        appendTime(holder.itemView.getContext(), logData.getLastSeen(), mTextBuilder);
+        holder.occurrences.setText(mTextBuilder.toString());
+    }
+
+    private void bindOccurrenceTimes(ViewHolder holder, LogCenter.Log logData) {
+        int position = holder.getAdapterPosition();
+        if (logData.getOccurrenceCount() <= 1 || position == RecyclerView.NO_POSITION) {
+            return;
+        }
+        long[] times = LogCenter.getOccurrenceTimes(mActivity, mLogCursor.getIndex(position), logData);
+
+        // the first time and the most recent ones, a record can repeat thousands of times
+        int recentFrom = Math.max(1, times.length - MAX_SHOWN_OCCURRENCE_TIMES);
+        int omitted = logData.getOccurrenceCount() - 1 - (times.length - recentFrom);
+
+        StringBuilder timesText = new StringBuilder().append(logData.getOccurrenceCount()).append("회 발생");
+        appendTime(holder.itemView.getContext(), times[0], timesText.append('\n'));
+        if (omitted > 0) {
+            timesText.append("\n... ").append(omitted).append("회 생략");
+        }
+        for (int i = recentFrom; i < times.length; i++) {
+            appendTime(holder.itemView.getContext(), times[i], timesText.append('\n'));
+        }
+        holder.occurrences.setText(timesText);
+    }
+
+    private static StringBuilder appendTime(Context context, long time, StringBuilder out) {
+        return enhancedFormatDate(context, time, TIME_FLAGS, out);
+    }
+
     @Override
     public int getItemCount() {
-        return mLogDataList.size();
+        return mLogCursor.getCount();
     }
 
     public void setData() {
-        mLogDataList = LogCenter.getLogSet(mActivity);
+        mCursorGeneration++;
+        mFilterLoading = false;
+        mLogCursor = mFilter == null ? LogCenter.openLogCursor(mActivity) : LogCenter.openLogCursor(mActivity, mFilter);
+    }
+
+    LogFilter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Lists the records {@code filter} accepts. The cursor is opened on a background thread, as a
+     * search may have to index the whole store first; the current list stays until it is ready.
+     *
+     * @param filter the records to list, or {@code null} for all of them
+     */
+    void setFilter(LogFilter filter) {
+        mFilter = filter;
+        mFilterLoading = true;
+        int generation = ++mCursorGeneration;
+        Context context = mActivity.getApplicationContext();
+
+        new Thread(() -> {
+            LogCursor logCursor = filter == null ? LogCenter.openLogCursor(context) : LogCenter.openLogCursor(context, filter);
+            mMainHandler.post(() -> {
+                if (generation != mCursorGeneration) {
+                    return;
+                }
+                mFilterLoading = false;
+                mLogCursor = logCursor;
+                notifyDataSetChanged();
+                mActivity.onFilterChanged();
+                appendPostedLogs();
+            });
+        }, "LogCenter-search").start();
+    }
+
+    /**
+     * Like {@link #setFilter(LogFilter)}, listing every record again once nothing is left to filter.
+     */
+    void setFilter(LogCenter.Level minimumLevel, String tag, LogQuery query) {
+        boolean filtering = minimumLevel != LogCenter.Level.VERBOSE || tag != null || query != null;
+        setFilter(filtering ? new LogFilter(minimumLevel, tag, query) : null);
+    }
+
+    private void toggleTagFilter(String tag) {
+        LogCenter.Level minimumLevel = mFilter != null ? mFilter.getMinimumLevel() : LogCenter.Level.VERBOSE;
+        boolean filteringTag = mFilter != null && mFilter.getTag() != null;
+        setFilter(minimumLevel, filteringTag ? null : tag, mFilter != null ? mFilter.getQuery() : null);
+        mActivity.onFilterChanged();
+    }
+
+    /**
+     * Queues a freshly posted record for the list. May be called from any thread; every record
+     * queued before the main thread gets to them is inserted with a single notification.
+     */
+    void onLogPosted(long index, LogCenter.Log log) {
+        mPostedLogs.add(new PostedLog(index, log));
+        if (mAppendScheduled.compareAndSet(false, true)) {
+            mMainHandler.post(mAppendPostedLogs);
+        }
+    }
+
+    void cancelPostedLogs() {
+        mCursorGeneration++;
+        mMainHandler.removeCallbacks(mAppendPostedLogs);
+        mPostedLogs.clear();
+        mAppendScheduled.set(false);
+    }
+
+    private void appendPostedLogs() {
+        mAppendScheduled.set(false);
+        if (mFilterLoading) {
+            return;
+        }
+
+        int start = mLogCursor.getCount();
+        int added = 0;
+        PostedLog postedLog;
+        while ((postedLog = mPostedLogs.poll()) != null) {
+            int position = mLogCursor.updateOccurrences(postedLog.index, postedLog.log);
+            if (position < 0) {
+                added += mLogCursor.appendPosted(postedLog.index, postedLog.log);
+            } else if (position < start) {
+                // a repeat of a record already on screen, only its occurrences changed
+                notifyItemChanged(position);
+            }
+        }
+        if (added > 0) {
+            notifyItemRangeInserted(start, added);
+            mActivity.onLogsAppended();
+        }
+    }
+
+    private static final class PostedLog {
+        final long index;
+        final LogCenter.Log log;
+
+        PostedLog(long index, LogCenter.Log log) {
+            this.index = index;
+            this.log = log;
+        }
     }
 
     protected static class ViewHolder extends RecyclerView.ViewHolder{
 
+        TextView badge;
         TextView time;
         TextView stackTrace;
+        TextView occurrences;
 
         public ViewHolder(@NonNull View itemView) {
             super(itemView);
 
+            badge = itemView.findViewById(R.id.log_item_badge);
             time = itemView.findViewById(R.id.log_item_title_time);
             stackTrace = itemView.findViewById(R.id.log_item_message);
+            occurrences = itemView.findViewById(R.id.log_item_occurrences);
         }
     }
 }
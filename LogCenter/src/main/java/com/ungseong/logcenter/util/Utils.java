@@ -7,32 +7,23 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.io.File;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Utils {
 
-    public static final int FLAG_MILLIS = 1;
-    public static final int FLAG_SECOND = 1 << 1;
-    public static final int FLAG_MINUTE = 1 << 2;
-    public static final int FLAG_HOUR = 1 << 3;
-    public static final int FLAG_W_DATE = 1 << 4;
-    public static final int FLAG_DATE = 1 << 5;
-    public static final int FLAG_MONTH = 1 << 6;
-    public static final int FLAG_YEAR = 1 << 7;
-
-    public static final String[] DATE_FORMAT_FLAG = {
-            " SSS밀리초||SSS초",
-            " ss초|| ss.",
-            " mm분",
-            " a h시|| HH시",
-            " (E)",
-            " d일",
-            " M월",
-            " YYYY년"
-    };
+    public static final int FLAG_MILLIS = FlagDateFormats.FLAG_MILLIS;
+    public static final int FLAG_SECOND = FlagDateFormats.FLAG_SECOND;
+    public static final int FLAG_MINUTE = FlagDateFormats.FLAG_MINUTE;
+    public static final int FLAG_HOUR = FlagDateFormats.FLAG_HOUR;
+    public static final int FLAG_W_DATE = FlagDateFormats.FLAG_W_DATE;
+    public static final int FLAG_DATE = FlagDateFormats.FLAG_DATE;
+    public static final int FLAG_MONTH = FlagDateFormats.FLAG_MONTH;
+    public static final int FLAG_YEAR = FlagDateFormats.FLAG_YEAR;
+
+    public static final String[] DATE_FORMAT_FLAG = FlagDateFormats.DATE_FORMAT_FLAG;
 
     public static final String[][] FORMAT_DATE = {
             {"a h시 mm분", "HH시 mm분"},
@@ -56,6 +47,8 @@ public class Utils {
 
     public static final int ID_FORMAT_PHONE_NUMBER = 0;
 
+    private static final ConcurrentHashMap<Locale, DateFormatter[][]> sDateFormatters = new ConcurrentHashMap<>();
+
     public static Calendar Now() {
         return Calendar.getInstance(TimeZone.getDefault());
     }
@@ -73,41 +66,50 @@ public class Utils {
     }
 
     public static String formatFlags(Context context, int flags) {
-        boolean is24Hour = DateFormat.is24HourFormat(context);
-        boolean isDecimalSecond = (flags & 0b11) == 0b11;
-
-        StringBuilder format = new StringBuilder();
-
-        for (int i = 0; i < DATE_FORMAT_FLAG.length; i++) {
-            if ((flags & 1 << i) > 0) {
-                if (isDecimalSecond && i < 2) {
-                    String singleFormat = DATE_FORMAT_FLAG[i].split("\\|\\|")[1];
-                    format.insert(0, singleFormat);
-                } else if (is24Hour && i == 3) {
-                    String singleFormat = DATE_FORMAT_FLAG[i].split("\\|\\|")[1];
-                    format.insert(0, singleFormat);
-                } else {
-                    format.insert(0, DATE_FORMAT_FLAG[i]);
-                }
-            }
-        }
-        return format.toString();
+        return FlagDateFormats.getPattern(flags, is24HourFormat(context));
+    }
+
+    /**
+     * The shared, thread-safe formatter for {@code flags}, as used by
+     * {@link #enhancedFormatDate(Context, Calendar, int)}.
+     */
+    public static DateFormatter getFlagFormatter(@Nullable Context context, int flags) {
+        return FlagDateFormats.getFormatter(flags, is24HourFormat(context));
     }
 
     public static String enhancedFormatDate(@Nullable Context context, @NonNull Calendar calendar, int flag) {
-        SimpleDateFormat formatter;
-        formatter = new SimpleDateFormat(formatFlags(context, flag).trim(), Locale.KOREA);
-        return formatter.format(calendar.getTime());
+        return getFlagFormatter(context, flag).format(calendar.getTimeInMillis(), calendar.getTimeZone(), new StringBuilder(32)).toString();
+    }
+
+    /**
+     * Appends {@code millis} in the default time zone to {@code out}, which can be reused from call
+     * to call so that formatting allocates next to nothing.
+     *
+     * @return {@code out}
+     */
+    public static StringBuilder enhancedFormatDate(@Nullable Context context, long millis, int flag, @NonNull StringBuilder out) {
+        return getFlagFormatter(context, flag).format(millis, TimeZone.getDefault(), out);
     }
 
     public static String formatDate(@Nullable Context context, @NonNull Calendar calendar, @Nullable Locale locale, int formatId) {
-        SimpleDateFormat formatter;
-        if (locale != null) {
-            formatter = new SimpleDateFormat(dateFormatSelector(context, formatId), locale);
-        } else {
-            formatter = new SimpleDateFormat(dateFormatSelector(context, formatId));
+        if (locale == null) {
+            locale = Locale.getDefault();
+        }
+        DateFormatter[][] formatters = sDateFormatters.get(locale);
+        if (formatters == null) {
+            formatters = new DateFormatter[FORMAT_DATE.length][2];
+            DateFormatter[][] previous = sDateFormatters.putIfAbsent(locale, formatters);
+            if (previous != null) {
+                formatters = previous;
+            }
         }
-        return formatter.format(calendar.getTime());
+        int key = is24HourFormat(context) ? 1 : 0;
+        DateFormatter formatter = formatters[formatId][key];
+        if (formatter == null) {
+            formatter = new DateFormatter(FORMAT_DATE[formatId][key], locale);
+            formatters[formatId][key] = formatter;
+        }
+        return formatter.format(calendar.getTimeInMillis(), calendar.getTimeZone(), new StringBuilder(32)).toString();
     }
 
     public static String dateFormatSelector(Context context, int formatId) {
@@ -120,6 +122,10 @@ public class Utils {
         return FORMAT_DATE[formatId][key];
     }
 
+    private static boolean is24HourFormat(@Nullable Context context) {
+        return context != null && DateFormat.is24HourFormat(context);
+    }
+
     public static String formatPhoneNumber(@NonNull String phoneNumber, int formatId) {
         int length = phoneNumber.length();
         if (length <= 3 || length > 12) {
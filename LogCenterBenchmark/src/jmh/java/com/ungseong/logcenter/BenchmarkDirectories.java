@@ -0,0 +1,30 @@
+package com.ungseong.logcenter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Every benchmark trial gets a fresh directory under {@code java.io.tmpdir}, removed again once the
+ * trial is over.
+ */
+final class BenchmarkDirectories {
+
+    static File create(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private BenchmarkDirectories() {
+
+    }
+}
@@ -0,0 +1,91 @@
+package com.ungseong.logcenter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code getLogSet} over stores holding {@code recordCount} records. The stores are sized so that all
+ * of them are kept; the file-per-log store is left out, as it cannot hold more than
+ * {@value FilePerLogStore#MAX_LOG_FILES} records. Segments are compressed before measuring, as they
+ * would long be by the time anyone reads them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GetLogSetBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    public int recordCount;
+
+    @Param({"SEGMENTED", "MAPPED_RING", "IN_MEMORY"})
+    public LogTypes.StorageBackend backend;
+
+    private File mDirectory;
+    private LogEngine mEngine;
+    private SegmentedLogStore mSegmentedStore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        mDirectory = BenchmarkDirectories.create("get-log-set");
+        mEngine = new LogEngine(mDirectory);
+        mEngine.setLogStoreFactory(storeFactory(backend, recordCount));
+
+        long time = System.currentTimeMillis() - recordCount;
+        for (int i = 0; i < recordCount; i++) {
+            mEngine.postLog(LogTypes.Level.INFO, "network", "request " + i + " finished in " + (i * 7 % 500) + " ms at " + (time + i));
+        }
+        if (mSegmentedStore != null) {
+            mSegmentedStore.awaitCompression();
+        }
+        int stored = mEngine.getLogSet().size();
+        if (stored != recordCount) {
+            throw new IllegalStateException(backend + " kept " + stored + " of " + recordCount + " records");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mEngine.close();
+        BenchmarkDirectories.delete(mDirectory);
+    }
+
+    @Benchmark
+    public List<LogTypes.Log> getLogSet() {
+        return mEngine.getLogSet();
+    }
+
+    /**
+     * The built-in store with limits raised far enough to keep {@code recordCount} records.
+     */
+    private LogStoreFactory storeFactory(LogTypes.StorageBackend backend, int recordCount) {
+        switch (backend) {
+            case SEGMENTED:
+                return directory -> mSegmentedStore = new SegmentedLogStore(directory, SegmentedLogStore.SEGMENT_MAX_BYTES, 64);
+            case MAPPED_RING:
+                return directory -> new MappedRingLogStore(new File(directory, MappedRingLogStore.FILE_NAME), 32 * 1024 * 1024);
+            case IN_MEMORY:
+                return directory -> new InMemoryLogStore(recordCount);
+            default:
+                throw new IllegalArgumentException("no benchmark store for " + backend);
+        }
+    }
+}
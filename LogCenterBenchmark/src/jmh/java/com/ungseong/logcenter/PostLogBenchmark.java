@@ -0,0 +1,113 @@
+package com.ungseong.logcenter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code postLog} on the caller's thread, from one thread and from four at once, with every built-in
+ * store. The stores keep within their default limits the whole time, so the numbers include dropping
+ * old records the way a long-running app does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PostLogBenchmark {
+
+    private static final int MESSAGES = 1024;
+    private static final int STACK_DEPTH = 24;
+
+    @Param({"SEGMENTED", "MAPPED_RING", "FILE_PER_LOG", "IN_MEMORY"})
+    public LogTypes.StorageBackend backend;
+
+    private File mDirectory;
+    private LogEngine mEngine;
+
+    private final String[] mMessages = new String[MESSAGES];
+    private Exception mException;
+
+    @State(Scope.Thread)
+    public static class MessageCursor {
+        int next;
+
+        int next() {
+            return next++ & (MESSAGES - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDirectory = BenchmarkDirectories.create("post-log");
+        mEngine = new LogEngine(mDirectory);
+        mEngine.setStorageBackend(backend);
+        // the messages repeat every 1024 posts, which would otherwise only add occurrences
+        mEngine.setDeduplicationEnabled(false);
+
+        for (int i = 0; i < MESSAGES; i++) {
+            mMessages[i] = "request " + i + " finished in " + (i * 7 % 500) + " ms, status " + (200 + i % 5);
+        }
+        mException = throwFrom(STACK_DEPTH);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mEngine.close();
+        BenchmarkDirectories.delete(mDirectory);
+    }
+
+    @Benchmark
+    public void postString(MessageCursor cursor) {
+        mEngine.postLog(LogTypes.Level.INFO, "network", mMessages[cursor.next()]);
+    }
+
+    @Benchmark
+    public void postException() {
+        mEngine.postLog(LogTypes.Level.ERROR, "network", mException);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void postStringContended(MessageCursor cursor) {
+        mEngine.postLog(LogTypes.Level.INFO, "network", mMessages[cursor.next()]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void postExceptionContended() {
+        mEngine.postLog(LogTypes.Level.ERROR, "network", mException);
+    }
+
+    private static Exception throwFrom(int depth) {
+        try {
+            recurse(depth);
+            throw new AssertionError();
+        } catch (IllegalStateException e) {
+            return e;
+        }
+    }
+
+    private static void recurse(int depth) {
+        if (depth == 0) {
+            throw new IllegalStateException("connection reset", new IOException("broken pipe"));
+        }
+        recurse(depth - 1);
+    }
+}
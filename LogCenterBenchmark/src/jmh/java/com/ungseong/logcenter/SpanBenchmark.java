@@ -0,0 +1,70 @@
+package com.ungseong.logcenter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A span opened and closed, with tracing off and on. With tracing on the spans are written out to
+ * the store every half chunk, on the benchmark thread, so the time per span includes its share of
+ * writing out rather than measuring events dropped because the flusher thread fell behind.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpanBenchmark {
+
+    private static final int FLUSH_EVERY = SpanRecorder.CHUNK_EVENTS / 2;
+
+    private File mDirectory;
+    private LogEngine mEngine;
+    private LogEngine mDisabledEngine;
+
+    private int mSpans;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDirectory = BenchmarkDirectories.create("span");
+        mEngine = new LogEngine(mDirectory);
+        mEngine.setTracingEnabled(true);
+        mDisabledEngine = new LogEngine(mDirectory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mEngine.close();
+        mDisabledEngine.close();
+        BenchmarkDirectories.delete(mDirectory);
+    }
+
+    @Benchmark
+    public void spanDisabled() {
+        mDisabledEngine.beginSpan("bind", "position", 42);
+        mDisabledEngine.endSpan();
+    }
+
+    @Benchmark
+    public void span() {
+        mEngine.beginSpan("bind", "position", mSpans);
+        mEngine.endSpan();
+        if (++mSpans % FLUSH_EVERY == 0) {
+            mEngine.flushSpans();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.ungseong.logcenter.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What {@code Utils.enhancedFormatDate} does once it knows whether the device uses 24 hour time:
+ * into a new string, and into a builder that is reused the way the log list does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DateFormatBenchmark {
+
+    private static final int LIST_FLAGS = FlagDateFormats.FLAG_MONTH | FlagDateFormats.FLAG_DATE | FlagDateFormats.FLAG_HOUR
+            | FlagDateFormats.FLAG_MINUTE | FlagDateFormats.FLAG_SECOND | FlagDateFormats.FLAG_MILLIS;
+    private static final int ALL_FLAGS = 0xFF;
+
+    @Param({"" + LIST_FLAGS, "" + ALL_FLAGS})
+    public int flags;
+
+    @Param({"false", "true"})
+    public boolean is24Hour;
+
+    private final TimeZone mTimeZone = TimeZone.getDefault();
+    private final StringBuilder mBuilder = new StringBuilder(64);
+
+    private long mMillis = 1_650_000_000_000L;
+
+    @Benchmark
+    public String formatToString() {
+        mMillis += 997;
+        return FlagDateFormats.getFormatter(flags, is24Hour).format(mMillis, mTimeZone, new StringBuilder(32)).toString();
+    }
+
+    @Benchmark
+    public StringBuilder formatIntoReusedBuilder() {
+        mMillis += 997;
+        mBuilder.setLength(0);
+        return FlagDateFormats.getFormatter(flags, is24Hour).format(mMillis, mTimeZone, mBuilder);
+    }
+}
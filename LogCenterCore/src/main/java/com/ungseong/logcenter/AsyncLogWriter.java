@@ -0,0 +1,247 @@
+package com.ungseong.logcenter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single background writer fed by any number of producer threads. Producers only claim a slot in a
+ * {@link BoundedRingQueue} and, if the writer is asleep, unpark it; no lock is taken on the posting
+ * path. Waiting for the writer to go idle is the only operation that synchronizes, and the writer
+ * only touches that monitor while somebody is actually waiting.
+ */
+/*package-private*/
+final class AsyncLogWriter {
+
+    static final int MAX_BATCH_SIZE = 32;
+
+    private static final long BLOCKED_PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long IDLE_WRITER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    interface BatchWriter {
+        void write(List<PendingLog> batch);
+
+        /**
+         * Called whenever the writer has nothing to write, at least every
+         * {@link #IDLE_WRITER_PARK_NANOS} nanoseconds.
+         */
+        default void onIdle() {
+        }
+    }
+
+    private final BatchWriter mBatchWriter;
+    private final LogTypes.OverflowPolicy mOverflowPolicy;
+    private final BoundedRingQueue<PendingLog> mQueue;
+
+    private final Thread mWriterThread;
+
+    private volatile boolean mRunning = true;
+    private volatile boolean mWriterParked;
+
+    // producers between their check of mRunning and the end of their offer, waited for by shutdown()
+    private final AtomicInteger mActiveProducers = new AtomicInteger();
+
+    // records accepted by the queue, and records that left it by being written or dropped
+    private final AtomicLong mAcceptedCount = new AtomicLong();
+    private final AtomicLong mRetiredCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    private final Object mIdleLock = new Object();
+    private final AtomicInteger mIdleWaiters = new AtomicInteger();
+
+    AsyncLogWriter(BatchWriter batchWriter, int capacity, LogTypes.OverflowPolicy overflowPolicy) {
+        mBatchWriter = batchWriter;
+        mOverflowPolicy = overflowPolicy;
+        mQueue = new BoundedRingQueue<>(capacity);
+
+        mWriterThread = new Thread(this::drainLoop, "LogCenter-writer");
+        mWriterThread.setDaemon(true);
+        mWriterThread.start();
+    }
+
+    /**
+     * @return {@code false} if the caller has to write the record itself, which happens once the
+     * writer is shut down or when the writer thread itself posts into a full queue under
+     * {@link LogTypes.OverflowPolicy#BLOCK}. A record dropped by the overflow policy counts as
+     * handled.
+     */
+    boolean enqueue(long time, LogTypes.Level level, String tag, String log, LogTypes.Durability durability) {
+        mActiveProducers.incrementAndGet();
+        try {
+            return offer(new PendingLog(time, level, tag, log, durability));
+        } finally {
+            mActiveProducers.decrementAndGet();
+        }
+    }
+
+    private boolean offer(PendingLog pendingLog) {
+        // checked after registering, so shutdown() either sees this producer or it sees the stop
+        if (!mRunning) {
+            return false;
+        }
+        while (!mQueue.offer(pendingLog)) {
+            switch (mOverflowPolicy) {
+                case BLOCK:
+                    if (Thread.currentThread() == mWriterThread) {
+                        return false;
+                    }
+                    wakeWriter();
+                    LockSupport.parkNanos(BLOCKED_PRODUCER_PARK_NANOS);
+                    if (!mRunning) {
+                        return false;
+                    }
+                    if (Thread.currentThread().isInterrupted()) {
+                        mDroppedCount.incrementAndGet();
+                        return true;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    if (mQueue.poll() != null) {
+                        mDroppedCount.incrementAndGet();
+                        mRetiredCount.incrementAndGet();
+                    }
+                    break;
+                case DROP_NEWEST:
+                default:
+                    mDroppedCount.incrementAndGet();
+                    return true;
+            }
+        }
+        mAcceptedCount.incrementAndGet();
+        wakeWriter();
+        return true;
+    }
+
+    boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        mIdleWaiters.incrementAndGet();
+        try {
+            synchronized (mIdleLock) {
+                while (!isIdle()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(mIdleLock, remaining);
+                }
+                return true;
+            }
+        } finally {
+            mIdleWaiters.decrementAndGet();
+        }
+    }
+
+    void flush() throws InterruptedException {
+        mIdleWaiters.incrementAndGet();
+        try {
+            synchronized (mIdleLock) {
+                while (!isIdle()) {
+                    mIdleLock.wait();
+                }
+            }
+        } finally {
+            mIdleWaiters.decrementAndGet();
+        }
+    }
+
+    void shutdown() throws InterruptedException {
+        mRunning = false;
+        LockSupport.unpark(mWriterThread);
+        mWriterThread.join();
+
+        // producers that saw the writer running just before it stopped may still be queueing records
+        while (mActiveProducers.get() > 0) {
+            LockSupport.parkNanos(BLOCKED_PRODUCER_PARK_NANOS);
+        }
+        ArrayList<PendingLog> leftovers = new ArrayList<>();
+        PendingLog pendingLog;
+        while ((pendingLog = mQueue.poll()) != null) {
+            leftovers.add(pendingLog);
+        }
+        if (!leftovers.isEmpty()) {
+            mBatchWriter.write(leftovers);
+            mRetiredCount.addAndGet(leftovers.size());
+        }
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    private boolean isIdle() {
+        return mRetiredCount.get() >= mAcceptedCount.get();
+    }
+
+    private void wakeWriter() {
+        if (mWriterParked) {
+            LockSupport.unpark(mWriterThread);
+        }
+    }
+
+    private void drainLoop() {
+        ArrayList<PendingLog> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+        while (true) {
+            PendingLog pendingLog;
+            while (batch.size() < MAX_BATCH_SIZE && (pendingLog = mQueue.poll()) != null) {
+                batch.add(pendingLog);
+            }
+
+            if (batch.isEmpty()) {
+                if (!mRunning && mQueue.isEmpty()) {
+                    notifyIdleWaiters();
+                    return;
+                }
+                try {
+                    mBatchWriter.onIdle();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                mWriterParked = true;
+                if (mQueue.isEmpty() && mRunning) {
+                    LockSupport.parkNanos(this, IDLE_WRITER_PARK_NANOS);
+                }
+                mWriterParked = false;
+                continue;
+            }
+
+            try {
+                mBatchWriter.write(batch);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            mRetiredCount.addAndGet(batch.size());
+            batch.clear();
+
+            if (mIdleWaiters.get() > 0) {
+                notifyIdleWaiters();
+            }
+        }
+    }
+
+    private void notifyIdleWaiters() {
+        synchronized (mIdleLock) {
+            mIdleLock.notifyAll();
+        }
+    }
+
+    static final class PendingLog {
+        final long time;
+        final LogTypes.Level level;
+        final String tag;
+        final String log;
+        final LogTypes.Durability durability;
+
+        PendingLog(long time, LogTypes.Level level, String tag, String log, LogTypes.Durability durability) {
+            this.time = time;
+            this.level = level;
+            this.tag = tag;
+            this.log = log;
+            this.durability = durability;
+        }
+    }
+}
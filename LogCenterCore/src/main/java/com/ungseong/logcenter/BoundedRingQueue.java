@@ -0,0 +1,95 @@
+package com.ungseong.logcenter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free bounded queue after Dmitry Vyukov's array-based MPMC queue. Every slot carries a
+ * sequence number that tells producers and consumers whether it is free for the lap they are on,
+ * so claiming a slot is a single CAS on the enqueue or dequeue counter and nobody ever holds a lock.
+ *
+ * <p>The log writer is its only regular consumer, but {@link #poll()} is safe to call from
+ * producers too, which is how {@link LogTypes.OverflowPolicy#DROP_OLDEST} makes room.
+ */
+/*package-private*/
+final class BoundedRingQueue<E> {
+
+    private final int mMask;
+    private final AtomicLongArray mSequences;
+    private final AtomicReferenceArray<E> mItems;
+
+    private final AtomicLong mEnqueuePosition = new AtomicLong();
+    private final AtomicLong mDequeuePosition = new AtomicLong();
+
+    BoundedRingQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mSequences = new AtomicLongArray(size);
+        mItems = new AtomicReferenceArray<>(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * @return {@code false} if the queue is full
+     */
+    boolean offer(E item) {
+        long position = mEnqueuePosition.get();
+        while (true) {
+            int slot = (int) position & mMask;
+            long difference = mSequences.get(slot) - position;
+            if (difference == 0) {
+                if (mEnqueuePosition.compareAndSet(position, position + 1)) {
+                    mItems.set(slot, item);
+                    mSequences.lazySet(slot, position + 1);
+                    return true;
+                }
+                position = mEnqueuePosition.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = mEnqueuePosition.get();
+            }
+        }
+    }
+
+    /**
+     * @return the oldest item, or {@code null} if the queue is empty
+     */
+    E poll() {
+        long position = mDequeuePosition.get();
+        while (true) {
+            int slot = (int) position & mMask;
+            long difference = mSequences.get(slot) - (position + 1);
+            if (difference == 0) {
+                if (mDequeuePosition.compareAndSet(position, position + 1)) {
+                    E item = mItems.get(slot);
+                    mItems.set(slot, null);
+                    mSequences.lazySet(slot, position + mMask + 1);
+                    return item;
+                }
+                position = mDequeuePosition.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = mDequeuePosition.get();
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return mDequeuePosition.get() >= mEnqueuePosition.get();
+    }
+}
@@ -0,0 +1,290 @@
+package com.ungseong.logcenter;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A sealed segment of {@link SegmentedLogStore} with its records Deflate-compressed in blocks of
+ * {@value #BLOCK_RECORDS}, so a single record is read by inflating its block only:
+ * {@code [int magic][int record version][int block count]}, then for every block
+ * {@code [int compressed bytes][int raw bytes][int records][long oldest time][long newest time]},
+ * then the blocks themselves. The records keep the layout of the segment they came from.
+ *
+ * <p>Blocks line up with those of {@link SparseTimeIndex}, so the time index of a compressed segment
+ * is built from the block table alone.
+ */
+/*package-private*/
+final class CompressedSegment {
+
+    static final String SUFFIX = ".segz";
+
+    static final int BLOCK_RECORDS = SparseTimeIndex.BLOCK_RECORDS;
+
+    private static final int MAGIC = 0x4C43535A; // "LCSZ"
+    private static final int HEADER_BYTES = 12;
+    private static final int BLOCK_ENTRY_BYTES = 28;
+
+    final File file;
+    final int version;
+    final long size;
+    int recordCount;
+
+    private final int mBlockCount;
+    private final long[] mBlockOffsets;
+    private final int[] mCompressedBytes;
+    private final int[] mRawBytes;
+    private final int[] mRecords;
+    private final long[] mMinTimes;
+    private final long[] mMaxTimes;
+
+    private CompressedSegment(File file, int version, int blockCount) {
+        this.file = file;
+        this.version = version;
+        this.size = file.length();
+        mBlockCount = blockCount;
+        mBlockOffsets = new long[blockCount];
+        mCompressedBytes = new int[blockCount];
+        mRawBytes = new int[blockCount];
+        mRecords = new int[blockCount];
+        mMinTimes = new long[blockCount];
+        mMaxTimes = new long[blockCount];
+    }
+
+    /**
+     * Reads the block table of {@code file}.
+     *
+     * @return the segment, or {@code null} if {@code file} is not a whole compressed segment
+     */
+    static CompressedSegment open(File file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            byte[] header = new byte[HEADER_BYTES];
+            in.readFully(header);
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            int version = buffer.getInt(4);
+            int blockCount = buffer.getInt(8);
+            if (buffer.getInt(0) != MAGIC || version < 1 || blockCount < 0
+                    || (long) blockCount * BLOCK_ENTRY_BYTES > file.length()) {
+                return null;
+            }
+            CompressedSegment segment = new CompressedSegment(file, version, blockCount);
+            byte[] table = new byte[blockCount * BLOCK_ENTRY_BYTES];
+            in.readFully(table);
+            buffer = ByteBuffer.wrap(table);
+            long offset = HEADER_BYTES + table.length;
+            for (int block = 0; block < blockCount; block++) {
+                segment.mBlockOffsets[block] = offset;
+                segment.mCompressedBytes[block] = buffer.getInt();
+                segment.mRawBytes[block] = buffer.getInt();
+                segment.mRecords[block] = buffer.getInt();
+                segment.mMinTimes[block] = buffer.getLong();
+                segment.mMaxTimes[block] = buffer.getLong();
+                // every block but the last is full, as the time index expects
+                if (segment.mCompressedBytes[block] < 0 || segment.mRawBytes[block] < 0 || segment.mRecords[block] <= 0
+                        || segment.mRecords[block] > BLOCK_RECORDS
+                        || (block < blockCount - 1 && segment.mRecords[block] != BLOCK_RECORDS)) {
+                    return null;
+                }
+                offset += segment.mCompressedBytes[block];
+                segment.recordCount += segment.mRecords[block];
+            }
+            if (offset != segment.size) {
+                return null;
+            }
+            return segment;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compresses the {@code recordCount} records of a segment into {@code target} and forces it to
+     * storage.
+     *
+     * @param recordOffsets where every record starts in {@code source}
+     * @param end           where the last record ends in {@code source}
+     */
+    static void write(File source, int version, int[] recordOffsets, int recordCount, long end, File target) throws IOException {
+        byte[] raw = new byte[(int) end];
+        try (RandomAccessFile in = new RandomAccessFile(source, "r")) {
+            in.readFully(raw);
+        }
+        ByteBuffer records = ByteBuffer.wrap(raw);
+
+        int blockCount = (recordCount + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+        ByteBuffer table = ByteBuffer.allocate(HEADER_BYTES + blockCount * BLOCK_ENTRY_BYTES);
+        table.putInt(MAGIC).putInt(version).putInt(blockCount);
+
+        byte[] compressed = new byte[4096];
+        int compressedLength = 0;
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            for (int first = 0; first < recordCount; first += BLOCK_RECORDS) {
+                int last = Math.min(first + BLOCK_RECORDS, recordCount);
+                long minTime = Long.MAX_VALUE;
+                long maxTime = Long.MIN_VALUE;
+                for (int i = first; i < last; i++) {
+                    long time = RecordCodec.time(records, recordOffsets[i], version);
+                    minTime = Math.min(minTime, time);
+                    maxTime = Math.max(maxTime, time);
+                }
+                int blockStart = recordOffsets[first];
+                int blockEnd = last < recordCount ? recordOffsets[last] : (int) end;
+
+                deflater.reset();
+                deflater.setInput(raw, blockStart, blockEnd - blockStart);
+                deflater.finish();
+                int blockLength = 0;
+                while (!deflater.finished()) {
+                    if (compressedLength + blockLength == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    }
+                    blockLength += deflater.deflate(compressed, compressedLength + blockLength,
+                            compressed.length - compressedLength - blockLength);
+                }
+                compressedLength += blockLength;
+                table.putInt(blockLength).putInt(blockEnd - blockStart).putInt(last - first).putLong(minTime).putLong(maxTime);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        table.flip();
+        ByteBuffer blocks = ByteBuffer.wrap(compressed, 0, compressedLength);
+        try (FileChannel channel = new FileOutputStream(target).getChannel()) {
+            while (table.hasRemaining()) {
+                channel.write(table);
+            }
+            while (blocks.hasRemaining()) {
+                channel.write(blocks);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Adds the oldest and newest time of every block to {@code times}, which must be empty.
+     */
+    void addTimes(SparseTimeIndex times) {
+        for (int block = 0; block < mBlockCount; block++) {
+            times.addBlock(mRecords[block], mMinTimes[block], mMaxTimes[block]);
+        }
+    }
+
+    long firstTime() {
+        long firstTime = Long.MAX_VALUE;
+        for (int block = 0; block < mBlockCount; block++) {
+            firstTime = Math.min(firstTime, mMinTimes[block]);
+        }
+        return firstTime;
+    }
+
+    long lastTime() {
+        long lastTime = Long.MIN_VALUE;
+        for (int block = 0; block < mBlockCount; block++) {
+            lastTime = Math.max(lastTime, mMaxTimes[block]);
+        }
+        return lastTime;
+    }
+
+    /**
+     * Reads and inflates the records of the segment one block at a time, keeping the last block it
+     * inflated, so paging through a segment inflates every block once. Not thread-safe.
+     */
+    static final class BlockReader {
+        private Inflater mInflater;
+        private byte[] mCompressed = new byte[0];
+
+        private CompressedSegment mSegment;
+        private int mBlock = -1;
+        private ByteBuffer mRecords;
+
+        /**
+         * Adds {@code count} records from {@code position} on to {@code out}, decoded by {@code codec}.
+         */
+        void read(CompressedSegment segment, int position, int count, RecordCodec codec, List<LogTypes.Log> out)
+                throws IOException {
+            int end = position + count;
+            while (position < end) {
+                int block = position / BLOCK_RECORDS;
+                ByteBuffer records = block(segment, block);
+                int first = block * BLOCK_RECORDS;
+                for (int i = first; i < position; i++) {
+                    RecordCodec.skip(records, segment.version);
+                }
+                int last = Math.min(first + segment.mRecords[block], end);
+                for (; position < last; position++) {
+                    out.add(codec.decode(records, segment.version));
+                }
+            }
+        }
+
+        /**
+         * Drops the block kept and the inflater's native memory; the next read sets them up again.
+         */
+        void release() {
+            if (mInflater != null) {
+                mInflater.end();
+                mInflater = null;
+            }
+            mCompressed = new byte[0];
+            mSegment = null;
+            mBlock = -1;
+            mRecords = null;
+        }
+
+        /**
+         * @return the records of {@code block}, positioned at its first record
+         */
+        private ByteBuffer block(CompressedSegment segment, int block) throws IOException {
+            if (segment == mSegment && block == mBlock) {
+                mRecords.rewind();
+                return mRecords;
+            }
+            mSegment = null;
+            int compressedBytes = segment.mCompressedBytes[block];
+            if (mCompressed.length < compressedBytes) {
+                mCompressed = new byte[compressedBytes];
+            }
+            try (RandomAccessFile in = new RandomAccessFile(segment.file, "r")) {
+                in.seek(segment.mBlockOffsets[block]);
+                in.readFully(mCompressed, 0, compressedBytes);
+            }
+
+            byte[] raw = new byte[segment.mRawBytes[block]];
+            if (mInflater == null) {
+                mInflater = new Inflater();
+            }
+            mInflater.reset();
+            mInflater.setInput(mCompressed, 0, compressedBytes);
+            try {
+                int length = 0;
+                while (length < raw.length) {
+                    int inflated = mInflater.inflate(raw, length, raw.length - length);
+                    if (inflated == 0 && (mInflater.finished() || mInflater.needsInput())) {
+                        throw new EOFException(segment.file.getName() + " block " + block);
+                    }
+                    length += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(segment.file.getName() + " block " + block, e);
+            }
+
+            mSegment = segment;
+            mBlock = block;
+            mRecords = ByteBuffer.wrap(raw);
+            return mRecords;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.ungseong.logcenter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Uncaught exception handler that writes the crash into a file mapped when it was installed, then
+ * hands the crash on to the handler it replaced. Nothing is opened, listed or formatted while the
+ * process is going down: the trace is encoded character by character straight into the mapping,
+ * and because the mapped pages belong to the kernel the record is on disk even though the process
+ * dies right after. The next time the store is opened the crash is moved into it as a
+ * {@link LogTypes.Level#FATAL} record.
+ *
+ * <p>The file is {@code [int magic][int length][long time][UTF-8 trace]}, the magic written last.
+ * Only the first crash of a process is recorded. The trace follows a {@code FATAL EXCEPTION} line
+ * naming the thread and is laid out like {@link ThrowableSerializer} does, causes and suppressed
+ * exceptions included, but with at most {@value #MAX_CAUSES} throwables in all.
+ */
+/*package-private*/
+final class CrashRecorder implements Thread.UncaughtExceptionHandler {
+
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    static final String TAG = "crash";
+    static final String CRASH_PREFIX = "FATAL EXCEPTION: ";
+
+    private static final int MAGIC = 0x4C434352; // "LCCR"
+    private static final int HEADER_BYTES = 16;
+    private static final int MAX_CAUSES = 16;
+
+    private final MappedByteBuffer mBuffer;
+    private final Thread.UncaughtExceptionHandler mPreviousHandler;
+    private final AtomicBoolean mRecorded = new AtomicBoolean();
+
+    // reserved up front so walking the causes allocates nothing
+    private final Throwable[] mCauses = new Throwable[MAX_CAUSES];
+    private int mCauseCount;
+
+    private CrashRecorder(MappedByteBuffer buffer, Thread.UncaughtExceptionHandler previousHandler) {
+        mBuffer = buffer;
+        mPreviousHandler = previousHandler;
+    }
+
+    /**
+     * Maps {@code file} and installs the recorder as the default uncaught exception handler.
+     */
+    static CrashRecorder install(File file, int capacity) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            // the mapping stays valid once the file is closed
+            if (randomAccessFile.length() != HEADER_BYTES + capacity) {
+                randomAccessFile.setLength(HEADER_BYTES + capacity);
+            }
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + capacity);
+        }
+        CrashRecorder crashRecorder = new CrashRecorder(buffer, Thread.getDefaultUncaughtExceptionHandler());
+        Thread.setDefaultUncaughtExceptionHandler(crashRecorder);
+        return crashRecorder;
+    }
+
+    void uninstall() {
+        if (Thread.getDefaultUncaughtExceptionHandler() == this) {
+            Thread.setDefaultUncaughtExceptionHandler(mPreviousHandler);
+        }
+    }
+
+    /**
+     * Moves a crash recorded by an earlier process into {@code store}.
+     *
+     * @return whether there was one
+     */
+    static boolean importPendingCrash(File file, LogStore store) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            if (randomAccessFile.length() < HEADER_BYTES || randomAccessFile.readInt() != MAGIC) {
+                return false;
+            }
+            int length = randomAccessFile.readInt();
+            long time = randomAccessFile.readLong();
+            if (length < 0 || length > randomAccessFile.length() - HEADER_BYTES) {
+                randomAccessFile.seek(0);
+                randomAccessFile.writeInt(0);
+                return false;
+            }
+            byte[] trace = new byte[length];
+            randomAccessFile.readFully(trace);
+
+            store.append(time, LogTypes.Level.FATAL, TAG, new String(trace, StandardCharsets.UTF_8));
+            store.sync();
+
+            randomAccessFile.seek(0);
+            randomAccessFile.writeInt(0);
+            randomAccessFile.getFD().sync();
+            return true;
+        }
+    }
+
+    @Override
+    public void uncaughtException(Thread thread, Throwable throwable) {
+        if (mRecorded.compareAndSet(false, true)) {
+            try {
+                record(thread, throwable);
+            } catch (Throwable ignored) {
+                // recording must never keep the previous handler from running
+            }
+        }
+
+        if (mPreviousHandler != null) {
+            mPreviousHandler.uncaughtException(thread, throwable);
+        } else {
+            System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+            throwable.printStackTrace();
+        }
+    }
+
+    private void record(Thread thread, Throwable throwable) {
+        long time = System.currentTimeMillis();
+        mBuffer.position(HEADER_BYTES);
+
+        put(CRASH_PREFIX);
+        put(thread.getName());
+
+        putThrowable(throwable, null, "", 0);
+        for (int i = 0; i < mCauseCount; i++) {
+            mCauses[i] = null;
+        }
+        mCauseCount = 0;
+
+        mBuffer.putInt(4, mBuffer.position() - HEADER_BYTES);
+        mBuffer.putLong(8, time);
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.force();
+    }
+
+    /**
+     * @param caption written before the throwable, on a line of its own
+     * @param depth how deep among suppressed exceptions the throwable is, indented a tab each
+     */
+    private void putThrowable(Throwable throwable, StackTraceElement[] enclosingTrace, String caption, int depth) {
+        if (mCauseCount == MAX_CAUSES) {
+            return;
+        }
+        putLineStart(depth);
+        put(caption);
+        if (isRecorded(throwable)) {
+            put("[CIRCULAR REFERENCE: ");
+            put(throwable.getClass().getName());
+            put("]");
+            return;
+        }
+        mCauses[mCauseCount++] = throwable;
+
+        put(throwable.getClass().getName());
+        String message;
+        try {
+            message = throwable.getLocalizedMessage();
+        } catch (Throwable e) {
+            message = null;
+        }
+        if (message != null) {
+            put(": ");
+            put(message);
+        }
+
+        StackTraceElement[] trace;
+        Throwable[] suppressed;
+        try {
+            trace = throwable.getStackTrace();
+            suppressed = throwable.getSuppressed();
+        } catch (Throwable e) {
+            // the copies did not fit in what is left of the heap
+            trace = null;
+            suppressed = null;
+        }
+        if (trace != null) {
+            int unique = trace.length - ThrowableSerializer.countFramesInCommon(trace, enclosingTrace);
+            for (int i = 0; i < unique; i++) {
+                putLineStart(depth);
+                putFrame(trace[i]);
+            }
+            if (unique < trace.length) {
+                putLineStart(depth);
+                put("\t... ");
+                putNumber(trace.length - unique);
+                put(" more");
+            }
+        }
+
+        if (suppressed != null) {
+            for (Throwable s : suppressed) {
+                putThrowable(s, trace, "Suppressed: ", depth + 1);
+            }
+        }
+        Throwable cause = throwable.getCause();
+        if (cause != null) {
+            putThrowable(cause, trace, "Caused by: ", depth);
+        }
+    }
+
+    private void putLineStart(int depth) {
+        put("\n");
+        for (int i = 0; i < depth; i++) {
+            put("\t");
+        }
+    }
+
+    private boolean isRecorded(Throwable throwable) {
+        for (int i = 0; i < mCauseCount; i++) {
+            if (mCauses[i] == throwable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void putFrame(StackTraceElement frame) {
+        put("\tat ");
+        put(frame.getClassName());
+        put(".");
+        put(frame.getMethodName());
+        if (frame.isNativeMethod()) {
+            put("(Native Method)");
+        } else if (frame.getFileName() == null) {
+            put("(Unknown Source)");
+        } else {
+            put("(");
+            put(frame.getFileName());
+            if (frame.getLineNumber() >= 0) {
+                put(":");
+                putNumber(frame.getLineNumber());
+            }
+            put(")");
+        }
+    }
+
+    private void putNumber(int number) {
+        int divisor = 1;
+        while (number / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0 && mBuffer.hasRemaining(); divisor /= 10) {
+            mBuffer.put((byte) ('0' + number / divisor % 10));
+        }
+    }
+
+    /**
+     * Encodes {@code text} as UTF-8 without allocating, stopping at the end of the buffer.
+     */
+    private void put(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            int c = text.charAt(i);
+            if (Character.isHighSurrogate((char) c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, text.charAt(++i));
+            }
+            if (mBuffer.remaining() < 4) {
+                return;
+            }
+            if (c < 0x80) {
+                mBuffer.put((byte) c);
+            } else if (c < 0x800) {
+                mBuffer.put((byte) (0xC0 | (c >> 6)));
+                mBuffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (c < 0x10000) {
+                mBuffer.put((byte) (0xE0 | (c >> 12)));
+                mBuffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                mBuffer.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                mBuffer.put((byte) (0xF0 | (c >> 18)));
+                mBuffer.put((byte) (0x80 | ((c >> 12) & 0x3F)));
+                mBuffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                mBuffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,522 @@
+package com.ungseong.logcenter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * Keeps one full record per {@link LogFingerprint fingerprint} in the wrapped store. A repeat of a
+ * record that is still stored only appends a small {@code [long fingerprint][long time][int count]}
+ * entry to a side file, and reads fill in how often, and when first and last, each record occurred.
+ *
+ * <p>An occurrence entry only counts for the stored record with the same fingerprint that is not
+ * newer than it, so once the record is expired its old occurrences are ignored and the next repeat
+ * is stored in full again. When the side file grows past {@link #MAX_OCCURRENCE_ENTRIES} it is
+ * rewritten without dead entries, folding all but the newest {@link #KEPT_TIMES_PER_RECORD}
+ * timestamps of every record into a single counted entry.
+ *
+ * <p>The fingerprint of every stored record is saved to a second side file every
+ * {@value #CHECKPOINT_RECORDS} records and when the store is closed, so opening the store only
+ * reads back the records written after the last save instead of decoding the whole store. A saved
+ * table that does not fit the store, say after it was cleared, is thrown away and rebuilt.
+ */
+/*package-private*/
+final class DeduplicatingLogStore implements LogStore {
+
+    private static final int OCCURRENCE_BYTES = 20;
+    private static final int MAX_OCCURRENCE_ENTRIES = 64 * 1024;
+    private static final int KEPT_TIMES_PER_RECORD = 256;
+
+    private static final int LOAD_CHUNK = 256;
+
+    private static final int FINGERPRINT_MAGIC = 0x4C434650; // "LCFP"
+    private static final int FINGERPRINT_VERSION = 1;
+    private static final int CHECKPOINT_RECORDS = 4096;
+
+    private final LogStore mStore;
+    private final File mOccurrenceFile;
+    private final File mFingerprintFile;
+
+    private volatile boolean mEnabled = true;
+
+    private final HashMap<Long, Record> mRecords = new HashMap<>();
+    private boolean mLoaded;
+    private boolean mClosed;
+    // every record before this store index has its fingerprint in mRecords
+    private long mNextIndex;
+    private int mUnsavedRecords;
+
+    private FileChannel mOccurrenceChannel;
+    private final ByteBuffer mOccurrenceEntry = ByteBuffer.allocate(OCCURRENCE_BYTES);
+    private int mOccurrenceEntries;
+    private int mCompactThreshold = MAX_OCCURRENCE_ENTRIES;
+
+    DeduplicatingLogStore(LogStore store, File occurrenceFile, File fingerprintFile) {
+        mStore = store;
+        mOccurrenceFile = occurrenceFile;
+        mFingerprintFile = fingerprintFile;
+    }
+
+    /**
+     * While disabled every record is stored in full. Records stored in the meantime still count as
+     * the full record for later repeats once enabled again.
+     */
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * @throws ClosedChannelException once closed, rather than opening the store again
+     */
+    @Override
+    public synchronized long append(long time, LogTypes.Level level, String tag, String log) throws IOException {
+        if (mClosed) {
+            throw new ClosedChannelException();
+        }
+        load();
+
+        long fingerprint = LogFingerprint.of(level, tag, log);
+        Record record = mRecords.get(fingerprint);
+        if (mEnabled && record != null && time >= record.firstSeen && record.index >= mStore.firstIndex()) {
+            writeOccurrence(fingerprint, time, 1);
+            record.count++;
+            record.lastSeen = Math.max(record.lastSeen, time);
+            return record.index;
+        }
+
+        long index = mStore.append(time, level, tag, log);
+        mRecords.put(fingerprint, new Record(index, time));
+        mNextIndex = index + 1;
+        if (mRecords.size() > 2 * mStore.count() + LOAD_CHUNK) {
+            dropExpiredRecords();
+        }
+        if (++mUnsavedRecords >= CHECKPOINT_RECORDS) {
+            saveFingerprints();
+        }
+        return index;
+    }
+
+    @Override
+    public long firstIndex() throws IOException {
+        return mStore.firstIndex();
+    }
+
+    @Override
+    public int count() throws IOException {
+        return mStore.count();
+    }
+
+    @Override
+    public synchronized LogTypes.Log get(long index) throws IOException {
+        load();
+        LogTypes.Log log = mStore.get(index);
+        if (log != null) {
+            describe(index, log);
+        }
+        return log;
+    }
+
+    @Override
+    public synchronized void read(long fromIndex, int maxCount, List<LogTypes.Log> out) throws IOException {
+        load();
+        int start = out.size();
+        mStore.read(fromIndex, maxCount, out);
+        // walked with an iterator, as getLogSet reads into a LinkedList
+        long index = fromIndex;
+        for (ListIterator<LogTypes.Log> logs = out.listIterator(start); logs.hasNext(); index++) {
+            LogTypes.Log log = logs.next();
+            if (log != null) {
+                describe(index, log);
+            }
+        }
+    }
+
+    /**
+     * Fills in the occurrences of the record stored at {@code index}.
+     */
+    synchronized void describe(long index, LogTypes.Log log) {
+        Record record = mRecords.get(LogFingerprint.of(log));
+        if (record != null && record.index == index) {
+            log.setOccurrences(record.count, record.lastSeen);
+        }
+    }
+
+    /**
+     * @return the time of the record stored at {@code index} followed by the times of its repeats
+     * that were not folded away, oldest first
+     */
+    synchronized long[] getOccurrenceTimes(long index, LogTypes.Log log) throws IOException {
+        load();
+        long fingerprint = LogFingerprint.of(log);
+        Record record = mRecords.get(fingerprint);
+        if (record == null || record.index != index) {
+            return new long[]{log.getFirstSeen()};
+        }
+
+        long[] times = new long[Math.min(record.count, 64)];
+        int size = 0;
+        times[size++] = record.firstSeen;
+        if (record.count > 1 && mOccurrenceFile.isFile()) {
+            try (DataInputStream in = openOccurrences()) {
+                for (int i = 0; i < mOccurrenceEntries; i++) {
+                    long entryFingerprint = in.readLong();
+                    long time = in.readLong();
+                    int count = in.readInt();
+                    if (entryFingerprint != fingerprint || count != 1 || time < record.firstSeen) {
+                        continue;
+                    }
+                    if (size == times.length) {
+                        times = Arrays.copyOf(times, size * 2);
+                    }
+                    times[size++] = time;
+                }
+            }
+        }
+        times = Arrays.copyOf(times, size);
+        // repeats written by the async writer can reach the file slightly out of order
+        Arrays.sort(times);
+        return times;
+    }
+
+    @Override
+    public void findTimeRange(long fromTime, long toTime, List<long[]> out) throws IOException {
+        mStore.findTimeRange(fromTime, toTime, out);
+    }
+
+    @Override
+    public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        mStore.setRetentionPolicy(retentionPolicy);
+    }
+
+    @Override
+    public synchronized int enforceRetention(long now) throws IOException {
+        return mStore.enforceRetention(now);
+    }
+
+    @Override
+    public synchronized void sync() throws IOException {
+        mStore.sync();
+        if (mOccurrenceChannel != null) {
+            mOccurrenceChannel.force(false);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        mStore.clear();
+        mRecords.clear();
+        mFingerprintFile.delete();
+        mUnsavedRecords = 0;
+        try {
+            mNextIndex = mStore.firstIndex();
+        } catch (IOException e) {
+            // found again when the store is next loaded
+            mLoaded = false;
+        }
+        try {
+            if (mOccurrenceChannel != null) {
+                mOccurrenceChannel.truncate(0);
+            } else {
+                mOccurrenceFile.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mOccurrenceEntries = 0;
+        mCompactThreshold = MAX_OCCURRENCE_ENTRIES;
+    }
+
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        if (mLoaded && mUnsavedRecords > 0) {
+            try {
+                saveFingerprints();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        mStore.close();
+        closeOccurrenceChannel();
+        mRecords.clear();
+        mLoaded = false;
+    }
+
+    private void load() throws IOException {
+        if (mLoaded) {
+            return;
+        }
+
+        mRecords.clear();
+        mNextIndex = 0;
+        mUnsavedRecords = 0;
+        long firstIndex = mStore.firstIndex();
+        long end = firstIndex + mStore.count();
+        Record lastSaved = null;
+        if (mFingerprintFile.isFile()) {
+            try {
+                lastSaved = readFingerprints(firstIndex);
+            } catch (IOException e) {
+                // torn or from another version, rebuilt from the store below
+                mRecords.clear();
+                mNextIndex = 0;
+            }
+        }
+        if (mNextIndex > end || (lastSaved != null && !isStored(lastSaved))) {
+            // the store was cleared or replaced since the table was saved
+            mRecords.clear();
+            mNextIndex = 0;
+        }
+        mNextIndex = Math.max(mNextIndex, firstIndex);
+        catchUp(end);
+
+        mOccurrenceEntries = 0;
+        if (mOccurrenceFile.isFile()) {
+            int entries = (int) (mOccurrenceFile.length() / OCCURRENCE_BYTES);
+            try (DataInputStream in = openOccurrences()) {
+                for (; mOccurrenceEntries < entries; mOccurrenceEntries++) {
+                    long fingerprint = in.readLong();
+                    long time = in.readLong();
+                    int count = in.readInt();
+                    Record record = mRecords.get(fingerprint);
+                    if (record != null && time >= record.firstSeen) {
+                        record.count += count;
+                        record.lastSeen = Math.max(record.lastSeen, time);
+                    }
+                }
+            } catch (EOFException e) {
+                // the last entry is torn and gets cut off when the file is opened for appending
+            }
+        }
+        mLoaded = true;
+
+        if (mOccurrenceEntries > mCompactThreshold) {
+            compactOccurrences();
+        }
+    }
+
+    /**
+     * Reads the fingerprints of the records from {@link #mNextIndex} up to {@code end} back from
+     * the store.
+     */
+    private void catchUp(long end) throws IOException {
+        ArrayList<LogTypes.Log> chunk = new ArrayList<>(LOAD_CHUNK);
+        while (mNextIndex < end) {
+            chunk.clear();
+            int count = (int) Math.min(LOAD_CHUNK, end - mNextIndex);
+            mStore.read(mNextIndex, count, chunk);
+            for (int i = 0; i < chunk.size(); i++) {
+                LogTypes.Log log = chunk.get(i);
+                if (log != null) {
+                    mRecords.put(LogFingerprint.of(log), new Record(mNextIndex + i, log.getMilliSecond()));
+                }
+            }
+            mNextIndex += count;
+            mUnsavedRecords += count;
+        }
+    }
+
+    /**
+     * Whether the store still holds the record {@code record} was saved for.
+     */
+    private boolean isStored(Record record) throws IOException {
+        LogTypes.Log log = mStore.get(record.index);
+        return log != null && log.getMilliSecond() == record.firstSeen && mRecords.get(LogFingerprint.of(log)) == record;
+    }
+
+    /**
+     * Writes the fingerprints of the records still stored to a new file and swaps it in.
+     */
+    private void saveFingerprints() throws IOException {
+        dropExpiredRecords();
+
+        File saved = new File(mFingerprintFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(saved)))) {
+            out.writeInt(FINGERPRINT_MAGIC);
+            out.writeInt(FINGERPRINT_VERSION);
+            out.writeLong(mNextIndex);
+            out.writeInt(mRecords.size());
+            for (Map.Entry<Long, Record> entry : mRecords.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue().index);
+                out.writeLong(entry.getValue().firstSeen);
+            }
+        }
+        if (!saved.renameTo(mFingerprintFile)) {
+            saved.delete();
+            throw new IOException("cannot replace " + mFingerprintFile);
+        }
+        mUnsavedRecords = 0;
+    }
+
+    /**
+     * @return the saved record with the highest index that is still stored, or {@code null} if there
+     * is none
+     */
+    private Record readFingerprints(long firstIndex) throws IOException {
+        Record lastSaved = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFingerprintFile)))) {
+            if (in.readInt() != FINGERPRINT_MAGIC || in.readInt() != FINGERPRINT_VERSION) {
+                throw new IOException("not a fingerprint table: " + mFingerprintFile);
+            }
+            mNextIndex = in.readLong();
+            int size = in.readInt();
+            if (size < 0) {
+                throw new IOException("bad record count: " + size);
+            }
+            for (int i = 0; i < size; i++) {
+                long fingerprint = in.readLong();
+                Record record = new Record(in.readLong(), in.readLong());
+                if (record.index < firstIndex) {
+                    continue;
+                }
+                if (record.index >= mNextIndex) {
+                    throw new IOException("record " + record.index + " past the saved end " + mNextIndex);
+                }
+                mRecords.put(fingerprint, record);
+                if (lastSaved == null || record.index > lastSaved.index) {
+                    lastSaved = record;
+                }
+            }
+        }
+        return lastSaved;
+    }
+
+    private void writeOccurrence(long fingerprint, long time, int count) throws IOException {
+        if (mOccurrenceEntries >= mCompactThreshold) {
+            compactOccurrences();
+        }
+        if (mOccurrenceChannel == null) {
+            mOccurrenceChannel = new RandomAccessFile(mOccurrenceFile, "rw").getChannel();
+            mOccurrenceChannel.truncate((long) mOccurrenceEntries * OCCURRENCE_BYTES);
+            mOccurrenceChannel.position((long) mOccurrenceEntries * OCCURRENCE_BYTES);
+        }
+
+        mOccurrenceEntry.clear();
+        mOccurrenceEntry.putLong(fingerprint).putLong(time).putInt(count).flip();
+        while (mOccurrenceEntry.hasRemaining()) {
+            mOccurrenceChannel.write(mOccurrenceEntry);
+        }
+        mOccurrenceEntries++;
+    }
+
+    /**
+     * Rewrites the side file with only the entries of records that are still stored.
+     */
+    private void compactOccurrences() throws IOException {
+        dropExpiredRecords();
+
+        HashMap<Long, ArrayList<long[]>> entriesByFingerprint = new HashMap<>();
+        try (DataInputStream in = openOccurrences()) {
+            for (int i = 0; i < mOccurrenceEntries; i++) {
+                long fingerprint = in.readLong();
+                long time = in.readLong();
+                int count = in.readInt();
+                Record record = mRecords.get(fingerprint);
+                if (record == null || time < record.firstSeen) {
+                    continue;
+                }
+                ArrayList<long[]> entries = entriesByFingerprint.get(fingerprint);
+                if (entries == null) {
+                    entries = new ArrayList<>();
+                    entriesByFingerprint.put(fingerprint, entries);
+                }
+                entries.add(new long[]{time, count});
+            }
+        }
+
+        File compacted = new File(mOccurrenceFile.getPath() + ".tmp");
+        int written = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compacted)))) {
+            for (Map.Entry<Long, ArrayList<long[]>> entry : entriesByFingerprint.entrySet()) {
+                long fingerprint = entry.getKey();
+                ArrayList<long[]> entries = entry.getValue();
+                int folded = Math.max(0, entries.size() - KEPT_TIMES_PER_RECORD);
+                if (folded > 0) {
+                    long firstTime = Long.MAX_VALUE;
+                    long foldedCount = 0;
+                    for (int i = 0; i < folded; i++) {
+                        firstTime = Math.min(firstTime, entries.get(i)[0]);
+                        foldedCount += entries.get(i)[1];
+                    }
+                    writeEntry(out, fingerprint, firstTime, (int) Math.min(foldedCount, Integer.MAX_VALUE));
+                    written++;
+                }
+                for (int i = folded; i < entries.size(); i++) {
+                    writeEntry(out, fingerprint, entries.get(i)[0], (int) entries.get(i)[1]);
+                    written++;
+                }
+            }
+        }
+
+        closeOccurrenceChannel();
+        if (!compacted.renameTo(mOccurrenceFile)) {
+            compacted.delete();
+            throw new IOException("cannot replace " + mOccurrenceFile);
+        }
+        mOccurrenceEntries = written;
+        // with many live records the file may stay big, so do not rewrite it again right away
+        mCompactThreshold = Math.max(MAX_OCCURRENCE_ENTRIES, written * 2);
+    }
+
+    private void dropExpiredRecords() throws IOException {
+        long firstIndex = mStore.firstIndex();
+        Iterator<Record> iterator = mRecords.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().index < firstIndex) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private DataInputStream openOccurrences() throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(mOccurrenceFile)));
+    }
+
+    private static void writeEntry(DataOutputStream out, long fingerprint, long time, int count) throws IOException {
+        out.writeLong(fingerprint);
+        out.writeLong(time);
+        out.writeInt(count);
+    }
+
+    private void closeOccurrenceChannel() {
+        if (mOccurrenceChannel != null) {
+            try {
+                mOccurrenceChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mOccurrenceChannel = null;
+        }
+    }
+
+    private static final class Record {
+        final long index;
+        final long firstSeen;
+        long lastSeen;
+        int count = 1;
+
+        Record(long index, long firstSeen) {
+            this.index = index;
+            this.firstSeen = firstSeen;
+            this.lastSeen = firstSeen;
+        }
+    }
+}
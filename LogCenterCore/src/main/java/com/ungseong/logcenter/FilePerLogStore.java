@@ -0,0 +1,383 @@
+package com.ungseong.logcenter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The storage of the first versions: every record is a file of its own named after its time,
+ * {@code <time>.log} or {@code <time>_<n>.log} if that is taken, holding a {@value #TAG_TIME} line
+ * with the time followed by the record text. Level and tag are not kept, so records read back as
+ * {@link LogTypes.Level#INFO} without a tag. At most {@code maxFiles} records are kept, oldest
+ * dropped first.
+ *
+ * <p>Every append creates a file and every read opens one, so this is by far the slowest store; it is
+ * here to read logs left by those versions and to compare the other stores against.
+ */
+/*package-private*/
+final class FilePerLogStore implements LogStore {
+
+    static final String TAG_TIME = "caused time: ";
+
+    static final String FILE_SUFFIX = ".log";
+
+    static final int MAX_LOG_FILES = 100;
+
+    // fewer files than this are read on the caller's thread
+    static final int PARALLEL_THRESHOLD = 32;
+    private static final int CHUNK_FILES = 8;
+
+    private static final int HEADER_READ_BYTES = 64;
+
+    private final File mDirectory;
+    private final int mMaxFiles;
+
+    private final ArrayList<File> mFiles = new ArrayList<>();
+    private long[] mTimes = new long[16];
+    private final SparseTimeIndex mTimeIndex = new SparseTimeIndex(0);
+
+    private boolean mOpened;
+    private long mFirstIndex;
+    private long mTotalBytes;
+
+    private RetentionPolicy mRetentionPolicy = RetentionPolicy.unlimited();
+
+    FilePerLogStore(File directory) {
+        this(directory, MAX_LOG_FILES);
+    }
+
+    FilePerLogStore(File directory, int maxFiles) {
+        mDirectory = directory;
+        mMaxFiles = maxFiles;
+    }
+
+    @Override
+    public synchronized long append(long time, LogTypes.Level level, String tag, String log) throws IOException {
+        open();
+
+        File logFile;
+        int i = 0;
+        while (true) {
+            logFile = new File(mDirectory, i > 0 ? time + "_" + i + FILE_SUFFIX : time + FILE_SUFFIX);
+            if (logFile.createNewFile()) {
+                break;
+            }
+            i++;
+        }
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile), StandardCharsets.UTF_8))) {
+            writer.write(TAG_TIME + time + "\n");
+            writer.write(log);
+            writer.write("\n");
+        }
+
+        addFile(logFile, time);
+        mTotalBytes += logFile.length();
+        long index = mFirstIndex + mFiles.size() - 1;
+
+        expire(Long.MIN_VALUE);
+        return index;
+    }
+
+    @Override
+    public synchronized long firstIndex() throws IOException {
+        open();
+        return mFirstIndex;
+    }
+
+    @Override
+    public synchronized int count() throws IOException {
+        open();
+        return mFiles.size();
+    }
+
+    @Override
+    public synchronized LogTypes.Log get(long index) throws IOException {
+        open();
+
+        long relative = index - mFirstIndex;
+        if (relative < 0 || relative >= mFiles.size()) {
+            return null;
+        }
+        return readFile(mFiles.get((int) relative));
+    }
+
+    @Override
+    public synchronized void read(long fromIndex, int maxCount, List<LogTypes.Log> out) throws IOException {
+        open();
+
+        long end = Math.min(fromIndex + maxCount, mFirstIndex + mFiles.size());
+        long index = fromIndex;
+        for (; index < end && index < mFirstIndex; index++) {
+            out.add(null);
+        }
+        if (index < end) {
+            readFiles(mFiles, (int) (index - mFirstIndex), (int) (end - index), out);
+        }
+    }
+
+    @Override
+    public synchronized void findTimeRange(long fromTime, long toTime, List<long[]> out) throws IOException {
+        open();
+        mTimeIndex.findRange(fromTime, toTime, 0, out);
+    }
+
+    @Override
+    public synchronized void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        mRetentionPolicy = retentionPolicy;
+    }
+
+    @Override
+    public synchronized int enforceRetention(long now) throws IOException {
+        open();
+        long firstIndex = mFirstIndex;
+        expire(mRetentionPolicy.ageCutoff(now));
+        return (int) (mFirstIndex - firstIndex);
+    }
+
+    /**
+     * Every record is written and closed by {@link #append}, leaving nothing buffered here; the
+     * files themselves are left to the OS, as they always were.
+     */
+    @Override
+    public void sync() {
+    }
+
+    @Override
+    public synchronized void clear() {
+        try {
+            open();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (File file : mFiles) {
+            file.delete();
+        }
+        mFirstIndex += mFiles.size();
+        mFiles.clear();
+        mTimeIndex.reset(mFirstIndex);
+        mTotalBytes = 0;
+    }
+
+    @Override
+    public synchronized void close() {
+        mFiles.clear();
+        mTotalBytes = 0;
+        mOpened = false;
+    }
+
+    private void open() throws IOException {
+        if (mOpened) {
+            return;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("cannot create log directory " + mDirectory);
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files);
+
+        mTimeIndex.reset(mFirstIndex);
+        for (File file : files) {
+            if (!file.getName().endsWith(FILE_SUFFIX)) {
+                continue;
+            }
+            // the name only tells when writing started, the header is what was shown and searched by
+            long time = readTime(file);
+            if (time == Long.MIN_VALUE) {
+                continue;
+            }
+            addFile(file, time);
+            mTotalBytes += file.length();
+        }
+        mOpened = true;
+        expire(Long.MIN_VALUE);
+    }
+
+    private void addFile(File file, long time) {
+        if (mFiles.size() == mTimes.length) {
+            mTimes = Arrays.copyOf(mTimes, mTimes.length * 2);
+        }
+        mTimes[mFiles.size()] = time;
+        mFiles.add(file);
+        mTimeIndex.add(time);
+    }
+
+    /**
+     * @param ageCutoff records older than this go as well
+     */
+    private void expire(long ageCutoff) {
+        int expired = 0;
+        long expiredBytes = 0;
+        while (expired < mFiles.size()) {
+            int remaining = mFiles.size() - expired;
+            if (remaining <= mMaxFiles
+                    && !mRetentionPolicy.exceedsBytes(mTotalBytes - expiredBytes)
+                    && !mRetentionPolicy.exceedsRecords(remaining)
+                    && mTimes[expired] >= ageCutoff) {
+                break;
+            }
+            File file = mFiles.get(expired);
+            expiredBytes += file.length();
+            file.delete();
+            expired++;
+        }
+        if (expired == 0) {
+            return;
+        }
+        mFiles.subList(0, expired).clear();
+        System.arraycopy(mTimes, expired, mTimes, 0, mFiles.size());
+        mFirstIndex += expired;
+        mTotalBytes -= expiredBytes;
+        mTimeIndex.dropBefore(mFirstIndex);
+    }
+
+    private static long readTime(File file) {
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] bytes = new byte[HEADER_READ_BYTES];
+            int length = readFully(in, bytes);
+            int headerEnd = indexOfLineEnd(bytes, length);
+            return parseTime(bytes, headerEnd);
+        } catch (IOException | NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Adds the records in {@code count} files from {@code from} on to {@code out}, in order, with
+     * {@code null} for any that cannot be read. From {@value #PARALLEL_THRESHOLD} files on, the files
+     * are split across a fork/join pool and parsed in parallel.
+     */
+    static void readFiles(List<File> files, int from, int count, List<LogTypes.Log> out) {
+        if (count < PARALLEL_THRESHOLD) {
+            for (int i = from; i < from + count; i++) {
+                out.add(readFile(files.get(i)));
+            }
+            return;
+        }
+        LogTypes.Log[] logs = new LogTypes.Log[count];
+        ReaderPool.POOL.invoke(new ReadTask(files, from, from + count, from, logs));
+        Collections.addAll(out, logs);
+    }
+
+    /**
+     * Reads the whole file in one go and decodes the body at once, rather than line by line.
+     *
+     * @return the record in {@code file}, or {@code null} if it cannot be read
+     */
+    static LogTypes.Log readFile(File file) {
+        try (FileInputStream in = new FileInputStream(file)) {
+            // one more than the size, so a file that grew since is noticed and read to its end
+            byte[] bytes = new byte[(int) Math.min(file.length() + 1, Integer.MAX_VALUE - 8)];
+            int length = readFully(in, bytes);
+            while (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                length += readFully(in, bytes, length);
+            }
+            if (length == 0) {
+                return null;
+            }
+            int headerEnd = indexOfLineEnd(bytes, length);
+            long time = parseTime(bytes, headerEnd);
+            int bodyStart = Math.min(length, headerEnd + (isCrLf(bytes, headerEnd, length) ? 2 : 1));
+            String logString = new String(bytes, bodyStart, length - bodyStart, StandardCharsets.UTF_8);
+            if (logString.indexOf('\r') >= 0) {
+                // as reading it line by line did
+                logString = logString.replace("\r\n", "\n").replace('\r', '\n');
+            }
+            return new LogTypes.Log(time, logString.trim());
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int readFully(FileInputStream in, byte[] bytes) throws IOException {
+        return readFully(in, bytes, 0);
+    }
+
+    /**
+     * @return how many bytes were read into {@code bytes} from {@code offset} on
+     */
+    private static int readFully(FileInputStream in, byte[] bytes, int offset) throws IOException {
+        int length = offset;
+        int read;
+        while (length < bytes.length && (read = in.read(bytes, length, bytes.length - length)) > 0) {
+            length += read;
+        }
+        return length - offset;
+    }
+
+    /**
+     * @return where the first line ends, at {@code \n}, {@code \r} or {@code \r\n} like
+     * {@link java.io.BufferedReader#readLine()}
+     */
+    private static int indexOfLineEnd(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == '\n' || bytes[i] == '\r') {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private static boolean isCrLf(byte[] bytes, int lineEnd, int length) {
+        return lineEnd + 1 < length && bytes[lineEnd] == '\r' && bytes[lineEnd + 1] == '\n';
+    }
+
+    private static long parseTime(byte[] bytes, int headerEnd) {
+        String header = new String(bytes, 0, headerEnd, StandardCharsets.UTF_8);
+        return Long.parseLong(header.replace(TAG_TIME, ""));
+    }
+
+    /**
+     * Splits a run of files in halves until each holds at most {@value #CHUNK_FILES}, which are then
+     * read on whichever pool thread got them. Every result goes to its own slot, so no merging is
+     * needed to keep the order.
+     */
+    private static final class ReadTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> mFiles;
+        private final int mFrom;
+        private final int mTo;
+        private final int mBase;
+        private final LogTypes.Log[] mOut;
+
+        ReadTask(List<File> files, int from, int to, int base, LogTypes.Log[] out) {
+            mFiles = files;
+            mFrom = from;
+            mTo = to;
+            mBase = base;
+            mOut = out;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= CHUNK_FILES) {
+                for (int i = mFrom; i < mTo; i++) {
+                    mOut[i - mBase] = readFile(mFiles.get(i));
+                }
+                return;
+            }
+            int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new ReadTask(mFiles, mFrom, middle, mBase, mOut), new ReadTask(mFiles, middle, mTo, mBase, mOut));
+        }
+    }
+
+    private static final class ReaderPool {
+        // reading is mostly waiting for storage, so a few threads help even on two cores
+        static final ForkJoinPool POOL = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+    }
+}
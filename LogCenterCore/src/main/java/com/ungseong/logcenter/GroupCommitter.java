@@ -0,0 +1,87 @@
+package com.ungseong.logcenter;
+
+import java.io.IOException;
+
+/**
+ * Decides when appended records are forced to storage. {@link LogTypes.Durability#SYNC} records
+ * commit immediately, {@link LogTypes.Durability#BATCHED} records share one commit once enough of
+ * them are pending or the oldest has waited long enough, and {@link LogTypes.Durability#NONE}
+ * records are left to the OS but ride along with whatever commit comes next.
+ */
+/*package-private*/
+final class GroupCommitter {
+
+    static final int DEFAULT_BATCH_RECORDS = 32;
+    static final long DEFAULT_BATCH_DELAY_MILLIS = 1000;
+
+    private int mBatchRecords = DEFAULT_BATCH_RECORDS;
+    private long mBatchDelayNanos = DEFAULT_BATCH_DELAY_MILLIS * 1_000_000L;
+
+    private int mUncommittedRecords;
+    private int mPendingBatchedRecords;
+    private long mOldestBatchedNanos;
+
+    private volatile LogTypes.CommitListener mCommitListener;
+
+    synchronized void setBatchPolicy(int batchRecords, long batchDelayMillis) {
+        if (batchRecords <= 0 || batchDelayMillis < 0) {
+            throw new IllegalArgumentException("batchRecords " + batchRecords + ", batchDelayMillis " + batchDelayMillis);
+        }
+        mBatchRecords = batchRecords;
+        mBatchDelayNanos = batchDelayMillis * 1_000_000L;
+    }
+
+    void setCommitListener(LogTypes.CommitListener commitListener) {
+        mCommitListener = commitListener;
+    }
+
+    /**
+     * Accounts for a record that was just appended to {@code store}.
+     */
+    synchronized void onAppended(LogStore store, LogTypes.Durability durability) throws IOException {
+        mUncommittedRecords++;
+
+        if (durability == LogTypes.Durability.SYNC) {
+            commit(store);
+        } else if (durability == LogTypes.Durability.BATCHED) {
+            if (mPendingBatchedRecords == 0) {
+                mOldestBatchedNanos = System.nanoTime();
+            }
+            mPendingBatchedRecords++;
+            commitIfDue(store);
+        }
+    }
+
+    /**
+     * Commits if enough BATCHED records are pending or the oldest one has waited for the batch delay.
+     */
+    synchronized void commitIfDue(LogStore store) throws IOException {
+        if (mPendingBatchedRecords == 0) {
+            return;
+        }
+        if (mPendingBatchedRecords >= mBatchRecords || System.nanoTime() - mOldestBatchedNanos >= mBatchDelayNanos) {
+            commit(store);
+        }
+    }
+
+    synchronized void commit(LogStore store) throws IOException {
+        if (mUncommittedRecords == 0) {
+            return;
+        }
+        store.sync();
+
+        int committedRecords = mUncommittedRecords;
+        mUncommittedRecords = 0;
+        mPendingBatchedRecords = 0;
+
+        LogTypes.CommitListener commitListener = mCommitListener;
+        if (commitListener != null) {
+            commitListener.onCommit(committedRecords);
+        }
+    }
+
+    synchronized void reset() {
+        mUncommittedRecords = 0;
+        mPendingBatchedRecords = 0;
+    }
+}
@@ -0,0 +1,168 @@
+package com.ungseong.logcenter;
+
+import java.util.List;
+
+/**
+ * Keeps records in a ring of plain arrays on the heap, nothing survives the process. Besides the
+ * {@link RetentionPolicy} the ring holds at most {@code maxRecords} records, the oldest being dropped
+ * for every record over that. Bytes are counted as the UTF-16 size of tag and text plus
+ * {@value #RECORD_OVERHEAD_BYTES} per record, which is about what the records take on the heap.
+ */
+/*package-private*/
+final class InMemoryLogStore implements LogStore {
+
+    static final int MAX_RECORDS = 10_000;
+
+    static final int RECORD_OVERHEAD_BYTES = 16;
+
+    private final long[] mTimes;
+    private final LogTypes.Level[] mLevels;
+    private final String[] mTags;
+    private final String[] mLogs;
+
+    // ring position of the oldest record
+    private int mHead;
+    private int mRecordCount;
+    private long mFirstIndex;
+    private long mTotalBytes;
+
+    private RetentionPolicy mRetentionPolicy = RetentionPolicy.unlimited();
+
+    private final SparseTimeIndex mTimeIndex = new SparseTimeIndex(0);
+
+    InMemoryLogStore() {
+        this(MAX_RECORDS);
+    }
+
+    InMemoryLogStore(int maxRecords) {
+        if (maxRecords <= 0) {
+            throw new IllegalArgumentException("maxRecords must be positive: " + maxRecords);
+        }
+        mTimes = new long[maxRecords];
+        mLevels = new LogTypes.Level[maxRecords];
+        mTags = new String[maxRecords];
+        mLogs = new String[maxRecords];
+    }
+
+    @Override
+    public synchronized long append(long time, LogTypes.Level level, String tag, String log) {
+        if (tag.length() > MAX_TAG_BYTES) {
+            tag = tag.substring(0, MAX_TAG_BYTES);
+        }
+        if (mRecordCount == mTimes.length) {
+            evictHead();
+        }
+        int position = (mHead + mRecordCount) % mTimes.length;
+        mTimes[position] = time;
+        mLevels[position] = level;
+        mTags[position] = tag;
+        mLogs[position] = log;
+        mRecordCount++;
+        mTotalBytes += recordBytes(position);
+        mTimeIndex.add(time);
+        long index = mFirstIndex + mRecordCount - 1;
+
+        expire(Long.MIN_VALUE);
+        return index;
+    }
+
+    @Override
+    public synchronized long firstIndex() {
+        return mFirstIndex;
+    }
+
+    @Override
+    public synchronized int count() {
+        return mRecordCount;
+    }
+
+    @Override
+    public synchronized LogTypes.Log get(long index) {
+        long relative = index - mFirstIndex;
+        if (relative < 0 || relative >= mRecordCount) {
+            return null;
+        }
+        return readRecord((int) relative);
+    }
+
+    /**
+     * Every record comes back as a new {@link LogTypes.Log}, so callers may change its occurrences
+     * without affecting what is stored.
+     */
+    @Override
+    public synchronized void read(long fromIndex, int maxCount, List<LogTypes.Log> out) {
+        long end = Math.min(fromIndex + maxCount, mFirstIndex + mRecordCount);
+        for (long index = fromIndex; index < end; index++) {
+            out.add(index < mFirstIndex ? null : readRecord((int) (index - mFirstIndex)));
+        }
+    }
+
+    @Override
+    public synchronized void findTimeRange(long fromTime, long toTime, List<long[]> out) {
+        mTimeIndex.findRange(fromTime, toTime, 0, out);
+    }
+
+    @Override
+    public synchronized void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        mRetentionPolicy = retentionPolicy;
+    }
+
+    @Override
+    public synchronized int enforceRetention(long now) {
+        long firstIndex = mFirstIndex;
+        expire(mRetentionPolicy.ageCutoff(now));
+        return (int) (mFirstIndex - firstIndex);
+    }
+
+    @Override
+    public void sync() {
+    }
+
+    @Override
+    public synchronized void clear() {
+        while (mRecordCount > 0) {
+            evictHead();
+        }
+        mHead = 0;
+        mTimeIndex.reset(mFirstIndex);
+    }
+
+    /**
+     * Nothing to release; the records stay until {@link #clear()}.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @param ageCutoff records older than this go as well
+     */
+    private void expire(long ageCutoff) {
+        while (mRecordCount > 0
+                && (mRetentionPolicy.exceedsBytes(mTotalBytes)
+                || mRetentionPolicy.exceedsRecords(mRecordCount)
+                || mTimes[mHead] < ageCutoff)) {
+            evictHead();
+        }
+    }
+
+    private void evictHead() {
+        mTotalBytes -= recordBytes(mHead);
+        mLevels[mHead] = null;
+        mTags[mHead] = null;
+        mLogs[mHead] = null;
+        mHead = (mHead + 1) % mTimes.length;
+        mRecordCount--;
+        mFirstIndex++;
+        mTimeIndex.dropBefore(mFirstIndex);
+    }
+
+    private long recordBytes(int position) {
+        return RECORD_OVERHEAD_BYTES + 2L * (mTags[position].length() + mLogs[position].length());
+    }
+
+    private LogTypes.Log readRecord(int relative) {
+        int position = (mHead + relative) % mTimes.length;
+        return new LogTypes.Log(mTimes[position], mLevels[position], mTags[position], mLogs[position]);
+    }
+}
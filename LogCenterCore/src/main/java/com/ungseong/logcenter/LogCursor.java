@@ -0,0 +1,272 @@
+package com.ungseong.logcenter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Random access to the records that were stored when the cursor was opened. Only a window of
+ * {@code windowSize} records around the last requested position is kept in memory, and moving past
+ * the window loads the next one with a single read, so neither memory nor the cost of
+ * {@link #get(int)} grows with the size of the store.
+ *
+ * <p>Positions stay stable while the cursor is open: a record expired by retention in the meantime
+ * comes back as {@code null} instead of shifting every later position. Not thread-safe.
+ *
+ * <p>A cursor opened with a {@link LogFilter} only has positions for the records it accepts. It
+ * keeps the store index of every one of them, 8 bytes per record, and reads runs of neighbouring
+ * records together. With a {@link LogQuery} in the filter the search index hands over the matching
+ * records, and only those are read, or none at all when the filter has no level or tag to check. A
+ * query that only has a time range reads just the blocks the store's sparse time index points at.
+ */
+public final class LogCursor {
+
+    static final int DEFAULT_WINDOW_SIZE = 64;
+
+    private static final int SCAN_CHUNK = 256;
+
+    private final LogStore mStore;
+    private final long mFirstIndex;
+    private final int mWindowSize;
+
+    private int mCount;
+
+    // store index of every position when filtered, otherwise positions map straight onto indices
+    private final LogFilter mFilter;
+    private long[] mIndices;
+
+    private final ArrayList<LogTypes.Log> mWindow;
+    private int mWindowStart;
+
+    // most recently posted records, handed over by the posted-log callback instead of read back
+    private final ArrayList<LogTypes.Log> mRecent;
+    private int mRecentStart;
+
+    LogCursor(LogStore store, long firstIndex, int count, int windowSize) {
+        this(store, firstIndex, count, windowSize, null, null);
+    }
+
+    private LogCursor(LogStore store, long firstIndex, int count, int windowSize, LogFilter filter, long[] indices) {
+        mStore = store;
+        mFirstIndex = firstIndex;
+        mCount = count;
+        mWindowSize = windowSize;
+        mWindow = new ArrayList<>(windowSize);
+        mRecent = new ArrayList<>(windowSize);
+        mFilter = filter;
+        mIndices = indices;
+    }
+
+    /**
+     * Opens a cursor over the records {@code filter} accepts, which reads every stored record once.
+     */
+    static LogCursor filtered(LogStore store, LogFilter filter, int windowSize) throws IOException {
+        long firstIndex = store.firstIndex();
+        List<long[]> ranges = Collections.singletonList(new long[]{firstIndex, firstIndex + store.count()});
+        return filtered(store, ranges, filter, windowSize);
+    }
+
+    /**
+     * Like {@link #filtered(LogStore, LogFilter, int)}, but only reads the records in
+     * {@code ranges}, ascending {@code [start, end)} pairs of store indices.
+     */
+    static LogCursor filtered(LogStore store, List<long[]> ranges, LogFilter filter, int windowSize) throws IOException {
+        long firstIndex = store.firstIndex();
+
+        long[] indices = new long[64];
+        int count = 0;
+        ArrayList<LogTypes.Log> chunk = new ArrayList<>(SCAN_CHUNK);
+        for (long[] range : ranges) {
+            for (long index = Math.max(range[0], firstIndex); index < range[1]; index += SCAN_CHUNK) {
+                chunk.clear();
+                store.read(index, (int) Math.min(SCAN_CHUNK, range[1] - index), chunk);
+                for (int i = 0; i < chunk.size(); i++) {
+                    LogTypes.Log log = chunk.get(i);
+                    if (log != null && filter.accepts(log)) {
+                        if (count == indices.length) {
+                            indices = Arrays.copyOf(indices, count * 2);
+                        }
+                        indices[count++] = index + i;
+                    }
+                }
+            }
+        }
+        return new LogCursor(store, firstIndex, count, windowSize, filter, indices);
+    }
+
+    /**
+     * Opens a cursor over those of the {@code candidates}, store indices in ascending order, that
+     * {@code filter} accepts by level and tag. The query of the filter is taken to be matched already.
+     */
+    static LogCursor filtered(LogStore store, long[] candidates, LogFilter filter, int windowSize) throws IOException {
+        long firstIndex = store.firstIndex();
+        if (filter.acceptsEveryLevelAndTag()) {
+            return new LogCursor(store, firstIndex, candidates.length, windowSize, filter, candidates);
+        }
+
+        long[] indices = new long[candidates.length];
+        int count = 0;
+        ArrayList<LogTypes.Log> chunk = new ArrayList<>(SCAN_CHUNK);
+        for (int run = 0; run < candidates.length; ) {
+            int runEnd = run + 1;
+            while (runEnd < candidates.length && runEnd - run < SCAN_CHUNK && candidates[runEnd] == candidates[runEnd - 1] + 1) {
+                runEnd++;
+            }
+            chunk.clear();
+            store.read(candidates[run], runEnd - run, chunk);
+            for (int i = 0; i < chunk.size(); i++) {
+                LogTypes.Log log = chunk.get(i);
+                if (log != null && filter.acceptsLevelAndTag(log)) {
+                    indices[count++] = candidates[run + i];
+                }
+            }
+            run = runEnd;
+        }
+        return new LogCursor(store, firstIndex, count, windowSize, filter, indices);
+    }
+
+    static LogCursor empty() {
+        return new LogCursor(null, 0, 0, 0);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public LogTypes.Log get(int position) {
+        if (position < 0 || position >= mCount) {
+            throw new IndexOutOfBoundsException("position " + position + ", count " + mCount);
+        }
+        if (position >= mRecentStart && position < mRecentStart + mRecent.size()) {
+            return mRecent.get(position - mRecentStart);
+        }
+        if (position < mWindowStart || position >= mWindowStart + mWindow.size()) {
+            // keep a quarter of the window behind the requested position for scrolling back
+            loadWindow(Math.max(0, Math.min(position - mWindowSize / 4, mCount - mWindowSize)));
+        }
+        return mWindow.get(position - mWindowStart);
+    }
+
+    /**
+     * Extends the cursor with a record that was posted after it was opened, without reading it back
+     * from the store.
+     *
+     * @param index the store index the record was written at
+     * @return the number of positions added, 0 if the cursor already covered the record
+     */
+    public int appendPosted(long index, LogTypes.Log log) {
+        int position;
+        if (mFilter == null) {
+            position = (int) (index - mFirstIndex);
+        } else {
+            if (!mFilter.accepts(log) || (mCount > 0 && index <= mIndices[mCount - 1])) {
+                return 0;
+            }
+            if (mCount == mIndices.length) {
+                mIndices = Arrays.copyOf(mIndices, Math.max(64, mCount * 2));
+            }
+            mIndices[mCount] = index;
+            position = mCount;
+        }
+        if (position < mCount) {
+            return 0;
+        }
+        if (position > mCount || mRecent.size() == mWindowSize) {
+            // records between the last known one and this were missed; they are read on demand
+            if (position > mCount) {
+                mRecent.clear();
+            } else {
+                mRecent.remove(0);
+                mRecentStart++;
+            }
+        }
+        if (mRecent.isEmpty()) {
+            mRecentStart = position;
+        }
+        mRecent.add(log);
+
+        int added = position + 1 - mCount;
+        mCount = position + 1;
+        return added;
+    }
+
+    /**
+     * Store index of the record at {@code position}.
+     */
+    public long getIndex(int position) {
+        return mIndices != null ? mIndices[position] : mFirstIndex + position;
+    }
+
+    /**
+     * Takes over the occurrences of a posted repeat of a record the cursor already covers.
+     *
+     * @param index the store index of the repeated record
+     * @return the position of the record, or -1 if the cursor does not cover it yet
+     */
+    public int updateOccurrences(long index, LogTypes.Log log) {
+        int position = mIndices != null ? Arrays.binarySearch(mIndices, 0, mCount, index) : (int) (index - mFirstIndex);
+        if (position < 0 || position >= mCount) {
+            return -1;
+        }
+        LogTypes.Log cached = null;
+        if (position >= mRecentStart && position < mRecentStart + mRecent.size()) {
+            cached = mRecent.get(position - mRecentStart);
+        } else if (position >= mWindowStart && position < mWindowStart + mWindow.size()) {
+            cached = mWindow.get(position - mWindowStart);
+        }
+        if (cached != null) {
+            cached.setOccurrences(log.getOccurrenceCount(), log.getLastSeen());
+        }
+        return position;
+    }
+
+    /**
+     * @return the records in {@code [from, to)}, with {@code null} for expired ones
+     */
+    public List<LogTypes.Log> getRange(int from, int to) {
+        if (from < 0 || to > mCount || from > to) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + "), count " + mCount);
+        }
+        if (from == to) {
+            return Collections.emptyList();
+        }
+        ArrayList<LogTypes.Log> range = new ArrayList<>(to - from);
+        readPositions(from, to - from, range);
+        return range;
+    }
+
+    private void loadWindow(int start) {
+        mWindow.clear();
+        mWindowStart = start;
+        readPositions(start, Math.min(mWindowSize, mCount - start), mWindow);
+    }
+
+    private void readPositions(int from, int count, List<LogTypes.Log> out) {
+        int end = out.size() + count;
+        try {
+            if (mIndices == null) {
+                mStore.read(mFirstIndex + from, count, out);
+            } else {
+                for (int run = from; run < from + count; ) {
+                    int runEnd = run + 1;
+                    while (runEnd < from + count && mIndices[runEnd] == mIndices[runEnd - 1] + 1) {
+                        runEnd++;
+                    }
+                    int runOutEnd = out.size() + runEnd - run;
+                    mStore.read(mIndices[run], runEnd - run, out);
+                    while (out.size() < runOutEnd) {
+                        out.add(null);
+                    }
+                    run = runEnd;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        while (out.size() < end) {
+            out.add(null);
+        }
+    }
+}
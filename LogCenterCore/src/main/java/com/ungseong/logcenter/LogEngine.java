@@ -0,0 +1,956 @@
+package com.ungseong.logcenter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything that posts, stores and reads records, without anything Android. {@code LogCenter} is a
+ * static facade over one engine kept in the app's files directory; on a plain JVM, for tests and
+ * benchmarks, an engine is created with any directory. Which {@link LogStore} holds the records is
+ * chosen with {@link #setStorageBackend(StorageBackend)} or {@link #setLogStoreFactory(LogStoreFactory)}.
+ */
+public final class LogEngine implements LogTypes {
+
+    private static final String OCCURRENCE_FILE_NAME = "occurrences.dat";
+    private static final String CRASH_FILE_NAME = "crash.mmap";
+
+    private static final long RETENTION_INTERVAL_MILLIS = 60_000;
+
+    private static final int RANGE_READ_CHUNK = 256;
+
+    private volatile File mDirectory;
+
+    // guards opening and closing the stores; the writer thread may need it while this is locked
+    private final Object mStoreLock = new Object();
+
+    private volatile DeduplicatingLogStore mStore;
+
+    private volatile LogSearchIndex mSearchIndex;
+
+    private volatile LogStore mTraceStore;
+
+    private volatile boolean mDeduplicationEnabled = true;
+
+    private LogStoreFactory mStoreFactory = StorageBackend.SEGMENTED;
+
+    private volatile LogPostedListener mLogPostedListener;
+
+    private volatile AsyncLogWriter mAsyncWriter;
+
+    private volatile LogShipper mShipper;
+
+    private StallWatchdog mStallWatchdog;
+
+    private volatile SpanRecorder mSpanRecorder;
+
+    private final GroupCommitter mCommitter = new GroupCommitter();
+
+    private volatile Durability mDefaultDurability = Durability.NONE;
+
+    private volatile int mStackTraceFrameLimit = ThrowableSerializer.DEFAULT_MAX_FRAMES;
+
+    private volatile int mMinimumPriority = Level.VERBOSE.priority;
+
+    private volatile RateLimiter mRateLimiter;
+
+    private volatile RetentionPolicy mRetentionPolicy = RetentionPolicy.unlimited();
+
+    private volatile long mNextRetentionRun;
+
+    private CrashRecorder mCrashRecorder;
+
+    /**
+     * @param directory where records and the files kept next to them go; created on first use
+     */
+    public LogEngine(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * An engine whose directory is only known once {@link #setDirectory(File)} was called.
+     */
+    /*package-private*/
+    LogEngine() {
+    }
+
+    /*package-private*/
+    boolean hasDirectory() {
+        return mDirectory != null;
+    }
+
+    /*package-private*/
+    synchronized void setDirectory(File directory) {
+        if (mDirectory == null) {
+            mDirectory = directory;
+        }
+    }
+
+    private DeduplicatingLogStore getStore() throws IOException {
+        DeduplicatingLogStore store = mStore;
+        if (store != null) {
+            return store;
+        }
+        return openStore();
+    }
+
+    private DeduplicatingLogStore openStore() throws IOException {
+        synchronized (mStoreLock) {
+            if (mStore != null) {
+                return mStore;
+            }
+            File directory = mDirectory;
+            if (directory == null) {
+                throw new IllegalStateException("no log directory set");
+            }
+            if (!directory.isDirectory()) {
+                directory.delete();
+                directory.mkdirs();
+            }
+            LogStore store = mStoreFactory.open(directory);
+            DeduplicatingLogStore deduplicatingStore = new DeduplicatingLogStore(store, new File(directory, OCCURRENCE_FILE_NAME),
+                    new File(directory, sideFileName("fingerprints-", mStoreFactory, ".dat")));
+            deduplicatingStore.setEnabled(mDeduplicationEnabled);
+            deduplicatingStore.setRetentionPolicy(mRetentionPolicy);
+            mNextRetentionRun = 0;
+            try {
+                CrashRecorder.importPendingCrash(new File(directory, CRASH_FILE_NAME), deduplicatingStore);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            // set before the store is published, so whoever sees the store sees its index
+            mSearchIndex = new LogSearchIndex(deduplicatingStore, new File(directory, sideFileName("search-", mStoreFactory, ".idx")));
+            mStore = deduplicatingStore;
+            return mStore;
+        }
+    }
+
+    private LogStore getTraceStore() {
+        LogStore traceStore = mTraceStore;
+        if (traceStore != null) {
+            return traceStore;
+        }
+        return openTraceStore();
+    }
+
+    /**
+     * Spans are kept apart from the records and do not change with the backend, so the trace store
+     * is only closed by {@link #close()}.
+     */
+    private LogStore openTraceStore() {
+        synchronized (mStoreLock) {
+            if (mTraceStore == null) {
+                File directory = mDirectory;
+                if (directory == null) {
+                    throw new IllegalStateException("no log directory set");
+                }
+                mTraceStore = new SegmentedLogStore(new File(directory, SpanRecorder.DIRECTORY));
+            }
+            return mTraceStore;
+        }
+    }
+
+    /**
+     * A side file of its own for every backend, as their store indices have nothing in common.
+     */
+    private static String sideFileName(String prefix, LogStoreFactory storeFactory, String suffix) {
+        String name = storeFactory instanceof StorageBackend ? ((StorageBackend) storeFactory).name().toLowerCase(Locale.ROOT) : "custom";
+        return prefix + name + suffix;
+    }
+
+    /**
+     * Selects one of the built-in stores. Records already written to another store stay where they
+     * are but are no longer listed.
+     */
+    public void setStorageBackend(StorageBackend storageBackend) {
+        setLogStoreFactory(storageBackend);
+    }
+
+    /**
+     * Selects where records are kept. The store is opened on first use; records already written to
+     * the previous store stay where they are but are no longer listed. All custom stores share one
+     * search index file, which is rebuilt from the store whenever it does not match. Records queued
+     * by async mode are written out first; those posted while the store is switched go to the new
+     * one.
+     */
+    public synchronized void setLogStoreFactory(LogStoreFactory storeFactory) {
+        if (mStoreFactory == storeFactory) {
+            return;
+        }
+        // what was queued before the switch goes to the store it was posted to
+        AsyncLogWriter asyncWriter = mAsyncWriter;
+        if (asyncWriter != null) {
+            try {
+                asyncWriter.flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mStoreFactory = storeFactory;
+        closeStore();
+    }
+
+    /**
+     * When enabled, which is the default, a record with the same fingerprint as one that is still
+     * stored is not stored again; only its time is added to that record's occurrences. A stack
+     * trace is fingerprinted by its exception class and top {@value LogFingerprint#FRAMES} frames,
+     * anything else by its whole text.
+     */
+    public void setDeduplicationEnabled(boolean enabled) {
+        synchronized (mStoreLock) {
+            mDeduplicationEnabled = enabled;
+            if (mStore != null) {
+                mStore.setEnabled(enabled);
+            }
+        }
+    }
+
+    /**
+     * Sets how much the store keeps. The byte and record limits are checked whenever a record is
+     * written. Everything, age included, is also enforced at least every
+     * {@value #RETENTION_INTERVAL_MILLIS} ms while records are being posted, and by the async
+     * writer while it is idle.
+     */
+    public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        synchronized (mStoreLock) {
+            mRetentionPolicy = retentionPolicy;
+            if (mStore != null) {
+                mStore.setRetentionPolicy(retentionPolicy);
+            }
+            mNextRetentionRun = 0;
+        }
+    }
+
+    private void enforceRetentionIfDue(LogStore store) {
+        long now = System.currentTimeMillis();
+        if (now < mNextRetentionRun) {
+            return;
+        }
+        mNextRetentionRun = now + RETENTION_INTERVAL_MILLIS;
+        try {
+            store.enforceRetention(now);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Installs an uncaught exception handler that records a crash before handing it on to the
+     * handler that was installed before. The file it writes to is set up here, so recording needs
+     * no I/O calls and next to no memory while the process dies. The crash shows up as a
+     * {@link Level#FATAL} record the next time the log is opened.
+     */
+    public synchronized void installCrashHandler() {
+        if (mCrashRecorder != null) {
+            return;
+        }
+        try {
+            // picks up the crash of the previous run before the file is reused
+            getStore();
+            mCrashRecorder = CrashRecorder.install(new File(mDirectory, CRASH_FILE_NAME), CrashRecorder.DEFAULT_CAPACITY);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Puts the handler that was installed before {@link #installCrashHandler()} back, as long as
+     * nobody replaced the crash handler since.
+     */
+    public synchronized void uninstallCrashHandler() {
+        if (mCrashRecorder != null) {
+            mCrashRecorder.uninstall();
+            mCrashRecorder = null;
+        }
+    }
+
+    public void postLog(String log) {
+        postLog(Level.INFO, "", log, mDefaultDurability);
+    }
+
+    public void postLog(String log, Durability durability) {
+        postLog(Level.INFO, "", log, durability);
+    }
+
+    public void postLog(Level level, String tag, String message) {
+        postLog(level, tag, message, mDefaultDurability);
+    }
+
+    /**
+     * Only asks {@code messageSupplier} for the message if {@code level} is loggable. A lambda that
+     * captures nothing is not even allocated, so a disabled call costs a single volatile read.
+     */
+    public void postLog(Level level, String tag, LogSupplier messageSupplier) {
+        if (level.priority < mMinimumPriority) {
+            return;
+        }
+        postLog(level, tag, messageSupplier.get(), mDefaultDurability);
+    }
+
+    public void postLog(Level level, String tag, Throwable throwable) {
+        if (level.priority < mMinimumPriority) {
+            return;
+        }
+        postLog(level, tag, ThrowableSerializer.serialize(throwable, mStackTraceFrameLimit), mDefaultDurability);
+    }
+
+    /**
+     * Posts a record with its own durability instead of the default one. A {@link Durability#SYNC}
+     * record is always written and forced to storage before this returns, even in async mode, so it
+     * may land ahead of records that are still queued.
+     */
+    public void postLog(Level level, String tag, String message, Durability durability) {
+        if (level.priority < mMinimumPriority) {
+            return;
+        }
+        if (tag == null) {
+            tag = "";
+        }
+
+        RateLimiter rateLimiter = mRateLimiter;
+        if (rateLimiter != null) {
+            postSuppressionSummaries(rateLimiter, false);
+            if (!rateLimiter.tryAcquire(level, tag, message)) {
+                return;
+            }
+        }
+        enqueueOrWrite(System.currentTimeMillis(), level, tag, message, durability);
+    }
+
+    public void postLog(Exception exception) {
+        postLog(exception, mDefaultDurability);
+    }
+
+    public void postLog(Throwable throwable, Durability durability) {
+        if (Level.ERROR.priority < mMinimumPriority) {
+            return;
+        }
+        postLog(Level.ERROR, "", ThrowableSerializer.serialize(throwable, mStackTraceFrameLimit), durability);
+    }
+
+    private void enqueueOrWrite(long time, Level level, String tag, String message, Durability durability) {
+        AsyncLogWriter asyncWriter = mAsyncWriter;
+        if (durability != Durability.SYNC && asyncWriter != null && asyncWriter.enqueue(time, level, tag, message, durability)) {
+            return;
+        }
+        try {
+            writeLog(getStore(), time, level, tag, message, durability);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Records below {@code level} are dropped before anything is formatted or allocated. Defaults to
+     * {@link Level#VERBOSE}, which keeps everything.
+     */
+    public void setMinimumLevel(Level level) {
+        mMinimumPriority = level.priority;
+    }
+
+    public boolean isLoggable(Level level) {
+        return level.priority >= mMinimumPriority;
+    }
+
+    /**
+     * Caps how fast records are written: at most {@code recordsPerSecond} in total with bursts of up
+     * to {@code burst}, and at most {@code recordsPerSecondPerRecord} with bursts of up to
+     * {@code burstPerRecord} for any one record, told apart the same way as for deduplication.
+     * Records over a limit are not written; instead, {@value RateLimiter#SUMMARY_WINDOW_MILLIS} ms
+     * after the first of them, a single record says how many similar ones were left out. In async
+     * mode the writer writes it while idle; otherwise nothing runs in the background, so it waits
+     * for the next record posted after that, or for {@link #disableRateLimit()}.
+     */
+    public synchronized void setRateLimit(double recordsPerSecond, int burst,
+                                          double recordsPerSecondPerRecord, int burstPerRecord) {
+        disableRateLimit();
+        mRateLimiter = new RateLimiter(recordsPerSecond, burst, recordsPerSecondPerRecord, burstPerRecord);
+    }
+
+    /**
+     * Stops limiting, writing the summaries of records suppressed so far right away.
+     */
+    public synchronized void disableRateLimit() {
+        RateLimiter rateLimiter = mRateLimiter;
+        if (rateLimiter != null) {
+            mRateLimiter = null;
+            postSuppressionSummaries(rateLimiter, true);
+        }
+    }
+
+    public long getSuppressedLogCount() {
+        RateLimiter rateLimiter = mRateLimiter;
+        return rateLimiter != null ? rateLimiter.getSuppressedCount() : 0;
+    }
+
+    private void postSuppressionSummaries(RateLimiter rateLimiter, boolean closeOpenWindows) {
+        List<RateLimiter.Summary> summaries = rateLimiter.pollSummaries(closeOpenWindows);
+        for (int i = 0; i < summaries.size(); i++) {
+            RateLimiter.Summary summary = summaries.get(i);
+            enqueueOrWrite(System.currentTimeMillis(), summary.level, summary.tag, summary.toLogString(), mDefaultDurability);
+        }
+    }
+
+    private void writeLogs(List<AsyncLogWriter.PendingLog> batch) {
+        DeduplicatingLogStore store;
+        try {
+            store = getStore();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        for (AsyncLogWriter.PendingLog pendingLog : batch) {
+            store = writeLog(store, pendingLog.time, pendingLog.level, pendingLog.tag, pendingLog.log, pendingLog.durability);
+        }
+    }
+
+    private void commitIfDue() {
+        DeduplicatingLogStore store = mStore;
+        if (store != null) {
+            try {
+                mCommitter.commitIfDue(store);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return the store the record went to, which is a newer one than {@code store} if that was
+     * closed in the meantime, as by {@link #setLogStoreFactory(LogStoreFactory)}
+     */
+    private DeduplicatingLogStore writeLog(DeduplicatingLogStore store, long time, Level level, String tag, String log,
+                                           Durability durability) {
+        try {
+            String logString = log.trim();
+            long index;
+            while (true) {
+                try {
+                    index = store.append(time, level, tag, logString);
+                    break;
+                } catch (ClosedChannelException e) {
+                    store = getStore();
+                }
+            }
+            mCommitter.onAppended(store, durability);
+            enforceRetentionIfDue(store);
+            indexLog(store, index, time, tag, logString);
+
+            LogShipper shipper = mShipper;
+            if (shipper != null) {
+                shipper.offer(time, level, tag, logString);
+            }
+
+            LogPostedListener logPostedListener = mLogPostedListener;
+            if (logPostedListener != null) {
+                Log postedLog = new Log(time, level, tag, logString);
+                store.describe(index, postedLog);
+                logPostedListener.onLogPosted(index, postedLog);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return store;
+    }
+
+    private void indexLog(LogStore store, long index, long time, String tag, String log) {
+        LogSearchIndex searchIndex = mSearchIndex;
+        if (searchIndex == null || !searchIndex.indexes(store)) {
+            // the store was switched since; the new index reads the new store itself
+            return;
+        }
+        try {
+            searchIndex.add(index, time, tag, log);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Caps how many frames are written for each throwable in a posted trace, causes and suppressed
+     * exceptions included. Defaults to {@value ThrowableSerializer#DEFAULT_MAX_FRAMES}.
+     */
+    public void setStackTraceFrameLimit(int maxFrames) {
+        if (maxFrames < 0) {
+            throw new IllegalArgumentException("maxFrames must not be negative: " + maxFrames);
+        }
+        mStackTraceFrameLimit = maxFrames;
+    }
+
+    /**
+     * Durability used by the {@code postLog} overloads that do not take one. Defaults to
+     * {@link Durability#NONE}.
+     */
+    public void setDefaultDurability(Durability durability) {
+        mDefaultDurability = durability;
+    }
+
+    /**
+     * Sets when {@link Durability#BATCHED} records are committed: once {@code batchRecords} of them
+     * are pending, or once the oldest has waited {@code batchDelayMillis}, whichever comes first.
+     * The delay is only checked on later posts unless async mode is on, whose writer also checks it
+     * while idle.
+     */
+    public void setGroupCommitPolicy(int batchRecords, long batchDelayMillis) {
+        mCommitter.setBatchPolicy(batchRecords, batchDelayMillis);
+    }
+
+    public void setCommitListener(CommitListener commitListener) {
+        mCommitter.setCommitListener(commitListener);
+    }
+
+    public LinkedList<Log> getLogSet() {
+        LinkedList<Log> logSet = new LinkedList<>();
+
+        try {
+            LogStore store = getStore();
+            store.read(store.firstIndex(), Integer.MAX_VALUE, logSet);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        logSet.removeAll(Collections.singleton(null));
+
+        return logSet;
+    }
+
+    /**
+     * Opens a random-access view of the records stored right now. Unlike {@link #getLogSet()} it only
+     * keeps a small window of records in memory.
+     */
+    public LogCursor openLogCursor() {
+        try {
+            LogStore store = getStore();
+            return new LogCursor(store, store.firstIndex(), store.count(), LogCursor.DEFAULT_WINDOW_SIZE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return LogCursor.empty();
+        }
+    }
+
+    /**
+     * Times at which {@code log} was posted, oldest first. Once a record has repeated very often only
+     * its most recent times are kept, so fewer times than {@link Log#getOccurrenceCount()} may come
+     * back.
+     *
+     * @param index the store index of {@code log}, as used by {@link LogCursor}
+     */
+    public long[] getOccurrenceTimes(long index, Log log) {
+        try {
+            return getStore().getOccurrenceTimes(index, log);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new long[]{log.getFirstSeen()};
+        }
+    }
+
+    /**
+     * Like {@link #openLogCursor()}, but only with the records {@code filter} accepts. Every stored
+     * record is read once to find them, unless the filter has a {@link LogQuery}: then the search
+     * index finds them, and only those are read to check level and tag. A query without words only
+     * reads the blocks of the store that can hold its time range.
+     */
+    public LogCursor openLogCursor(LogFilter filter) {
+        try {
+            DeduplicatingLogStore store = getStore();
+            LogQuery query = filter.getQuery();
+            if (query != null && query.getTermCount() == 0) {
+                ArrayList<long[]> ranges = new ArrayList<>();
+                store.findTimeRange(query.getFromMillis(), query.getToMillis(), ranges);
+                return LogCursor.filtered(store, ranges, filter, LogCursor.DEFAULT_WINDOW_SIZE);
+            }
+            if (query != null) {
+                LogSearchIndex searchIndex = mSearchIndex;
+                if (!searchIndex.indexes(store)) {
+                    // switched while opening
+                    return LogCursor.empty();
+                }
+                return LogCursor.filtered(store, searchIndex.search(query), filter, LogCursor.DEFAULT_WINDOW_SIZE);
+            }
+            return LogCursor.filtered(store, filter, LogCursor.DEFAULT_WINDOW_SIZE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return LogCursor.empty();
+        }
+    }
+
+    /**
+     * The records from {@code fromMillis} up to {@code toMillis}. Only the blocks of the store that
+     * can hold records from that time are read, found with a binary search over the store's sparse
+     * time index.
+     */
+    public LogCursor openLogCursor(long fromMillis, long toMillis) {
+        return openLogCursor(new LogFilter(Level.VERBOSE, null, LogQuery.any().between(fromMillis, toMillis)));
+    }
+
+    /**
+     * Hands the records from {@code fromMillis} up to {@code toMillis} to {@code visitor}, oldest
+     * stored first, reading {@value #RANGE_READ_CHUNK} records at a time and only from the blocks of
+     * the store that can hold records from that time.
+     *
+     * @return how many records were visited
+     */
+    public int readLogs(long fromMillis, long toMillis, LogVisitor visitor) {
+        int[] visited = {0};
+        try {
+            visitLogs(fromMillis, toMillis, log -> {
+                visited[0]++;
+                return visitor.visit(log);
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return visited[0];
+    }
+
+    /**
+     * Writes the records from {@code fromMillis} up to {@code toMillis} at {@code minimumLevel} or
+     * above to {@code out} as they are read, the way {@link #readLogs(long, long, LogVisitor)} reads
+     * them, so memory use does not grow with the store. {@code out} is left open.
+     *
+     * @return how many records were written
+     */
+    public int exportLogs(OutputStream out, ExportFormat format, long fromMillis, long toMillis, Level minimumLevel)
+            throws IOException {
+        LogExporter exporter = new LogExporter(out, format, minimumLevel);
+        visitLogs(fromMillis, toMillis, exporter);
+        return exporter.finish();
+    }
+
+    private void visitLogs(long fromMillis, long toMillis, LogVisitor visitor) throws IOException {
+        visitLogs(getStore(), fromMillis, toMillis, visitor);
+    }
+
+    private static void visitLogs(LogStore store, long fromMillis, long toMillis, LogVisitor visitor) throws IOException {
+        ArrayList<long[]> ranges = new ArrayList<>();
+        store.findTimeRange(fromMillis, toMillis, ranges);
+
+        ArrayList<Log> chunk = new ArrayList<>(RANGE_READ_CHUNK);
+        for (long[] range : ranges) {
+            for (long index = range[0]; index < range[1]; index += RANGE_READ_CHUNK) {
+                chunk.clear();
+                store.read(index, (int) Math.min(RANGE_READ_CHUNK, range[1] - index), chunk);
+                for (int i = 0; i < chunk.size(); i++) {
+                    Log log = chunk.get(i);
+                    if (log == null || log.getMilliSecond() < fromMillis || log.getMilliSecond() >= toMillis) {
+                        continue;
+                    }
+                    if (!visitor.visit(log)) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every stored record and span and clears the search index.
+     */
+    public synchronized void clear() {
+        try {
+            getStore().clear();
+            mSearchIndex.clear();
+            getTraceStore().clear();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Moves log writing off the caller's thread. {@link #postLog(String)} only claims a slot in a
+     * lock-free queue and a single background writer drains it in batches of up to
+     * {@value AsyncLogWriter#MAX_BATCH_SIZE} records. When the queue holds {@code capacity} records,
+     * {@code overflowPolicy} decides whether the caller blocks or which record is dropped.
+     */
+    public synchronized void enableAsyncMode(int capacity, OverflowPolicy overflowPolicy) {
+        disableAsyncMode();
+        mAsyncWriter = new AsyncLogWriter(new AsyncLogWriter.BatchWriter() {
+            @Override
+            public void write(List<AsyncLogWriter.PendingLog> batch) {
+                writeLogs(batch);
+            }
+
+            @Override
+            public void onIdle() {
+                RateLimiter rateLimiter = mRateLimiter;
+                if (rateLimiter != null) {
+                    postSuppressionSummaries(rateLimiter, false);
+                }
+                LogStore store = mStore;
+                if (store != null) {
+                    enforceRetentionIfDue(store);
+                }
+                commitIfDue();
+            }
+        }, capacity, overflowPolicy);
+    }
+
+    /**
+     * Writes out every queued record and returns to writing on the caller's thread.
+     */
+    public synchronized void disableAsyncMode() {
+        AsyncLogWriter asyncWriter = mAsyncWriter;
+        if (asyncWriter == null) {
+            return;
+        }
+        mAsyncWriter = null;
+        try {
+            asyncWriter.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Blocks until every record queued so far has been written. Returns immediately when async mode
+     * is off.
+     */
+    public void flush() throws InterruptedException {
+        AsyncLogWriter asyncWriter = mAsyncWriter;
+        if (asyncWriter != null) {
+            asyncWriter.flush();
+        }
+    }
+
+    /**
+     * Like {@link #flush()}, but gives up after {@code timeout}.
+     *
+     * @return {@code true} if the writer became idle in time
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        AsyncLogWriter asyncWriter = mAsyncWriter;
+        return asyncWriter == null || asyncWriter.awaitIdle(timeout, unit);
+    }
+
+    public long getDroppedLogCount() {
+        AsyncLogWriter asyncWriter = mAsyncWriter;
+        return asyncWriter != null ? asyncWriter.getDroppedCount() : 0;
+    }
+
+    /*package-private*/
+    void setLogPostedListener(LogPostedListener logPostedListener) {
+        mLogPostedListener = logPostedListener;
+    }
+
+    /**
+     * Forwards every record written from now on to the collector of {@code policy}, in batches. Batches
+     * not sent yet are kept in a spool next to the records, so they survive restarts; those left by an
+     * earlier process are sent first. The spool is capped by {@link ShippingPolicy#getMaxSpoolBytes()}
+     * and by the byte limit of the {@link RetentionPolicy}, if that is lower.
+     */
+    public synchronized void enableShipping(ShippingPolicy policy) {
+        disableShipping();
+        File directory = mDirectory;
+        if (directory == null) {
+            throw new IllegalStateException("no log directory set");
+        }
+        long maxSpoolBytes = policy.getMaxSpoolBytes();
+        if (mRetentionPolicy.getMaxTotalBytes() > 0) {
+            maxSpoolBytes = Math.min(maxSpoolBytes, mRetentionPolicy.getMaxTotalBytes());
+        }
+        mShipper = new LogShipper(policy, new File(directory, LogShipper.SPOOL_DIRECTORY), maxSpoolBytes);
+    }
+
+    /**
+     * Stops forwarding. The open batch is spooled, to be sent once shipping is enabled again.
+     */
+    public synchronized void disableShipping() {
+        LogShipper shipper = mShipper;
+        if (shipper != null) {
+            mShipper = null;
+            shipper.close();
+        }
+    }
+
+    /**
+     * Watches {@code thread}, which runs the tasks given to {@code executor}, for stalls: every
+     * {@code interval} a check is posted to it, and if it has not run {@code threshold} after it
+     * was posted, the thread's stack is sampled until it does. Each stall is posted as one
+     * {@link Level#WARN} record tagged {@value StallWatchdog#TAG}, with its duration and the frames
+     * seen most often.
+     */
+    public synchronized void startStallWatchdog(Thread thread, Executor executor, long interval, long threshold,
+                                                TimeUnit unit) {
+        long intervalMillis = unit.toMillis(interval);
+        long thresholdMillis = unit.toMillis(threshold);
+        if (intervalMillis <= 0 || thresholdMillis <= 0) {
+            throw new IllegalArgumentException("interval and threshold must be at least a millisecond");
+        }
+        stopStallWatchdog();
+        mStallWatchdog = new StallWatchdog(this, thread, executor, intervalMillis, thresholdMillis);
+    }
+
+    public synchronized void stopStallWatchdog() {
+        if (mStallWatchdog != null) {
+            mStallWatchdog.stop();
+            mStallWatchdog = null;
+        }
+    }
+
+    /**
+     * Starts recording the spans opened with {@link #beginSpan(String)}, or stops and writes out what
+     * was recorded. While disabled, which is the default, a span costs a single volatile read.
+     * Spans are kept apart from the records, in a store of their own that keeps the most recent
+     * {@value SegmentedLogStore#MAX_SEGMENTS} segments, so they are neither listed, searched, exported
+     * with the records nor count against the {@link RetentionPolicy};
+     * {@link #exportTrace(OutputStream, long, long)} turns them into a Chrome trace.
+     */
+    public synchronized void setTracingEnabled(boolean enabled) {
+        SpanRecorder spanRecorder = mSpanRecorder;
+        if (enabled == (spanRecorder != null)) {
+            return;
+        }
+        if (enabled) {
+            // the recorder's own thread then never waits for the trace store to be set up
+            getTraceStore();
+            mSpanRecorder = new SpanRecorder(this);
+        } else {
+            mSpanRecorder = null;
+            spanRecorder.close();
+        }
+    }
+
+    public boolean isTracingEnabled() {
+        return mSpanRecorder != null;
+    }
+
+    /**
+     * Opens a span on the calling thread, closed by the next {@link #endSpan()} on the same thread.
+     * Spans nest. {@code name} is kept as is, so it should be a constant rather than built per call.
+     * A span is recorded when it ends, so one still open when tracing is disabled is left out, and
+     * so is the end of one begun before tracing was enabled.
+     */
+    public void beginSpan(String name) {
+        SpanRecorder spanRecorder = mSpanRecorder;
+        if (spanRecorder != null) {
+            spanRecorder.begin(name, null, null, 0);
+        }
+    }
+
+    public void beginSpan(String name, String argName, String argValue) {
+        SpanRecorder spanRecorder = mSpanRecorder;
+        if (spanRecorder != null) {
+            spanRecorder.begin(name, argName, argValue != null ? argValue : "null", 0);
+        }
+    }
+
+    /**
+     * Like {@link #beginSpan(String, String, String)}, but the argument is not boxed or formatted
+     * until the span is written out.
+     */
+    public void beginSpan(String name, String argName, long argValue) {
+        SpanRecorder spanRecorder = mSpanRecorder;
+        if (spanRecorder != null) {
+            spanRecorder.begin(name, argName, null, argValue);
+        }
+    }
+
+    public void endSpan() {
+        SpanRecorder spanRecorder = mSpanRecorder;
+        if (spanRecorder != null) {
+            spanRecorder.end();
+        }
+    }
+
+    /**
+     * Writes out every span recorded so far instead of waiting for the next flush, as before
+     * an export.
+     */
+    public void flushSpans() {
+        SpanRecorder spanRecorder = mSpanRecorder;
+        if (spanRecorder != null) {
+            spanRecorder.flush();
+        }
+    }
+
+    /**
+     * Spans that were not recorded because too many were waiting to be written out, or because they
+     * were nested more than {@value SpanRecorder#MAX_OPEN_SPANS} deep.
+     */
+    public long getDroppedSpanCount() {
+        SpanRecorder spanRecorder = mSpanRecorder;
+        return spanRecorder != null ? spanRecorder.getDroppedCount() : 0;
+    }
+
+    /**
+     * Streams the spans written out between {@code fromMillis} and {@code toMillis} to {@code out} as
+     * Chrome trace-event JSON, which {@code chrome://tracing} and Perfetto open. Call
+     * {@link #flushSpans()} first to include the latest ones.
+     *
+     * @return how many spans were written
+     */
+    public int exportTrace(OutputStream out, long fromMillis, long toMillis) throws IOException {
+        TraceExporter exporter = new TraceExporter(out);
+        visitLogs(getTraceStore(), fromMillis, toMillis, exporter);
+        return exporter.finish();
+    }
+
+    /*package-private*/
+    void appendTraceRecord(String record) {
+        // spans are neither rate limited, deduplicated, indexed, shipped nor announced
+        try {
+            getTraceStore().append(System.currentTimeMillis(), Level.VERBOSE, SpanRecorder.TAG, record);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops tracing, async mode, shipping, the stall watchdog and the crash handler, commits what is
+     * pending and closes the store. Posting again opens it anew.
+     */
+    public synchronized void close() {
+        setTracingEnabled(false);
+        disableAsyncMode();
+        disableShipping();
+        stopStallWatchdog();
+        uninstallCrashHandler();
+        closeStore();
+        synchronized (mStoreLock) {
+            if (mTraceStore != null) {
+                mTraceStore.close();
+                mTraceStore = null;
+            }
+        }
+    }
+
+    /**
+     * Records still being written to the closed store go to the next one instead, see
+     * {@link #writeLog(DeduplicatingLogStore, long, Level, String, String, Durability)}; the index
+     * is left in place, closed, until the next store replaces it.
+     */
+    private void closeStore() {
+        synchronized (mStoreLock) {
+            DeduplicatingLogStore store = mStore;
+            if (store == null) {
+                return;
+            }
+            // unpublished first, so a writer that finds this one closed waits for the next
+            mStore = null;
+            try {
+                mCommitter.commit(store);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mCommitter.reset();
+            mSearchIndex.close();
+            store.close();
+        }
+    }
+
+    interface LogPostedListener {
+        /**
+         * Called on the thread that wrote the record, which is the background writer in async mode.
+         *
+         * @param index the store index of the record, as used by {@link LogCursor}
+         */
+        void onLogPosted(long index, Log log);
+    }
+}
@@ -0,0 +1,142 @@
+package com.ungseong.logcenter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes records as they are visited, one JSON object per line, so an export holds no more than the
+ * record at hand in memory. For {@link LogTypes.ExportFormat#ZIP} the lines are split over entries of
+ * {@value #ZIP_ENTRY_RECORDS} records, {@code logs-00000.ndjson} on.
+ *
+ * <p>A {@link LogTypes.LogVisitor} cannot throw, so the first write that fails stops the visit and is
+ * thrown again by {@link #finish()}.
+ */
+/*package-private*/
+final class LogExporter implements LogTypes.LogVisitor {
+
+    static final int ZIP_ENTRY_RECORDS = 10_000;
+
+    private final LogTypes.Level mMinimumLevel;
+    private final ZipOutputStream mZip;
+    private final Writer mWriter;
+
+    private int mExportedCount;
+    private IOException mFailure;
+
+    /**
+     * Leaves {@code out} open; {@link #finish()} only writes out what is buffered and, for a ZIP, its
+     * central directory.
+     */
+    LogExporter(OutputStream out, LogTypes.ExportFormat format, LogTypes.Level minimumLevel) throws IOException {
+        mMinimumLevel = minimumLevel;
+        if (format == LogTypes.ExportFormat.ZIP) {
+            mZip = new ZipOutputStream(out);
+            out = mZip;
+            // a ZIP needs at least one entry, even with nothing to export
+            mZip.putNextEntry(new ZipEntry(entryName(0)));
+        } else {
+            mZip = null;
+        }
+        mWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean visit(LogTypes.Log log) {
+        if (log.getLevel().priority < mMinimumLevel.priority) {
+            return true;
+        }
+        try {
+            if (mZip != null && mExportedCount > 0 && mExportedCount % ZIP_ENTRY_RECORDS == 0) {
+                mWriter.flush();
+                mZip.closeEntry();
+                mZip.putNextEntry(new ZipEntry(entryName(mExportedCount / ZIP_ENTRY_RECORDS)));
+            }
+            writeLine(mWriter, log);
+            mExportedCount++;
+            return true;
+        } catch (IOException e) {
+            mFailure = e;
+            return false;
+        }
+    }
+
+    /**
+     * @return how many records were written
+     */
+    int finish() throws IOException {
+        if (mFailure != null) {
+            throw mFailure;
+        }
+        mWriter.flush();
+        if (mZip != null) {
+            mZip.closeEntry();
+            mZip.finish();
+        }
+        return mExportedCount;
+    }
+
+    /**
+     * Writes {@code log} as one line of JSON, as exported and shipped.
+     */
+    static void writeLine(Writer writer, LogTypes.Log log) throws IOException {
+        writer.write("{\"time\":");
+        writer.write(Long.toString(log.getMilliSecond()));
+        writer.write(",\"level\":\"");
+        writer.write(log.getLevel().name());
+        writer.write("\",\"tag\":");
+        writeString(writer, log.getTag());
+        writer.write(",\"message\":");
+        writeString(writer, log.getLogString());
+        if (log.getOccurrenceCount() > 1) {
+            writer.write(",\"occurrences\":");
+            writer.write(Integer.toString(log.getOccurrenceCount()));
+            writer.write(",\"lastSeen\":");
+            writer.write(Long.toString(log.getLastSeen()));
+        }
+        writer.write("}\n");
+    }
+
+    /**
+     * Writes {@code string} as a JSON string, quotes included.
+     */
+    static void writeString(Writer writer, String string) throws IOException {
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            String escaped;
+            if (c == '"') {
+                escaped = "\\\"";
+            } else if (c == '\\') {
+                escaped = "\\\\";
+            } else if (c == '\n') {
+                escaped = "\\n";
+            } else if (c == '\r') {
+                escaped = "\\r";
+            } else if (c == '\t') {
+                escaped = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                // the line separators are valid JSON, but not in JavaScript source
+                escaped = String.format(Locale.ROOT, "\\u%04x", (int) c);
+            } else {
+                continue;
+            }
+            writer.write(string, start, i - start);
+            writer.write(escaped);
+            start = i + 1;
+        }
+        writer.write(string, start, string.length() - start);
+        writer.write('"');
+    }
+
+    private static String entryName(int entry) {
+        return String.format(Locale.ROOT, "logs-%05d.ndjson", entry);
+    }
+}
@@ -0,0 +1,56 @@
+package com.ungseong.logcenter;
+
+/**
+ * Which records a filtered {@link LogCursor} shows.
+ */
+public final class LogFilter {
+
+    private final LogTypes.Level mMinimumLevel;
+    private final String mTag;
+    private final LogQuery mQuery;
+
+    /**
+     * @param tag the only tag to show, or {@code null} for every tag
+     */
+    public LogFilter(LogTypes.Level minimumLevel, String tag) {
+        this(minimumLevel, tag, null);
+    }
+
+    /**
+     * @param query the search the records have to match, or {@code null} to show them regardless
+     */
+    public LogFilter(LogTypes.Level minimumLevel, String tag, LogQuery query) {
+        mMinimumLevel = minimumLevel;
+        mTag = tag;
+        mQuery = query;
+    }
+
+    public LogTypes.Level getMinimumLevel() {
+        return mMinimumLevel;
+    }
+
+    public String getTag() {
+        return mTag;
+    }
+
+    public LogQuery getQuery() {
+        return mQuery;
+    }
+
+    public boolean accepts(LogTypes.Log log) {
+        return acceptsLevelAndTag(log) && (mQuery == null || mQuery.matches(log));
+    }
+
+    /*package-private*/
+    boolean acceptsLevelAndTag(LogTypes.Log log) {
+        return log.getLevel().priority >= mMinimumLevel.priority && (mTag == null || mTag.equals(log.getTag()));
+    }
+
+    /**
+     * Whether only the query decides, so records the search index found need not be read.
+     */
+    /*package-private*/
+    boolean acceptsEveryLevelAndTag() {
+        return mMinimumLevel == LogTypes.Level.VERBOSE && mTag == null;
+    }
+}
@@ -0,0 +1,78 @@
+package com.ungseong.logcenter;
+
+/**
+ * Stable 64-bit FNV-1a fingerprint of a stored record. For a stack trace only the exception class
+ * on the first line and its top {@value #FRAMES} {@code at} frames count, so the same crash thrown
+ * with a different message still lands on the same fingerprint, and for a crash recorded by
+ * {@link CrashRecorder} neither does the thread it names on the line before. Any other record is
+ * fingerprinted by its whole text.
+ *
+ * <p>The fingerprint is taken from the stored text rather than from the {@link Throwable}, so it
+ * can be worked out again for every record when a store is reopened.
+ */
+/*package-private*/
+final class LogFingerprint {
+
+    static final int FRAMES = 8;
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private static final String FRAME_PREFIX = "\tat ";
+
+    private LogFingerprint() {
+
+    }
+
+    static long of(LogTypes.Log log) {
+        return of(log.getLevel(), log.getTag(), log.getLogString());
+    }
+
+    /**
+     * Records only share a fingerprint if they also share level and tag.
+     */
+    static long of(LogTypes.Level level, String tag, String log) {
+        long hash = (OFFSET_BASIS ^ level.priority) * PRIME;
+        hash = hash(hash, tag, 0, tag.length());
+
+        // a crash names its thread on a line of its own first
+        int start = log.startsWith(CrashRecorder.CRASH_PREFIX) ? indexOfLineEnd(log, 0) + 1 : 0;
+        int firstLineEnd = indexOfLineEnd(log, start);
+        if (!startsWithAt(log, firstLineEnd + 1, FRAME_PREFIX)) {
+            return hash(hash, log, 0, log.length());
+        }
+
+        int classEnd = log.indexOf(':', start);
+        if (classEnd < 0 || classEnd > firstLineEnd) {
+            classEnd = firstLineEnd;
+        }
+        hash = hash(hash, log, start, classEnd);
+
+        int lineStart = firstLineEnd + 1;
+        for (int frame = 0; frame < FRAMES && startsWithAt(log, lineStart, FRAME_PREFIX); frame++) {
+            int lineEnd = indexOfLineEnd(log, lineStart);
+            hash = hash(hash, log, lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            hash = (hash ^ (c & 0xff)) * PRIME;
+            hash = (hash ^ (c >>> 8)) * PRIME;
+        }
+        // line separator, so moving text between the class and a frame changes the fingerprint
+        return (hash ^ '\n') * PRIME;
+    }
+
+    private static int indexOfLineEnd(String text, int from) {
+        int end = text.indexOf('\n', from);
+        return end < 0 ? text.length() : end;
+    }
+
+    private static boolean startsWithAt(String text, int offset, String prefix) {
+        return offset < text.length() && text.startsWith(prefix, offset);
+    }
+}
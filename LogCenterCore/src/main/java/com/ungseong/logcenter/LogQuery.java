@@ -0,0 +1,132 @@
+package com.ungseong.logcenter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Full-text search over stored records, answered from the search index instead of reading every
+ * record. Words match whole words of the message or tag, ignoring case, and a word ending in
+ * {@code *} matches every word starting with it. All words have to match.
+ *
+ * <pre>
+ * LogQuery.parse("NullPointer* onCreate").between(from, to)
+ * </pre>
+ *
+ * Words are split at anything but letters and digits, so {@code java.lang.IllegalState*} asks for
+ * the words {@code java}, {@code lang} and {@code illegalstate*}.
+ */
+public final class LogQuery {
+
+    private final String mText;
+    private final String[] mTerms;
+    private final boolean[] mPrefixes;
+    private final long mFromMillis;
+    private final long mToMillis;
+
+    private LogQuery(String text, String[] terms, boolean[] prefixes, long fromMillis, long toMillis) {
+        mText = text;
+        mTerms = terms;
+        mPrefixes = prefixes;
+        mFromMillis = fromMillis;
+        mToMillis = toMillis;
+    }
+
+    /**
+     * A query without words, which matches every record, for use with {@link #between(long, long)}.
+     * A time range alone is answered from the sparse time index of the store.
+     */
+    public static LogQuery any() {
+        return new LogQuery("", new String[0], new boolean[0], Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    public static LogQuery parse(String text) {
+        ArrayList<String> terms = new ArrayList<>();
+        ArrayList<Boolean> prefixes = new ArrayList<>();
+        for (String word : text.trim().split("\\s+")) {
+            boolean prefix = word.endsWith("*");
+            int start = terms.size();
+            LogSearchIndex.tokenize(prefix ? word.substring(0, word.length() - 1) : word, terms);
+            for (int i = start; i < terms.size(); i++) {
+                // only the last word of java.lang.Illegal* is a prefix
+                prefixes.add(prefix && i == terms.size() - 1);
+            }
+        }
+        boolean[] prefixArray = new boolean[prefixes.size()];
+        for (int i = 0; i < prefixArray.length; i++) {
+            prefixArray[i] = prefixes.get(i);
+        }
+        return new LogQuery(text, terms.toArray(new String[0]), prefixArray, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param fromMillis the earliest record time to match
+     * @param toMillis the record time to stop before
+     */
+    public LogQuery between(long fromMillis, long toMillis) {
+        return new LogQuery(mText, mTerms, mPrefixes, fromMillis, toMillis);
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    public long getFromMillis() {
+        return mFromMillis;
+    }
+
+    public long getToMillis() {
+        return mToMillis;
+    }
+
+    /*package-private*/
+    int getTermCount() {
+        return mTerms.length;
+    }
+
+    /*package-private*/
+    String getTerm(int i) {
+        return mTerms[i];
+    }
+
+    /*package-private*/
+    boolean isPrefix(int i) {
+        return mPrefixes[i];
+    }
+
+    /*package-private*/
+    boolean matchesTime(long time) {
+        return time >= mFromMillis && time < mToMillis;
+    }
+
+    /**
+     * Checks a single record the way the index would, for records posted after a search.
+     */
+    public boolean matches(LogTypes.Log log) {
+        if (!matchesTime(log.getMilliSecond())) {
+            return false;
+        }
+        if (mTerms.length == 0) {
+            return true;
+        }
+        ArrayList<String> words = new ArrayList<>();
+        LogSearchIndex.tokenize(log.getTag(), words);
+        LogSearchIndex.tokenize(log.getLogString(), words);
+        Collections.sort(words);
+        for (int i = 0; i < mTerms.length; i++) {
+            if (!contains(words, mTerms[i], mPrefixes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(List<String> sortedWords, String term, boolean prefix) {
+        int position = Collections.binarySearch(sortedWords, term);
+        if (position >= 0) {
+            return true;
+        }
+        int next = -position - 1;
+        return prefix && next < sortedWords.size() && sortedWords.get(next).startsWith(term);
+    }
+}
@@ -0,0 +1,460 @@
+package com.ungseong.logcenter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Inverted index from the words of every stored record, tag included, to the records holding them.
+ * Records are numbered by ordinal in the order they were indexed, and each word keeps the ascending
+ * ordinals of its records, so a query is a merge of a few sorted int arrays. Words are kept sorted
+ * for prefix queries.
+ *
+ * <p>Records are added as they are written. The index is saved to a side file every
+ * {@value #CHECKPOINT_RECORDS} records and when the store is closed; on open it is read back and
+ * records written after the last save are read from the store and added. A side file that does not
+ * fit the store, say after it was cleared, is thrown away and the index rebuilt from the store.
+ * Ordinals of expired records are dropped once they make up half of the index.
+ */
+/*package-private*/
+final class LogSearchIndex {
+
+    static final int MAX_TERM_LENGTH = 64;
+
+    private static final int MAGIC = 0x4C435349; // "LCSI"
+    private static final int VERSION = 1;
+    private static final int CHECKPOINT_RECORDS = 4096;
+    private static final int MIN_COMPACT_ORDINALS = 1024;
+    private static final int LOAD_CHUNK = 256;
+
+    private final LogStore mStore;
+    private final File mFile;
+
+    private final TreeMap<String, Postings> mPostings = new TreeMap<>();
+    // store index and time of every ordinal, indices ascending
+    private long[] mIndices = new long[256];
+    private long[] mTimes = new long[256];
+    private int mSize;
+    // every record before this store index has been indexed
+    private long mNextIndex;
+
+    private boolean mLoaded;
+    private boolean mClosed;
+    private int mUnsavedRecords;
+
+    private final ArrayList<String> mTerms = new ArrayList<>();
+
+    LogSearchIndex(LogStore store, File file) {
+        mStore = store;
+        mFile = file;
+    }
+
+    /**
+     * Splits {@code text} into lower case words of letters and digits, cut off after
+     * {@value #MAX_TERM_LENGTH} characters.
+     */
+    static void tokenize(String text, List<String> out) {
+        int length = text.length();
+        for (int i = 0; i < length; ) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (start < i) {
+                out.add(text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    /**
+     * Indexes the record just written at {@code index}. Repeats that were stored as an occurrence
+     * of an earlier record come back with its index and are skipped.
+     */
+    synchronized void add(long index, long time, String tag, String log) throws IOException {
+        if (mClosed) {
+            return;
+        }
+        if (!mLoaded) {
+            // also picks up this record
+            load();
+            return;
+        }
+        if (index < mNextIndex) {
+            return;
+        }
+        if (index > mNextIndex) {
+            catchUp(index);
+        }
+        addRecord(index, time, tag, log);
+        mNextIndex = index + 1;
+
+        if (++mUnsavedRecords >= CHECKPOINT_RECORDS) {
+            save();
+        }
+    }
+
+    /**
+     * @return the store indices of the records matching {@code query}, ascending
+     */
+    synchronized long[] search(LogQuery query) throws IOException {
+        if (mClosed) {
+            throw new ClosedChannelException();
+        }
+        load();
+        int firstLive = firstLiveOrdinal();
+
+        int[] matches;
+        int matchCount;
+        if (query.getTermCount() == 0) {
+            matches = null;
+            matchCount = mSize;
+        } else {
+            int[][] lists = new int[query.getTermCount()][];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = query.isPrefix(i) ? prefixOrdinals(query.getTerm(i)) : termOrdinals(query.getTerm(i));
+            }
+            // the rarest word first keeps every later merge short
+            Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+            matches = lists[0];
+            matchCount = matches.length;
+            for (int i = 1; i < lists.length && matchCount > 0; i++) {
+                matchCount = intersect(matches, matchCount, lists[i]);
+            }
+        }
+
+        long[] indices = new long[matchCount];
+        int count = 0;
+        for (int i = 0; i < matchCount; i++) {
+            int ordinal = matches != null ? matches[i] : i;
+            if (ordinal >= firstLive && query.matchesTime(mTimes[ordinal])) {
+                indices[count++] = mIndices[ordinal];
+            }
+        }
+        return Arrays.copyOf(indices, count);
+    }
+
+    synchronized void clear() {
+        reset();
+        mFile.delete();
+        mLoaded = false;
+    }
+
+    /**
+     * Whether this indexes {@code store}, rather than a store that was replaced since.
+     */
+    boolean indexes(LogStore store) {
+        return mStore == store;
+    }
+
+    /**
+     * Saves the index; from then on nothing is added to it, and nothing found.
+     */
+    synchronized void close() {
+        mClosed = true;
+        if (mLoaded && mUnsavedRecords > 0) {
+            try {
+                save();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        reset();
+        mLoaded = false;
+    }
+
+    private void load() throws IOException {
+        if (mLoaded) {
+            return;
+        }
+        reset();
+        if (mFile.isFile()) {
+            try {
+                readFile();
+            } catch (IOException e) {
+                // torn or from another version, rebuilt from the store below
+                reset();
+            }
+        }
+
+        long firstIndex = mStore.firstIndex();
+        long end = firstIndex + mStore.count();
+        if (mNextIndex > end || (mSize > 0 && !isStored(mSize - 1, firstIndex))) {
+            // the store was cleared or replaced since the index was saved
+            reset();
+        }
+        mNextIndex = Math.max(mNextIndex, firstIndex);
+        mLoaded = true;
+        catchUp(end);
+    }
+
+    /**
+     * Whether the record at {@code ordinal} is still what the store holds at its index.
+     */
+    private boolean isStored(int ordinal, long firstIndex) throws IOException {
+        if (mIndices[ordinal] < firstIndex) {
+            return true;
+        }
+        LogTypes.Log log = mStore.get(mIndices[ordinal]);
+        return log != null && log.getMilliSecond() == mTimes[ordinal];
+    }
+
+    /**
+     * Reads the records from {@link #mNextIndex} up to {@code end} back from the store and indexes
+     * them.
+     */
+    private void catchUp(long end) throws IOException {
+        ArrayList<LogTypes.Log> chunk = new ArrayList<>(LOAD_CHUNK);
+        while (mNextIndex < end) {
+            chunk.clear();
+            int count = (int) Math.min(LOAD_CHUNK, end - mNextIndex);
+            mStore.read(mNextIndex, count, chunk);
+            for (int i = 0; i < chunk.size(); i++) {
+                LogTypes.Log log = chunk.get(i);
+                if (log != null) {
+                    addRecord(mNextIndex + i, log.getMilliSecond(), log.getTag(), log.getLogString());
+                }
+            }
+            mNextIndex += count;
+            mUnsavedRecords += count;
+        }
+    }
+
+    private void addRecord(long index, long time, String tag, String log) {
+        if (mSize == mIndices.length) {
+            int firstLive = firstLiveOrdinalOrZero();
+            if (firstLive >= MIN_COMPACT_ORDINALS && firstLive >= mSize / 2) {
+                compact(firstLive);
+            } else {
+                mIndices = Arrays.copyOf(mIndices, mSize * 2);
+                mTimes = Arrays.copyOf(mTimes, mSize * 2);
+            }
+        }
+        int ordinal = mSize++;
+        mIndices[ordinal] = index;
+        mTimes[ordinal] = time;
+
+        mTerms.clear();
+        tokenize(tag, mTerms);
+        tokenize(log, mTerms);
+        for (int i = 0; i < mTerms.size(); i++) {
+            String term = mTerms.get(i);
+            Postings postings = mPostings.get(term);
+            if (postings == null) {
+                postings = new Postings();
+                mPostings.put(term, postings);
+            }
+            postings.add(ordinal);
+        }
+    }
+
+    private int firstLiveOrdinal() throws IOException {
+        int position = Arrays.binarySearch(mIndices, 0, mSize, mStore.firstIndex());
+        return position >= 0 ? position : -position - 1;
+    }
+
+    private int firstLiveOrdinalOrZero() {
+        try {
+            return firstLiveOrdinal();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Drops the ordinals of expired records, which always come first, and renumbers the rest.
+     */
+    private void compact(int dead) {
+        System.arraycopy(mIndices, dead, mIndices, 0, mSize - dead);
+        System.arraycopy(mTimes, dead, mTimes, 0, mSize - dead);
+        mSize -= dead;
+
+        Iterator<Postings> iterator = mPostings.values().iterator();
+        while (iterator.hasNext()) {
+            Postings postings = iterator.next();
+            postings.dropBelow(dead);
+            if (postings.size == 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private int[] termOrdinals(String term) {
+        Postings postings = mPostings.get(term);
+        return postings != null ? Arrays.copyOf(postings.ordinals, postings.size) : new int[0];
+    }
+
+    private int[] prefixOrdinals(String prefix) {
+        SortedMap<String, Postings> terms = mPostings.subMap(prefix, prefix + Character.MAX_VALUE);
+        if (terms.size() == 1) {
+            return termOrdinals(terms.firstKey());
+        }
+        // a bitset over every ordinal, which merges any number of words in a single pass
+        long[] bits = new long[(mSize + 63) >>> 6];
+        int total = 0;
+        for (Postings postings : terms.values()) {
+            for (int i = 0; i < postings.size; i++) {
+                int ordinal = postings.ordinals[i];
+                bits[ordinal >>> 6] |= 1L << ordinal;
+            }
+            total += postings.size;
+        }
+        int[] ordinals = new int[Math.min(total, mSize)];
+        int size = 0;
+        for (int word = 0; word < bits.length; word++) {
+            for (long rest = bits[word]; rest != 0; rest &= rest - 1) {
+                ordinals[size++] = (word << 6) + Long.numberOfTrailingZeros(rest);
+            }
+        }
+        return Arrays.copyOf(ordinals, size);
+    }
+
+    /**
+     * Keeps the first {@code count} of {@code matches} that are also in {@code other}.
+     *
+     * @return how many are left
+     */
+    private static int intersect(int[] matches, int count, int[] other) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < count && j < other.length; i++) {
+            while (j < other.length && other[j] < matches[i]) {
+                j++;
+            }
+            if (j < other.length && other[j] == matches[i]) {
+                matches[kept++] = matches[i];
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Writes the index to a new file and swaps it in, dropping expired records first.
+     */
+    private void save() throws IOException {
+        int firstLive = firstLiveOrdinal();
+        if (firstLive > 0) {
+            compact(firstLive);
+        }
+
+        File saved = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(saved)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mNextIndex);
+            out.writeInt(mSize);
+            for (int i = 0; i < mSize; i++) {
+                out.writeLong(mIndices[i]);
+                out.writeLong(mTimes[i]);
+            }
+            out.writeInt(mPostings.size());
+            for (Map.Entry<String, Postings> entry : mPostings.entrySet()) {
+                Postings postings = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(postings.size);
+                for (int i = 0; i < postings.size; i++) {
+                    out.writeInt(postings.ordinals[i]);
+                }
+            }
+        }
+        if (!saved.renameTo(mFile)) {
+            saved.delete();
+            throw new IOException("cannot replace " + mFile);
+        }
+        mUnsavedRecords = 0;
+    }
+
+    private void readFile() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a search index: " + mFile);
+            }
+            mNextIndex = in.readLong();
+            int size = in.readInt();
+            if (size < 0) {
+                throw new IOException("bad record count: " + size);
+            }
+            mIndices = new long[Math.max(256, size)];
+            mTimes = new long[mIndices.length];
+            for (int i = 0; i < size; i++) {
+                mIndices[i] = in.readLong();
+                mTimes[i] = in.readLong();
+            }
+            mSize = size;
+            int termCount = in.readInt();
+            for (int t = 0; t < termCount; t++) {
+                String term = in.readUTF();
+                int count = in.readInt();
+                if (count < 0 || count > size) {
+                    throw new IOException("bad posting count: " + count);
+                }
+                Postings postings = new Postings(count);
+                for (int i = 0; i < count; i++) {
+                    postings.ordinals[i] = in.readInt();
+                }
+                postings.size = count;
+                mPostings.put(term, postings);
+            }
+        }
+    }
+
+    private void reset() {
+        mPostings.clear();
+        mIndices = new long[256];
+        mTimes = new long[256];
+        mSize = 0;
+        mNextIndex = 0;
+        mUnsavedRecords = 0;
+    }
+
+    private static final class Postings {
+        int[] ordinals;
+        int size;
+
+        Postings() {
+            this(4);
+        }
+
+        Postings(int capacity) {
+            ordinals = new int[Math.max(4, capacity)];
+        }
+
+        void add(int ordinal) {
+            // ordinals only grow, so a word seen twice in one record is caught here
+            if (size > 0 && ordinals[size - 1] == ordinal) {
+                return;
+            }
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+            }
+            ordinals[size++] = ordinal;
+        }
+
+        void dropBelow(int dead) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (ordinals[i] >= dead) {
+                    ordinals[kept++] = ordinals[i] - dead;
+                }
+            }
+            size = kept;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.ungseong.logcenter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Forwards records to the collector of a {@link ShippingPolicy}. Posted records are written as
+ * NDJSON lines into an open batch, which is closed as soon as it is full or old enough. A single
+ * thread gzips closed batches into spool files and sends spool files oldest first, one request each.
+ * A spool file is only deleted once the collector took it, or turned down the batch itself with
+ * 400, 413, 415 or 422, so a batch may be sent twice but is not lost to a failed request, a wrong
+ * endpoint or credentials, or a restart. The spool is capped in bytes, dropping the oldest batches first.
+ *
+ * <p>The open batch is only held in memory until it is closed or {@link #close()} spools it, so the
+ * records of up to {@link ShippingPolicy#getMaxBatchDelayMillis()} before the process dies without
+ * closing are never shipped; they are still in the log store.
+ */
+/*package-private*/
+final class LogShipper {
+
+    static final String SPOOL_DIRECTORY = "shipping";
+
+    private static final String BATCH_SUFFIX = ".ndjson.gz";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15_000;
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+
+    // how long close() waits for a request in flight before leaving the thread to finish it alone
+    private static final long CLOSE_TIMEOUT_MILLIS = 1_000;
+
+    private final ShippingPolicy mPolicy;
+    private final File mSpoolDirectory;
+    private final long mMaxSpoolBytes;
+    private final Thread mShipperThread;
+    private final Random mRandom = new Random();
+
+    // everything below is guarded by this
+    private final ByteArrayOutputStream mPending = new ByteArrayOutputStream();
+    private final Writer mPendingWriter = new OutputStreamWriter(mPending, StandardCharsets.UTF_8);
+    private int mPendingRecords;
+    private long mPendingSince;
+    private final ArrayDeque<byte[]> mClosedBatches = new ArrayDeque<>();
+
+    private final ArrayDeque<File> mBatches = new ArrayDeque<>();
+    private long mSpoolBytes;
+    private long mNextSequence;
+
+    private boolean mStopping;
+
+    // only touched by the shipper thread
+    private int mFailedAttempts;
+    private long mRetryAt;
+
+    LogShipper(ShippingPolicy policy, File spoolDirectory, long maxSpoolBytes) {
+        mPolicy = policy;
+        mSpoolDirectory = spoolDirectory;
+        mMaxSpoolBytes = maxSpoolBytes;
+        loadSpool();
+
+        mShipperThread = new Thread(this::shipLoop, "LogCenter-shipper");
+        mShipperThread.setDaemon(true);
+        mShipperThread.start();
+    }
+
+    /**
+     * Adds a record to the open batch, if its level is shipped at all. Only encodes it; compressing
+     * and sending happen on the shipper thread.
+     */
+    void offer(long time, LogTypes.Level level, String tag, String log) {
+        if (level.priority < mPolicy.getMinimumLevel().priority) {
+            return;
+        }
+        synchronized (this) {
+            if (mStopping) {
+                return;
+            }
+            try {
+                LogExporter.writeLine(mPendingWriter, new LogTypes.Log(time, level, tag, log));
+                mPendingWriter.flush();
+            } catch (IOException e) {
+                // a ByteArrayOutputStream does not fail
+                throw new IllegalStateException(e);
+            }
+            if (mPendingRecords++ == 0) {
+                mPendingSince = System.currentTimeMillis();
+            }
+            if (isPendingFull()) {
+                mClosedBatches.addLast(takePending());
+            }
+            // starts the batch delay, or has the closed batch spooled
+            notifyAll();
+        }
+    }
+
+    /**
+     * Spools the open and closed batches and stops the shipper thread. Spooled batches stay on disk
+     * for the next shipper over the same directory.
+     */
+    void close() {
+        ArrayList<byte[]> batches;
+        synchronized (this) {
+            if (mStopping) {
+                return;
+            }
+            mStopping = true;
+            if (mPendingRecords > 0) {
+                mClosedBatches.addLast(takePending());
+            }
+            batches = new ArrayList<>(mClosedBatches);
+            mClosedBatches.clear();
+            notifyAll();
+        }
+        for (byte[] batch : batches) {
+            spool(batch);
+        }
+        try {
+            mShipperThread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void shipLoop() {
+        while (true) {
+            byte[] closedBatch = null;
+            File batch = null;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (mStopping) {
+                    return;
+                }
+                if (!mClosedBatches.isEmpty()) {
+                    closedBatch = mClosedBatches.pollFirst();
+                } else if (mPendingRecords > 0 && now - mPendingSince >= mPolicy.getMaxBatchDelayMillis()) {
+                    closedBatch = takePending();
+                } else if (!mBatches.isEmpty() && now >= mRetryAt) {
+                    batch = mBatches.peekFirst();
+                } else {
+                    waitForWork(now);
+                    continue;
+                }
+            }
+            if (closedBatch != null) {
+                spool(closedBatch);
+            } else {
+                ship(batch);
+            }
+        }
+    }
+
+    /**
+     * Sleeps until the open batch is due or the next spooled batch may be sent, whichever is first,
+     * unless {@link #offer} or {@link #close()} wakes it earlier.
+     */
+    private void waitForWork(long now) {
+        long wakeAt = Long.MAX_VALUE;
+        if (mPendingRecords > 0) {
+            wakeAt = mPendingSince + mPolicy.getMaxBatchDelayMillis();
+        }
+        if (!mBatches.isEmpty()) {
+            wakeAt = Math.min(wakeAt, mRetryAt);
+        }
+        try {
+            if (wakeAt == Long.MAX_VALUE) {
+                wait();
+            } else if (wakeAt > now) {
+                wait(wakeAt - now);
+            }
+        } catch (InterruptedException e) {
+            mStopping = true;
+        }
+    }
+
+    private boolean isPendingFull() {
+        return mPendingRecords >= mPolicy.getMaxBatchRecords() || mPending.size() >= mPolicy.getMaxBatchBytes();
+    }
+
+    /**
+     * @return the lines of the open batch, which starts over
+     */
+    private byte[] takePending() {
+        byte[] pending = mPending.toByteArray();
+        mPending.reset();
+        mPendingRecords = 0;
+        return pending;
+    }
+
+    private void spool(byte[] lines) {
+        File batch;
+        synchronized (this) {
+            batch = new File(mSpoolDirectory, String.format(Locale.ROOT, "%019d", mNextSequence++) + BATCH_SUFFIX);
+        }
+        File temporary = new File(batch.getPath() + TEMPORARY_SUFFIX);
+        if (!mSpoolDirectory.isDirectory()) {
+            mSpoolDirectory.mkdirs();
+        }
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(temporary))) {
+            out.write(lines);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temporary.delete();
+            return;
+        }
+        if (!temporary.renameTo(batch)) {
+            temporary.delete();
+            return;
+        }
+
+        synchronized (this) {
+            mBatches.addLast(batch);
+            mSpoolBytes += batch.length();
+            while (mSpoolBytes > mMaxSpoolBytes && mBatches.size() > 1) {
+                File oldest = mBatches.pollFirst();
+                mSpoolBytes -= oldest.length();
+                oldest.delete();
+            }
+            notifyAll();
+        }
+    }
+
+    private void ship(File batch) {
+        boolean done;
+        long retryAfterMillis = 0;
+        if (!batch.isFile()) {
+            // dropped by the spool cap while it was being sent
+            done = true;
+        } else {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) mPolicy.getEndpoint().openConnection();
+                int status = post(connection, batch);
+                done = status / 100 == 2 || isRejected(status);
+                if (!done) {
+                    retryAfterMillis = parseRetryAfter(connection.getHeaderField("Retry-After"));
+                }
+                drain(connection);
+            } catch (IOException e) {
+                done = false;
+            }
+        }
+
+        synchronized (this) {
+            if (done) {
+                if (mBatches.remove(batch)) {
+                    mSpoolBytes -= batch.length();
+                }
+                batch.delete();
+                mFailedAttempts = 0;
+                mRetryAt = 0;
+            } else {
+                mFailedAttempts++;
+                mRetryAt = System.currentTimeMillis() + Math.max(backoffMillis(), retryAfterMillis);
+            }
+        }
+    }
+
+    /**
+     * Whether {@code status} turns down the batch itself, which would only happen again. Any other
+     * 4xx, like 401, 403 or 404, is down to the endpoint or its credentials and may be fixed.
+     */
+    private static boolean isRejected(int status) {
+        return status == 400 || status == 413 || status == 415 || status == 422;
+    }
+
+    private int post(HttpURLConnection connection, File batch) throws IOException {
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(batch.length());
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestProperty("Content-Type", "application/x-ndjson; charset=utf-8");
+        connection.setRequestProperty("Content-Encoding", "gzip");
+        for (Map.Entry<String, String> header : mPolicy.getHeaders().entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        try (InputStream in = new FileInputStream(batch); OutputStream out = connection.getOutputStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return connection.getResponseCode();
+    }
+
+    /**
+     * Reads the response to its end, so the connection can be kept alive for the next batch.
+     */
+    private static void drain(HttpURLConnection connection) {
+        InputStream in;
+        try {
+            in = connection.getInputStream();
+        } catch (IOException e) {
+            in = connection.getErrorStream();
+        }
+        if (in == null) {
+            return;
+        }
+        try (InputStream response = in) {
+            byte[] buffer = new byte[1024];
+            while (response.read(buffer) > 0) {
+                // discarded
+            }
+        } catch (IOException e) {
+            // the connection is not reused then
+        }
+    }
+
+    /**
+     * Doubles from the initial backoff with every failed attempt, up to the maximum, and waits a
+     * random time between half of that and all of it so that devices that lost the collector at the
+     * same time do not all come back at once.
+     */
+    private long backoffMillis() {
+        long backoff = mPolicy.getInitialBackoffMillis() << Math.min(mFailedAttempts - 1, 30);
+        if (backoff <= 0 || backoff > mPolicy.getMaxBackoffMillis()) {
+            backoff = mPolicy.getMaxBackoffMillis();
+        }
+        long half = backoff / 2;
+        return half + (long) (mRandom.nextDouble() * (backoff - half));
+    }
+
+    /**
+     * @return the wait a {@code Retry-After} header in seconds asks for, capped by the maximum
+     * backoff, or 0 if there is none
+     */
+    private long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Math.min(Long.parseLong(retryAfter.trim()) * 1000, mPolicy.getMaxBackoffMillis());
+        } catch (NumberFormatException e) {
+            // an HTTP date, left to the regular backoff
+            return 0;
+        }
+    }
+
+    private void loadSpool() {
+        File[] files = mSpoolDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                // spooling never finished; the records are still in the store
+                file.delete();
+            } else if (name.endsWith(BATCH_SUFFIX)) {
+                try {
+                    long sequence = Long.parseLong(name.substring(0, name.length() - BATCH_SUFFIX.length()));
+                    mNextSequence = Math.max(mNextSequence, sequence + 1);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                mBatches.addLast(file);
+                mSpoolBytes += file.length();
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.ungseong.logcenter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Records are addressed by an index that keeps counting for the lifetime of the store, so an index
+ * handed out earlier either still names the same record or names one that has been expired.
+ *
+ * <p>A store is opened lazily by whichever call comes first and may be called from several threads at
+ * once. Implementations other than the built-in ones are plugged in through {@link LogStoreFactory}.
+ */
+public interface LogStore {
+
+    /**
+     * Tags are cut off after this many UTF-8 bytes.
+     */
+    int MAX_TAG_BYTES = 0xFFFF;
+
+    /**
+     * @return the index the record was stored at
+     */
+    long append(long time, LogTypes.Level level, String tag, String log) throws IOException;
+
+    /**
+     * Index of the oldest record that is still stored.
+     */
+    long firstIndex() throws IOException;
+
+    int count() throws IOException;
+
+    /**
+     * @return the record at {@code index}, or {@code null} if it has been expired or cannot be read
+     */
+    LogTypes.Log get(long index) throws IOException;
+
+    /**
+     * Adds the records from {@code fromIndex} on to {@code out}, at most {@code maxCount} of them.
+     * Expired records are added as {@code null} so that positions in {@code out} line up with indices.
+     */
+    void read(long fromIndex, int maxCount, List<LogTypes.Log> out) throws IOException;
+
+    /**
+     * Adds the index ranges that may hold records from {@code fromTime} up to {@code toTime} to
+     * {@code out} as {@code [start, end)} pairs, ascending. Every record in the time range lies in one
+     * of them, found from a sparse time index without reading any records; records outside the time
+     * range may lie in them too.
+     */
+    void findTimeRange(long fromTime, long toTime, List<long[]> out) throws IOException;
+
+    /**
+     * Limits the store applies from the next append on.
+     */
+    void setRetentionPolicy(RetentionPolicy retentionPolicy);
+
+    /**
+     * Drops whatever the retention policy no longer allows, including records that got too old.
+     *
+     * @param now the current time, in the same clock as record times
+     * @return how many records were dropped
+     */
+    int enforceRetention(long now) throws IOException;
+
+    /**
+     * Forces every record appended so far to the storage device.
+     */
+    void sync() throws IOException;
+
+    /**
+     * Drops every record. Indices keep counting from where they were.
+     */
+    void clear();
+
+    /**
+     * Releases files and memory; the next call opens the store again.
+     */
+    void close();
+}
@@ -0,0 +1,16 @@
+package com.ungseong.logcenter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates the {@link LogStore} a {@link LogEngine} keeps its records in. The built-in stores are the
+ * {@link LogTypes.StorageBackend} constants.
+ */
+public interface LogStoreFactory {
+
+    /**
+     * @param directory the directory the engine was given, which it keeps its own files in as well
+     */
+    LogStore open(File directory) throws IOException;
+}
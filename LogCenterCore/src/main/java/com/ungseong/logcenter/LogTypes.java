@@ -0,0 +1,200 @@
+package com.ungseong.logcenter;
+
+/**
+ * The types records are posted and read with. {@code LogCenter} and {@link LogEngine} implement
+ * this only so that they can be named through either, as in {@code LogCenter.Level.ERROR}.
+ */
+public interface LogTypes {
+
+    /**
+     * How records are stored. Every backend keeps its files in the directory the {@link LogEngine}
+     * was given.
+     */
+    enum StorageBackend implements LogStoreFactory {
+        /** Size-bounded append-only segment files, see {@link SegmentedLogStore}. */
+        SEGMENTED {
+            @Override
+            public LogStore open(java.io.File directory) {
+                return new SegmentedLogStore(directory);
+            }
+        },
+        /**
+         * A fixed-size ring in a memory-mapped file, so a record posted right before the process
+         * dies is still there on the next start.
+         */
+        MAPPED_RING {
+            @Override
+            public LogStore open(java.io.File directory) {
+                return new MappedRingLogStore(new java.io.File(directory, MappedRingLogStore.FILE_NAME));
+            }
+        },
+        /** One text file per record, the format of the first versions. Keeps neither level nor tag. */
+        FILE_PER_LOG {
+            @Override
+            public LogStore open(java.io.File directory) {
+                return new FilePerLogStore(directory);
+            }
+        },
+        /** Records on the heap only, gone with the process. */
+        IN_MEMORY {
+            @Override
+            public LogStore open(java.io.File directory) {
+                return new InMemoryLogStore();
+            }
+        }
+    }
+
+    enum Durability {
+        /** Left to the OS; committed along with the next commit, if any. */
+        NONE,
+        /** Committed together with other records once the group commit policy says so. */
+        BATCHED,
+        /** Committed before {@code postLog} returns. */
+        SYNC
+    }
+
+    interface CommitListener {
+        /**
+         * Called after records were forced to storage, on the thread that committed them.
+         *
+         * @param recordCount how many records the commit covered
+         */
+        void onCommit(int recordCount);
+    }
+
+    /**
+     * Same priorities as {@code android.util.Log}, plus {@link #FATAL} for crashes that killed the
+     * process.
+     */
+    enum Level {
+        VERBOSE(2, 'V'),
+        DEBUG(3, 'D'),
+        INFO(4, 'I'),
+        WARN(5, 'W'),
+        ERROR(6, 'E'),
+        ASSERT(7, 'A'),
+        /** Recorded by the crash handler, see {@link LogEngine#installCrashHandler()}. */
+        FATAL(8, 'F');
+
+        final int priority;
+        final char label;
+
+        Level(int priority, char label) {
+            this.priority = priority;
+            this.label = label;
+        }
+
+        public char getLabel() {
+            return label;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return the level with {@code priority}, {@link #INFO} if there is none
+         */
+        public static Level fromPriority(int priority) {
+            for (Level level : values()) {
+                if (level.priority == priority) {
+                    return level;
+                }
+            }
+            return INFO;
+        }
+    }
+
+    interface LogSupplier {
+        String get();
+    }
+
+    interface LogVisitor {
+        /**
+         * @return {@code false} to stop reading
+         */
+        boolean visit(Log log);
+    }
+
+    /**
+     * How {@code exportLogs} writes records, one JSON object per record with {@code time},
+     * {@code level}, {@code tag} and {@code message}, plus {@code occurrences} and {@code lastSeen} for
+     * a record that repeated.
+     */
+    enum ExportFormat {
+        /** One object per line. */
+        NDJSON,
+        /** The same lines in a ZIP, split over entries of ten thousand records. */
+        ZIP
+    }
+
+    enum OverflowPolicy {
+        BLOCK,
+        DROP_OLDEST,
+        DROP_NEWEST
+    }
+
+    class Log {
+        private final long milliSecond;
+        private final Level level;
+        private final String tag;
+        private final String logString;
+
+        private int occurrenceCount = 1;
+        private long lastSeen;
+
+        /*package-private*/
+        Log(long milliSecond, String stackTracedString) {
+            this(milliSecond, Level.INFO, "", stackTracedString);
+        }
+
+        public Log(long milliSecond, Level level, String tag, String stackTracedString) {
+            this.milliSecond = milliSecond;
+            this.level = level;
+            this.tag = tag;
+            this.logString = stackTracedString;
+            this.lastSeen = milliSecond;
+        }
+
+        /*package-private*/
+        void setOccurrences(int occurrenceCount, long lastSeen) {
+            this.occurrenceCount = occurrenceCount;
+            this.lastSeen = lastSeen;
+        }
+
+        public long getMilliSecond() {
+            return milliSecond;
+        }
+
+        public Level getLevel() {
+            return level;
+        }
+
+        /**
+         * @return the tag, empty if the record was posted without one
+         */
+        public String getTag() {
+            return tag;
+        }
+
+        public String getLogString() {
+            return logString;
+        }
+
+        /**
+         * How many times this record was posted, counting repeats that were only stored as an
+         * occurrence of it.
+         */
+        public int getOccurrenceCount() {
+            return occurrenceCount;
+        }
+
+        public long getFirstSeen() {
+            return milliSecond;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package com.ungseong.logcenter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed-size ring of log records kept in a memory-mapped file. Appending copies the record into the
+ * mapping and never issues a write call, and because the pages belong to the kernel the record
+ * survives the process dying right after {@link #append} returns.
+ *
+ * <p>Each record is {@code [int magic][int length][long sequence][long time][int crc]} followed by
+ * {@code length} bytes of {@code [byte level][byte 0][short tag length][UTF-8 tag][UTF-8 body]},
+ * which the CRC covers together with the sequence and time. A ring written by version 1, whose
+ * records carry only the body, is rewritten in the current layout when it is opened.
+ *
+ * <p>On open the ring is replayed from the oldest record named in the file header and replay stops at
+ * the first record whose magic, sequence or CRC does not match, which is where a torn write or
+ * stale data from an earlier lap begins.
+ *
+ * <p>The ring size is a hard byte limit; a {@link RetentionPolicy} can evict records from the head
+ * earlier. Its byte and record limits are checked on every append, its age limit only by
+ * {@link #enforceRetention(long)}.
+ *
+ * <p>A {@link SparseTimeIndex} over the sequences of the stored records is built during replay and
+ * kept up to date by appends and evictions.
+ */
+/*package-private*/
+final class MappedRingLogStore implements LogStore {
+
+    static final String FILE_NAME = "ring.mmap";
+
+    static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    private static final int FILE_MAGIC = 0x4C43524E; // "LCRN"
+    private static final int VERSION = 2;
+    private static final int FILE_HEADER_BYTES = 32;
+    private static final int HEAD_OFFSET = 16;
+    private static final int HEAD_SEQUENCE_OFFSET = 24;
+
+    private static final int RECORD_MAGIC = 0x4C435243; // "LCRC"
+    private static final int WRAP_MAGIC = 0x4C435750; // "LCWP"
+    private static final int RECORD_HEADER_BYTES = 28;
+    private static final int PAYLOAD_HEADER_BYTES = 4;
+
+    private final File mFile;
+    private final int mCapacity;
+
+    private final CRC32 mCrc = new CRC32();
+    private final ByteBuffer mCrcScratch = ByteBuffer.allocate(16);
+    private final byte[] mCrcChunk = new byte[4096];
+
+    private MappedByteBuffer mBuffer;
+    private int mVersion = VERSION;
+
+    private int mHead;
+    private long mHeadSequence;
+    private int mTail;
+    private int mUsed;
+    private long mNextSequence;
+    private int mRecordCount;
+    private int mTornRecordCount;
+
+    private RetentionPolicy mRetentionPolicy = RetentionPolicy.unlimited();
+
+    // ring positions of the stored records, oldest first, starting at mFirstOffset
+    private int[] mRecordOffsets = new int[64];
+    private int mFirstOffset;
+
+    private final SparseTimeIndex mTimeIndex = new SparseTimeIndex(0);
+
+    MappedRingLogStore(File file) {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    MappedRingLogStore(File file, int capacity) {
+        if (capacity < (RECORD_HEADER_BYTES + PAYLOAD_HEADER_BYTES) * 2) {
+            throw new IllegalArgumentException("capacity too small: " + capacity);
+        }
+        mFile = file;
+        mCapacity = capacity;
+    }
+
+    @Override
+    public synchronized long append(long time, LogTypes.Level level, String tag, String log) throws IOException {
+        open();
+
+        byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+        int tagLength = Math.min(tagBytes.length, Math.min(MAX_TAG_BYTES, mCapacity / 4));
+        byte[] body = log.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = Math.min(body.length, mCapacity - RECORD_HEADER_BYTES - PAYLOAD_HEADER_BYTES - tagLength);
+        int payloadLength = PAYLOAD_HEADER_BYTES + tagLength + bodyLength;
+        int recordBytes = RECORD_HEADER_BYTES + payloadLength;
+
+        if (mTail + recordBytes > mCapacity) {
+            int waste = mCapacity - mTail;
+            while (mCapacity - mUsed < waste) {
+                evictHead();
+            }
+            if (waste >= 4) {
+                mBuffer.putInt(FILE_HEADER_BYTES + mTail, WRAP_MAGIC);
+            }
+            mUsed += waste;
+            mTail = 0;
+        }
+        while (mCapacity - mUsed < recordBytes) {
+            evictHead();
+        }
+
+        long sequence = mNextSequence++;
+        int position = FILE_HEADER_BYTES + mTail;
+
+        mBuffer.position(position + 8);
+        mBuffer.putLong(sequence);
+        mBuffer.putLong(time);
+        mBuffer.position(position + RECORD_HEADER_BYTES);
+        mBuffer.put((byte) level.priority).put((byte) 0).putShort((short) tagLength);
+        mBuffer.put(tagBytes, 0, tagLength);
+        mBuffer.put(body, 0, bodyLength);
+        mBuffer.putInt(position + 24, crc(sequence, time, mTail + RECORD_HEADER_BYTES, payloadLength));
+        // the magic goes in last so a half-copied record is never mistaken for a complete one
+        mBuffer.putInt(position + 4, payloadLength);
+        mBuffer.putInt(position, RECORD_MAGIC);
+
+        addRecordOffset(mTail, time);
+        mTail += recordBytes;
+        if (mTail == mCapacity) {
+            mTail = 0;
+        }
+        mUsed += recordBytes;
+        mRecordCount++;
+
+        // never evicts the record just written
+        while (mRecordCount > 1 && (mRetentionPolicy.exceedsBytes(mUsed) || mRetentionPolicy.exceedsRecords(mRecordCount))) {
+            evictHead();
+        }
+        return sequence;
+    }
+
+    @Override
+    public synchronized void findTimeRange(long fromTime, long toTime, List<long[]> out) throws IOException {
+        open();
+        mTimeIndex.findRange(fromTime, toTime, 0, out);
+    }
+
+    @Override
+    public synchronized void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        mRetentionPolicy = retentionPolicy;
+    }
+
+    @Override
+    public synchronized int enforceRetention(long now) throws IOException {
+        open();
+        long ageCutoff = mRetentionPolicy.ageCutoff(now);
+        long headSequence = mHeadSequence;
+        while (mRecordCount > 0) {
+            boolean tooOld = mBuffer.getLong(FILE_HEADER_BYTES + mRecordOffsets[mFirstOffset] + 16) < ageCutoff;
+            boolean overBudget = mRecordCount > 1
+                    && (mRetentionPolicy.exceedsBytes(mUsed) || mRetentionPolicy.exceedsRecords(mRecordCount));
+            if (!tooOld && !overBudget) {
+                break;
+            }
+            evictHead();
+        }
+        return (int) (mHeadSequence - headSequence);
+    }
+
+    @Override
+    public synchronized int count() throws IOException {
+        open();
+        return mRecordCount;
+    }
+
+    @Override
+    public synchronized long firstIndex() throws IOException {
+        open();
+        return mHeadSequence;
+    }
+
+    @Override
+    public synchronized LogTypes.Log get(long index) throws IOException {
+        open();
+
+        long relative = index - mHeadSequence;
+        if (relative < 0 || relative >= mRecordCount) {
+            return null;
+        }
+        return readRecord(mRecordOffsets[mFirstOffset + (int) relative]);
+    }
+
+    @Override
+    public synchronized void read(long fromIndex, int maxCount, List<LogTypes.Log> out) throws IOException {
+        open();
+
+        long end = Math.min(fromIndex + maxCount, mHeadSequence + mRecordCount);
+        for (long index = fromIndex; index < end; index++) {
+            if (index < mHeadSequence) {
+                out.add(null);
+            } else {
+                out.add(readRecord(mRecordOffsets[mFirstOffset + (int) (index - mHeadSequence)]));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void sync() {
+        if (mBuffer != null) {
+            mBuffer.force();
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        try {
+            open();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        reset();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mBuffer != null) {
+            mBuffer.force();
+            mBuffer = null;
+        }
+    }
+
+    /**
+     * Number of records found damaged at the end of the ring when it was last replayed.
+     */
+    synchronized int getTornRecordCount() {
+        return mTornRecordCount;
+    }
+
+    private void open() throws IOException {
+        if (mBuffer != null) {
+            return;
+        }
+        File parent = mFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("cannot create log directory " + parent);
+        }
+
+        long fileBytes = (long) FILE_HEADER_BYTES + mCapacity;
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            boolean fresh = file.length() != fileBytes;
+            if (fresh) {
+                file.setLength(fileBytes);
+            }
+            mBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+
+            int version = mBuffer.getInt(4);
+            if (fresh || mBuffer.getInt(0) != FILE_MAGIC || (version != 1 && version != VERSION)
+                    || mBuffer.getInt(8) != mCapacity) {
+                reset();
+            } else {
+                mVersion = version;
+                replay();
+                if (mVersion != VERSION) {
+                    upgrade();
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the records of an older ring in the current layout. They are read out in full first,
+     * which needs about as much heap as the ring is big, but only ever happens once per file.
+     */
+    private void upgrade() throws IOException {
+        ArrayList<LogTypes.Log> logs = new ArrayList<>(mRecordCount);
+        for (int i = 0; i < mRecordCount; i++) {
+            logs.add(readRecord(mRecordOffsets[mFirstOffset + i]));
+        }
+        mVersion = VERSION;
+        reset();
+        for (LogTypes.Log log : logs) {
+            append(log.getMilliSecond(), log.getLevel(), log.getTag(), log.getLogString());
+        }
+        mBuffer.force();
+    }
+
+    private void reset() {
+        mBuffer.putInt(0, FILE_MAGIC);
+        mBuffer.putInt(4, mVersion);
+        mBuffer.putInt(8, mCapacity);
+        mBuffer.putInt(12, 0);
+        // sequences keep counting across a clear, so records left over from before it can never
+        // pass for the continuation of the ring
+        mHead = 0;
+        mHeadSequence = mNextSequence;
+        writeHead();
+        mBuffer.putInt(FILE_HEADER_BYTES, 0);
+
+        mTail = 0;
+        mUsed = 0;
+        mRecordCount = 0;
+        mFirstOffset = 0;
+        mTimeIndex.reset(mHeadSequence);
+    }
+
+    private void replay() {
+        long head = mBuffer.getLong(HEAD_OFFSET);
+        if (head < 0 || head >= mCapacity) {
+            mNextSequence = 0;
+            reset();
+            return;
+        }
+        mHead = (int) head;
+        mHeadSequence = mBuffer.getLong(HEAD_SEQUENCE_OFFSET);
+        mTail = mHead;
+        mUsed = 0;
+        mRecordCount = 0;
+        mFirstOffset = 0;
+        mNextSequence = mHeadSequence;
+        mTornRecordCount = 0;
+        mTimeIndex.reset(mHeadSequence);
+
+        while (mUsed < mCapacity) {
+            int position = mTail;
+            int waste = 0;
+            if (position + 4 > mCapacity || mBuffer.getInt(FILE_HEADER_BYTES + position) == WRAP_MAGIC) {
+                if (position == 0) {
+                    break;
+                }
+                // only follow the wrap if the writer actually got to put a record after it
+                waste = mCapacity - position;
+                position = 0;
+            }
+            int recordBytes = validRecordBytes(position, mNextSequence);
+            if (recordBytes < 0 || mUsed + waste + recordBytes > mCapacity) {
+                break;
+            }
+            addRecordOffset(position, mBuffer.getLong(FILE_HEADER_BYTES + position + 16));
+            mTail = position + recordBytes;
+            if (mTail == mCapacity) {
+                mTail = 0;
+            }
+            mUsed += waste + recordBytes;
+            mNextSequence++;
+            mRecordCount++;
+        }
+    }
+
+    /**
+     * @return the size of the record at {@code position} if it is complete and carries
+     * {@code expectedSequence}, otherwise -1
+     */
+    private int validRecordBytes(int position, long expectedSequence) {
+        int offset = FILE_HEADER_BYTES + position;
+        if (position + RECORD_HEADER_BYTES > mCapacity || mBuffer.getInt(offset) != RECORD_MAGIC) {
+            return -1;
+        }
+        int length = mBuffer.getInt(offset + 4);
+        long sequence = mBuffer.getLong(offset + 8);
+        if (length < 0 || position + RECORD_HEADER_BYTES + length > mCapacity || sequence != expectedSequence) {
+            return -1;
+        }
+        long time = mBuffer.getLong(offset + 16);
+        int crc = mBuffer.getInt(offset + 24);
+
+        if (crc(sequence, time, position + RECORD_HEADER_BYTES, length) != crc) {
+            mTornRecordCount++;
+            return -1;
+        }
+        return RECORD_HEADER_BYTES + length;
+    }
+
+    private void evictHead() {
+        if (mHead + 4 > mCapacity || mBuffer.getInt(FILE_HEADER_BYTES + mHead) == WRAP_MAGIC) {
+            mUsed -= mCapacity - mHead;
+            mHead = 0;
+        } else {
+            int recordBytes = RECORD_HEADER_BYTES + mBuffer.getInt(FILE_HEADER_BYTES + mHead + 4);
+            mHead += recordBytes;
+            if (mHead == mCapacity) {
+                mHead = 0;
+            }
+            mUsed -= recordBytes;
+            mHeadSequence++;
+            mRecordCount--;
+            mFirstOffset++;
+            mTimeIndex.dropBefore(mHeadSequence);
+        }
+        if (mUsed == 0) {
+            mHead = mTail;
+        }
+        writeHead();
+    }
+
+    private void addRecordOffset(int position, long time) {
+        mTimeIndex.add(time);
+        if (mFirstOffset + mRecordCount == mRecordOffsets.length) {
+            if (mFirstOffset > mRecordOffsets.length / 2) {
+                System.arraycopy(mRecordOffsets, mFirstOffset, mRecordOffsets, 0, mRecordCount);
+            } else {
+                mRecordOffsets = Arrays.copyOf(mRecordOffsets, mRecordOffsets.length * 2);
+                System.arraycopy(mRecordOffsets, mFirstOffset, mRecordOffsets, 0, mRecordCount);
+            }
+            mFirstOffset = 0;
+        }
+        mRecordOffsets[mFirstOffset + mRecordCount] = position;
+    }
+
+    private LogTypes.Log readRecord(int position) {
+        int offset = FILE_HEADER_BYTES + position;
+        int length = mBuffer.getInt(offset + 4);
+        long time = mBuffer.getLong(offset + 16);
+
+        mBuffer.position(offset + RECORD_HEADER_BYTES);
+        if (mVersion == 1) {
+            return new LogTypes.Log(time, readString(length));
+        }
+        LogTypes.Level level = LogTypes.Level.fromPriority(mBuffer.get());
+        mBuffer.get();
+        int tagLength = mBuffer.getShort() & 0xFFFF;
+        String tag = readString(tagLength);
+        return new LogTypes.Log(time, level, tag, readString(length - PAYLOAD_HEADER_BYTES - tagLength));
+    }
+
+    private String readString(int length) {
+        byte[] bytes = new byte[length];
+        mBuffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void writeHead() {
+        mBuffer.putLong(HEAD_SEQUENCE_OFFSET, mHeadSequence);
+        mBuffer.putLong(HEAD_OFFSET, mHead);
+    }
+
+    /**
+     * CRC of the sequence, the time and the {@code length} payload bytes at ring {@code position}.
+     */
+    private int crc(long sequence, long time, int position, int length) {
+        mCrcScratch.clear();
+        mCrcScratch.putLong(sequence).putLong(time);
+        mCrc.reset();
+        mCrc.update(mCrcScratch.array(), 0, 16);
+        byte[] chunk = mCrcChunk;
+        int offset = FILE_HEADER_BYTES + position;
+        for (int done = 0; done < length; ) {
+            int n = Math.min(chunk.length, length - done);
+            mBuffer.position(offset + done);
+            mBuffer.get(chunk, 0, n);
+            mCrc.update(chunk, 0, n);
+            done += n;
+        }
+        return (int) mCrc.getValue();
+    }
+}
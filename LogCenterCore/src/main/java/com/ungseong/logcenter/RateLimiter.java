@@ -0,0 +1,221 @@
+package com.ungseong.logcenter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets for posted records: one shared by every record and one per
+ * {@link LogFingerprint fingerprint}, so a single record repeating in a loop runs out of tokens long
+ * before it can crowd out everything else. A record over either limit is only counted. The count
+ * is handed out as a {@link Summary} once {@link #SUMMARY_WINDOW_MILLIS} have passed since the
+ * first record it covers.
+ *
+ * <p>Only the {@value #MAX_TRACKED_FINGERPRINTS} most recently posted fingerprints keep a bucket;
+ * a fingerprint that is pushed out starts over with a full one, and its pending count is summarized
+ * right away.
+ */
+/*package-private*/
+final class RateLimiter {
+
+    static final long SUMMARY_WINDOW_MILLIS = 10_000;
+
+    private static final int MAX_TRACKED_FINGERPRINTS = 256;
+    private static final long SUMMARY_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(SUMMARY_WINDOW_MILLIS);
+
+    private final double mTokensPerNano;
+    private final int mBurst;
+    private final double mRecordTokensPerNano;
+    private final int mRecordBurst;
+
+    private final Bucket mGlobalBucket;
+    private final LinkedHashMap<Long, Bucket> mRecordBuckets;
+
+    private final ArrayList<Summary> mClosedSummaries = new ArrayList<>();
+    // whether any window is open, and when the first of them closes; read without the lock by
+    // pollSummaries, so a record posted with nothing due never has to take it
+    private volatile boolean mWindowOpen;
+    private volatile long mEarliestWindowClose;
+    private long mSuppressedCount;
+
+    RateLimiter(double recordsPerSecond, int burst, double recordsPerSecondPerFingerprint, int burstPerFingerprint) {
+        if (recordsPerSecond <= 0 || burst <= 0 || recordsPerSecondPerFingerprint <= 0 || burstPerFingerprint <= 0) {
+            throw new IllegalArgumentException("rates and bursts must be positive");
+        }
+        mTokensPerNano = recordsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        mBurst = burst;
+        mRecordTokensPerNano = recordsPerSecondPerFingerprint / TimeUnit.SECONDS.toNanos(1);
+        mRecordBurst = burstPerFingerprint;
+
+        mGlobalBucket = new Bucket(burst, System.nanoTime());
+        mRecordBuckets = new LinkedHashMap<Long, Bucket>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Bucket> eldest) {
+                if (size() <= MAX_TRACKED_FINGERPRINTS) {
+                    return false;
+                }
+                Bucket bucket = eldest.getValue();
+                if (bucket.suppressed > 0) {
+                    // due right away
+                    openWindow(bucket.windowStart);
+                    mClosedSummaries.add(bucket.closeWindow());
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return {@code true} if the record may be written, {@code false} if it was counted as
+     * suppressed instead
+     */
+    boolean tryAcquire(LogTypes.Level level, String tag, String log) {
+        // hashing the whole record is the expensive part, so it is done before taking the lock
+        Long fingerprint = LogFingerprint.of(level, tag, log);
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            Bucket recordBucket = mRecordBuckets.get(fingerprint);
+            if (recordBucket == null) {
+                recordBucket = new Bucket(mRecordBurst, now);
+                mRecordBuckets.put(fingerprint, recordBucket);
+            }
+            if (!recordBucket.tryTake(now, mRecordTokensPerNano, mRecordBurst)) {
+                suppress(recordBucket, now, level, tag, log);
+                return false;
+            }
+            if (!mGlobalBucket.tryTake(now, mTokensPerNano, mBurst)) {
+                // the record is not written, so it must not use up its own bucket either
+                recordBucket.tokens++;
+                suppress(mGlobalBucket, now, LogTypes.Level.WARN, "", null);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param closeOpenWindows whether to also summarize windows that have not closed yet
+     * @return the summaries of the windows that closed since the last call, usually none
+     */
+    List<Summary> pollSummaries(boolean closeOpenWindows) {
+        long now = System.nanoTime();
+        // a window opened while this reads is picked up by the next call
+        if (!isSummaryDue(now, closeOpenWindows)) {
+            return Collections.emptyList();
+        }
+        synchronized (this) {
+            if (!isSummaryDue(now, closeOpenWindows)) {
+                return Collections.emptyList();
+            }
+            ArrayList<Summary> summaries = new ArrayList<>(mClosedSummaries);
+            mClosedSummaries.clear();
+
+            mWindowOpen = false;
+            pollSummary(mGlobalBucket, now, closeOpenWindows, summaries);
+            for (Bucket bucket : mRecordBuckets.values()) {
+                pollSummary(bucket, now, closeOpenWindows, summaries);
+            }
+            return summaries;
+        }
+    }
+
+    synchronized long getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    private boolean isSummaryDue(long now, boolean closeOpenWindows) {
+        return mWindowOpen && (closeOpenWindows || now - mEarliestWindowClose >= 0);
+    }
+
+    private void pollSummary(Bucket bucket, long now, boolean closeOpenWindows, List<Summary> out) {
+        if (bucket.suppressed == 0) {
+            return;
+        }
+        long windowClose = bucket.windowStart + SUMMARY_WINDOW_NANOS;
+        if (closeOpenWindows || now - windowClose >= 0) {
+            out.add(bucket.closeWindow());
+        } else {
+            openWindow(windowClose);
+        }
+    }
+
+    private void openWindow(long windowClose) {
+        if (!mWindowOpen || windowClose - mEarliestWindowClose < 0) {
+            mEarliestWindowClose = windowClose;
+        }
+        mWindowOpen = true;
+    }
+
+    private void suppress(Bucket bucket, long now, LogTypes.Level level, String tag, String log) {
+        if (bucket.suppressed == 0) {
+            bucket.windowStart = now;
+            bucket.level = level;
+            bucket.tag = tag;
+            bucket.sample = log;
+            openWindow(now + SUMMARY_WINDOW_NANOS);
+        }
+        bucket.suppressed++;
+        mSuppressedCount++;
+    }
+
+    private static final class Bucket {
+        double tokens;
+        long refilledAt;
+
+        int suppressed;
+        long windowStart;
+        LogTypes.Level level;
+        String tag;
+        String sample;
+
+        Bucket(int burst, long now) {
+            tokens = burst;
+            refilledAt = now;
+        }
+
+        boolean tryTake(long now, double tokensPerNano, int burst) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        Summary closeWindow() {
+            Summary summary = new Summary(level, tag, suppressed, sample);
+            suppressed = 0;
+            sample = null;
+            return summary;
+        }
+    }
+
+    static final class Summary {
+        final LogTypes.Level level;
+        final String tag;
+        final int suppressedCount;
+        // first of the suppressed records, null when the shared limit suppressed all kinds of records
+        final String sample;
+
+        Summary(LogTypes.Level level, String tag, int suppressedCount, String sample) {
+            this.level = level;
+            this.tag = tag;
+            this.suppressedCount = suppressedCount;
+            this.sample = sample;
+        }
+
+        String toLogString() {
+            if (sample == null) {
+                return "로그 " + suppressedCount + "건 생략 (전체 기록 한도 초과)";
+            }
+            int firstLineEnd = sample.indexOf('\n');
+            String firstLine = firstLineEnd < 0 ? sample : sample.substring(0, firstLineEnd);
+            return "비슷한 로그 " + suppressedCount + "건 생략: " + firstLine.trim();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.ungseong.logcenter;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Turns records into the binary layout of {@link SegmentedLogStore} and back:
+ * {@code [int magic][int body length][long time][byte level][byte flags][short tag length][int crc]}
+ * followed by the UTF-8 tag and body. The CRC covers everything after the magic except the CRC
+ * itself, so a record can be told intact from its bytes alone, and skipped by its lengths without
+ * decoding a thing.
+ *
+ * <p>Encoder, decoder and buffers are reused from record to record, so a codec must only be used by
+ * one thread at a time.
+ */
+/*package-private*/
+final class RecordCodec {
+
+    static final int MAGIC = 0x4C435352; // "LCSR"
+    static final int HEADER_BYTES = 24;
+    // [int length][long time][byte level][byte 0][short tag length], and [int length][long time]
+    static final int V2_HEADER_BYTES = 16;
+    static final int V1_HEADER_BYTES = 12;
+
+    private static final int LENGTH_OFFSET = 4;
+    private static final int TIME_OFFSET = 8;
+    private static final int LEVEL_OFFSET = 16;
+    private static final int TAG_LENGTH_OFFSET = 18;
+    private static final int CRC_OFFSET = 20;
+
+    // records larger than this are encoded into a buffer of their own instead of growing the shared one
+    private static final int MAX_RETAINED_BYTES = 64 * 1024;
+
+    private final CharsetEncoder mEncoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharsetDecoder mDecoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CRC32 mCrc = new CRC32();
+
+    private ByteBuffer mRecord = ByteBuffer.allocate(1024);
+    private CharBuffer mChars = CharBuffer.allocate(1024);
+
+    /**
+     * @return the whole record, from position to limit; valid until the next call
+     */
+    ByteBuffer encode(long time, LogTypes.Level level, String tag, String log) {
+        int maxBytes = HEADER_BYTES + (int) Math.ceil((tag.length() + log.length()) * (double) mEncoder.maxBytesPerChar());
+        ByteBuffer record = mRecord;
+        if (record.capacity() < maxBytes) {
+            record = ByteBuffer.allocate(maxBytes);
+            if (maxBytes <= MAX_RETAINED_BYTES) {
+                mRecord = record;
+            }
+        }
+        record.clear();
+        record.position(HEADER_BYTES);
+        encodeString(tag, record);
+        int tagLength = Math.min(record.position() - HEADER_BYTES, LogStore.MAX_TAG_BYTES);
+        record.position(HEADER_BYTES + tagLength);
+        encodeString(log, record);
+        int bodyLength = record.position() - HEADER_BYTES - tagLength;
+
+        record.putInt(0, MAGIC)
+                .putInt(LENGTH_OFFSET, bodyLength)
+                .putLong(TIME_OFFSET, time)
+                .put(LEVEL_OFFSET, (byte) level.priority)
+                .put(LEVEL_OFFSET + 1, (byte) 0)
+                .putShort(TAG_LENGTH_OFFSET, (short) tagLength);
+        record.putInt(CRC_OFFSET, crc(record.array(), record.position()));
+        record.flip();
+        return record;
+    }
+
+    /**
+     * @param header at least the first {@value #HEADER_BYTES} bytes of a record
+     * @return the size of the whole record, or {@code -1} if the header is not one
+     */
+    static int recordBytes(byte[] header) {
+        ByteBuffer buffer = ByteBuffer.wrap(header, 0, HEADER_BYTES);
+        if (buffer.getInt(0) != MAGIC) {
+            return -1;
+        }
+        int bodyLength = buffer.getInt(LENGTH_OFFSET);
+        if (bodyLength < 0 || bodyLength > Integer.MAX_VALUE - HEADER_BYTES - LogStore.MAX_TAG_BYTES) {
+            return -1;
+        }
+        return HEADER_BYTES + (buffer.getShort(TAG_LENGTH_OFFSET) & 0xFFFF) + bodyLength;
+    }
+
+    static long time(byte[] record) {
+        return ByteBuffer.wrap(record).getLong(TIME_OFFSET);
+    }
+
+    /**
+     * @param offset where the record starts in {@code records}
+     * @param version the segment version, as for {@link #decode(ByteBuffer, int)}
+     */
+    static long time(ByteBuffer records, int offset, int version) {
+        return records.getLong(offset + (version >= 3 ? TIME_OFFSET : 4));
+    }
+
+    /**
+     * Moves {@code buffer} past the record at its position without decoding it.
+     */
+    static void skip(ByteBuffer buffer, int version) {
+        int start = buffer.position();
+        if (version == 1) {
+            buffer.position(start + V1_HEADER_BYTES + buffer.getInt(start));
+        } else if (version == 2) {
+            buffer.position(start + V2_HEADER_BYTES + (buffer.getShort(start + 14) & 0xFFFF) + buffer.getInt(start));
+        } else {
+            buffer.position(start + HEADER_BYTES + (buffer.getShort(start + TAG_LENGTH_OFFSET) & 0xFFFF)
+                    + buffer.getInt(start + LENGTH_OFFSET));
+        }
+    }
+
+    /**
+     * @param record a whole record of {@code recordBytes}, as sized by {@link #recordBytes(byte[])}
+     */
+    boolean isIntact(byte[] record, int recordBytes) {
+        return crc(record, recordBytes) == ByteBuffer.wrap(record).getInt(CRC_OFFSET);
+    }
+
+    /**
+     * Decodes the record at the position of {@code buffer} and moves past it.
+     *
+     * @param version the segment version; 1 and 2 had no magic and no CRC, and 1 neither level nor tag
+     */
+    LogTypes.Log decode(ByteBuffer buffer, int version) {
+        if (version >= 3) {
+            buffer.getInt();
+        }
+        int length = buffer.getInt();
+        long time = buffer.getLong();
+        if (version == 1) {
+            return new LogTypes.Log(time, decodeString(buffer, length));
+        }
+        LogTypes.Level level = LogTypes.Level.fromPriority(buffer.get());
+        buffer.get();
+        int tagLength = buffer.getShort() & 0xFFFF;
+        if (version >= 3) {
+            buffer.getInt();
+        }
+        String tag = decodeString(buffer, tagLength);
+        return new LogTypes.Log(time, level, tag, decodeString(buffer, length));
+    }
+
+    private void encodeString(String string, ByteBuffer out) {
+        mEncoder.reset();
+        mEncoder.encode(CharBuffer.wrap(string), out, true);
+        mEncoder.flush(out);
+    }
+
+    private String decodeString(ByteBuffer buffer, int length) {
+        if (length == 0) {
+            return "";
+        }
+        // UTF-8 never decodes to more chars than it has bytes
+        if (mChars.capacity() < length) {
+            if (length > MAX_RETAINED_BYTES) {
+                return decodeString(buffer, length, CharBuffer.allocate(length));
+            }
+            mChars = CharBuffer.allocate(length);
+        }
+        return decodeString(buffer, length, mChars);
+    }
+
+    private String decodeString(ByteBuffer buffer, int length, CharBuffer chars) {
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + length);
+        chars.clear();
+        mDecoder.reset();
+        mDecoder.decode(buffer, chars, true);
+        mDecoder.flush(chars);
+        buffer.limit(limit);
+        chars.flip();
+        return chars.toString();
+    }
+
+    private int crc(byte[] record, int recordBytes) {
+        mCrc.reset();
+        mCrc.update(record, LENGTH_OFFSET, CRC_OFFSET - LENGTH_OFFSET);
+        mCrc.update(record, HEADER_BYTES, recordBytes - HEADER_BYTES);
+        return (int) mCrc.getValue();
+    }
+}
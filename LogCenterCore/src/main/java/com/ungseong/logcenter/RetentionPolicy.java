@@ -0,0 +1,100 @@
+package com.ungseong.logcenter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How much the log store may keep. Every limit is off until set. Without a byte limit
+ * {@link LogTypes.StorageBackend#SEGMENTED} still keeps no more than
+ * {@value SegmentedLogStore#MAX_SEGMENTS} segments of
+ * {@value SegmentedLogStore#SEGMENT_MAX_BYTES} bytes, while a byte limit replaces that cap, larger or
+ * not. {@link LogTypes.StorageBackend#MAPPED_RING} never keeps more than its ring holds.
+ *
+ * <pre>
+ * LogCenter.setRetentionPolicy(RetentionPolicy.unlimited()
+ *         .maxTotalBytes(4 * 1024 * 1024)
+ *         .maxAge(7, TimeUnit.DAYS));
+ * </pre>
+ */
+public final class RetentionPolicy {
+
+    private static final RetentionPolicy UNLIMITED = new RetentionPolicy(0, 0, 0);
+
+    private final long mMaxTotalBytes;
+    private final long mMaxAgeMillis;
+    private final int mMaxRecords;
+
+    private RetentionPolicy(long maxTotalBytes, long maxAgeMillis, int maxRecords) {
+        mMaxTotalBytes = maxTotalBytes;
+        mMaxAgeMillis = maxAgeMillis;
+        mMaxRecords = maxRecords;
+    }
+
+    public static RetentionPolicy unlimited() {
+        return UNLIMITED;
+    }
+
+    public RetentionPolicy maxTotalBytes(long maxTotalBytes) {
+        checkPositive(maxTotalBytes);
+        return new RetentionPolicy(maxTotalBytes, mMaxAgeMillis, mMaxRecords);
+    }
+
+    public RetentionPolicy maxAge(long maxAge, TimeUnit unit) {
+        checkPositive(maxAge);
+        return new RetentionPolicy(mMaxTotalBytes, unit.toMillis(maxAge), mMaxRecords);
+    }
+
+    /**
+     * Records go a whole segment at a time, and only once the records in the segments after it alone
+     * exceed {@code maxRecords}, so up to a segment more than {@code maxRecords} are kept.
+     */
+    public RetentionPolicy maxRecords(int maxRecords) {
+        checkPositive(maxRecords);
+        return new RetentionPolicy(mMaxTotalBytes, mMaxAgeMillis, maxRecords);
+    }
+
+    /**
+     * @return the byte budget, 0 if there is none
+     */
+    public long getMaxTotalBytes() {
+        return mMaxTotalBytes;
+    }
+
+    /**
+     * @return the age after which records are dropped, 0 if they never age out
+     */
+    public long getMaxAgeMillis() {
+        return mMaxAgeMillis;
+    }
+
+    /**
+     * @return the record budget, 0 if there is none
+     */
+    public int getMaxRecords() {
+        return mMaxRecords;
+    }
+
+    /*package-private*/
+    boolean exceedsBytes(long totalBytes) {
+        return mMaxTotalBytes > 0 && totalBytes > mMaxTotalBytes;
+    }
+
+    /*package-private*/
+    boolean exceedsRecords(int recordCount) {
+        return mMaxRecords > 0 && recordCount > mMaxRecords;
+    }
+
+    /**
+     * @return the time before which records are too old at {@code now}, {@link Long#MIN_VALUE} if
+     * records never age out
+     */
+    /*package-private*/
+    long ageCutoff(long now) {
+        return mMaxAgeMillis > 0 ? now - mMaxAgeMillis : Long.MIN_VALUE;
+    }
+
+    private static void checkPositive(long limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+    }
+}
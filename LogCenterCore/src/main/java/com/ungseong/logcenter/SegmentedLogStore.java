@@ -0,0 +1,765 @@
+package com.ungseong.logcenter;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Append-only log storage. Records are appended to the newest segment file in the binary layout of
+ * {@link RecordCodec}, which carries a magic and a CRC for every record, and
+ * a new segment is started once the current one reaches {@link #SEGMENT_MAX_BYTES}. Retention drops
+ * whole segments, oldest first, once the {@link RetentionPolicy} is exceeded, or without a byte limit
+ * in the policy once they take up more than {@code maxSegments} full segments on disk. Sizes, counts
+ * and the newest time of every segment
+ * are kept in memory, so neither appending nor enforcing retention has to look at the directory. The
+ * byte and record limits are checked on every append; the age limit only by
+ * {@link #enforceRetention(long)}. The segment being appended to only ever goes for its age. Every
+ * segment also keeps a {@link SparseTimeIndex} of its records, so a time range is only read where it
+ * lies.
+ *
+ * <p>A segment that is no longer appended to is compressed on a background thread into a
+ * {@link CompressedSegment}, which replaces it once written and forced; until then the uncompressed one
+ * is read. Sizes on disk are what retention goes by, so compression lets the same byte budget hold
+ * many times the records. Reads inflate one block of a compressed segment at a time.
+ *
+ * <p>Opening a segment checks every record's magic and CRC without decoding any of them; the first
+ * record that fails and anything after it count as a torn write and are never read. Segments written
+ * by version 2 hold {@code [int length][long time][byte level][byte 0][short tag length]} records
+ * with neither magic nor CRC, and those of version 1 only {@code [int length][long time]} followed by
+ * the body; both are still read, version 1 as {@link LogTypes.Level#INFO} records without a tag.
+ *
+ * <p>One-file-per-log records found on open are migrated into a segment named
+ * {@code legacy-<n>.seg}, which is listed before all others, and their files deleted. Should a crash
+ * interrupt deleting them, the files left over are migrated again the next time, so records may show
+ * up twice but are never lost. If the migration fails the files are read where they are.
+ */
+/*package-private*/
+final class SegmentedLogStore implements LogStore {
+
+    static final int SEGMENT_MAX_BYTES = 256 * 1024;
+    static final int MAX_SEGMENTS = 8;
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String COMPRESSED_SUFFIX = CompressedSegment.SUFFIX;
+    static final String LEGACY_SUFFIX = FilePerLogStore.FILE_SUFFIX;
+
+    private static final int MAGIC = 0x4C435347; // "LCSG"
+    private static final int VERSION = 3;
+    private static final int SEGMENT_HEADER_BYTES = 8;
+
+    private static final String MIGRATED_PREFIX = "legacy-";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final int mSegmentMaxBytes;
+    private final long mMaxDiskBytes;
+
+    private final ArrayDeque<Segment> mSegments = new ArrayDeque<>();
+    private final ArrayList<File> mLegacyFiles = new ArrayList<>();
+    private final RecordCodec mCodec = new RecordCodec();
+    private final CompressedSegment.BlockReader mBlockReader = new CompressedSegment.BlockReader();
+
+    // segments rolled over since the last sync() that may still have data only in the page cache
+    private final ArrayList<File> mUnsyncedFiles = new ArrayList<>();
+
+    private boolean mOpened;
+    private long mNextSequence;
+    private long mFirstIndex;
+    private int mRecordCount;
+    private long mTotalBytes;
+    private long mLegacyBytes;
+
+    private RetentionPolicy mRetentionPolicy = RetentionPolicy.unlimited();
+
+    private Segment mActiveSegment;
+    private FileChannel mActiveChannel;
+
+    SegmentedLogStore(File directory) {
+        this(directory, SEGMENT_MAX_BYTES, MAX_SEGMENTS);
+    }
+
+    SegmentedLogStore(File directory, int segmentMaxBytes, int maxSegments) {
+        mDirectory = directory;
+        mSegmentMaxBytes = segmentMaxBytes;
+        mMaxDiskBytes = (long) maxSegments * segmentMaxBytes;
+    }
+
+    @Override
+    public synchronized long append(long time, LogTypes.Level level, String tag, String log) throws IOException {
+        open();
+
+        ByteBuffer record = mCodec.encode(time, level, tag, log);
+        int recordBytes = record.remaining();
+
+        if (mActiveSegment == null
+                || (mActiveSegment.size > SEGMENT_HEADER_BYTES && mActiveSegment.size + recordBytes > mSegmentMaxBytes)) {
+            rollSegment();
+        }
+
+        while (record.hasRemaining()) {
+            mActiveChannel.write(record);
+        }
+
+        mActiveSegment.addRecord(mActiveSegment.size, time);
+        mActiveSegment.size += recordBytes;
+        mTotalBytes += recordBytes;
+        mRecordCount++;
+        long index = mFirstIndex + mRecordCount - 1;
+
+        if (mRetentionPolicy.exceedsBytes(mTotalBytes) || mRetentionPolicy.exceedsRecords(mRecordCount)) {
+            expireSegments(Long.MIN_VALUE);
+        }
+        return index;
+    }
+
+    /**
+     * Records of legacy one-file-per-log files carry their time only inside the file, so they are
+     * always part of the range.
+     */
+    @Override
+    public synchronized void findTimeRange(long fromTime, long toTime, List<long[]> out) throws IOException {
+        open();
+        long index = mFirstIndex;
+        if (!mLegacyFiles.isEmpty()) {
+            out.add(new long[]{index, index + mLegacyFiles.size()});
+            index += mLegacyFiles.size();
+        }
+        for (Segment segment : mSegments) {
+            // whole segments outside the range are skipped without looking at their blocks
+            if (segment.recordCount > 0 && segment.firstTime < toTime && segment.lastTime >= fromTime) {
+                segment.times.findRange(fromTime, toTime, index, out);
+            }
+            index += segment.recordCount;
+        }
+    }
+
+    @Override
+    public synchronized void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        mRetentionPolicy = retentionPolicy;
+    }
+
+    @Override
+    public synchronized int enforceRetention(long now) throws IOException {
+        open();
+        long firstIndex = mFirstIndex;
+        expireSegments(mRetentionPolicy.ageCutoff(now));
+        return (int) (mFirstIndex - firstIndex);
+    }
+
+    @Override
+    public synchronized long firstIndex() throws IOException {
+        open();
+        return mFirstIndex;
+    }
+
+    @Override
+    public synchronized int count() throws IOException {
+        open();
+        return mRecordCount;
+    }
+
+    @Override
+    public synchronized LogTypes.Log get(long index) throws IOException {
+        open();
+
+        long relative = index - mFirstIndex;
+        if (relative < 0 || relative >= mRecordCount) {
+            return null;
+        }
+        if (relative < mLegacyFiles.size()) {
+            return FilePerLogStore.readFile(mLegacyFiles.get((int) relative));
+        }
+        relative -= mLegacyFiles.size();
+        for (Segment segment : mSegments) {
+            if (relative < segment.recordCount) {
+                return segment.read((int) relative, mCodec, mBlockReader);
+            }
+            relative -= segment.recordCount;
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void read(long fromIndex, int maxCount, List<LogTypes.Log> out) throws IOException {
+        open();
+
+        long end = Math.min(fromIndex + maxCount, mFirstIndex + mRecordCount);
+        long index = fromIndex;
+        for (; index < end && index < mFirstIndex; index++) {
+            out.add(null);
+        }
+        int legacyCount = mLegacyFiles.size();
+        if (index < end && index - mFirstIndex < legacyCount) {
+            int legacyEnd = (int) Math.min(end - mFirstIndex, legacyCount);
+            FilePerLogStore.readFiles(mLegacyFiles, (int) (index - mFirstIndex), legacyEnd - (int) (index - mFirstIndex), out);
+            index = mFirstIndex + legacyEnd;
+        }
+
+        long segmentFirstIndex = mFirstIndex + legacyCount;
+        for (Segment segment : mSegments) {
+            if (index >= end) {
+                break;
+            }
+            long segmentEnd = segmentFirstIndex + segment.recordCount;
+            if (index < segmentEnd) {
+                long readEnd = Math.min(end, segmentEnd);
+                segment.read((int) (index - segmentFirstIndex), (int) (readEnd - index), mCodec, mBlockReader, out);
+                index = readEnd;
+            }
+            segmentFirstIndex = segmentEnd;
+        }
+    }
+
+    @Override
+    public synchronized void sync() throws IOException {
+        for (File file : mUnsyncedFiles) {
+            if (file.exists()) {
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                    randomAccessFile.getFD().sync();
+                }
+            }
+        }
+        mUnsyncedFiles.clear();
+        if (mActiveChannel != null) {
+            mActiveChannel.force(false);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        try {
+            open();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        closeActiveChannel();
+        for (Segment segment : mSegments) {
+            segment.close();
+            segment.file.delete();
+        }
+        for (File legacyFile : mLegacyFiles) {
+            legacyFile.delete();
+        }
+        mSegments.clear();
+        mLegacyFiles.clear();
+        mBlockReader.release();
+        mFirstIndex += mRecordCount;
+        mRecordCount = 0;
+        mTotalBytes = 0;
+        mLegacyBytes = 0;
+        mOpened = true;
+    }
+
+    @Override
+    public synchronized void close() {
+        closeActiveChannel();
+        for (Segment segment : mSegments) {
+            segment.close();
+        }
+        mSegments.clear();
+        mLegacyFiles.clear();
+        mBlockReader.release();
+        mRecordCount = 0;
+        mTotalBytes = 0;
+        mLegacyBytes = 0;
+        mOpened = false;
+    }
+
+    private void open() throws IOException {
+        if (mOpened) {
+            return;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("cannot create log directory " + mDirectory);
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files);
+
+        HashMap<String, CompressedSegment> compressedSegments = new HashMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(COMPRESSED_SUFFIX)) {
+                CompressedSegment compressed = CompressedSegment.open(file);
+                if (compressed != null) {
+                    compressedSegments.put(baseName(name), compressed);
+                }
+            }
+        }
+
+        // migrated segments sort after the numbered ones by name but hold older records
+        ArrayList<Segment> migratedSegments = new ArrayList<>();
+        ArrayList<Segment> segments = new ArrayList<>();
+        long nextMigratedSequence = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(LEGACY_SUFFIX)) {
+                mLegacyFiles.add(file);
+                mLegacyBytes += file.length();
+            } else if (name.endsWith(SEGMENT_SUFFIX + TEMPORARY_SUFFIX) || name.endsWith(COMPRESSED_SUFFIX + TEMPORARY_SUFFIX)) {
+                // a migration or compression that did not finish; what it was made from is still there
+                file.delete();
+            } else if (name.endsWith(SEGMENT_SUFFIX) || name.endsWith(COMPRESSED_SUFFIX)) {
+                String baseName = baseName(name);
+                boolean migrated = baseName.startsWith(MIGRATED_PREFIX);
+                long sequence = parseSequence(migrated ? baseName.substring(MIGRATED_PREFIX.length()) : baseName);
+                if (sequence < 0) {
+                    continue;
+                }
+                CompressedSegment compressed = compressedSegments.get(baseName);
+                Segment segment;
+                if (compressed == null) {
+                    if (name.endsWith(COMPRESSED_SUFFIX)) {
+                        continue;
+                    }
+                    segment = new Segment(file);
+                    segment.size = file.length();
+                    indexRecords(segment, mCodec);
+                } else if (name.endsWith(COMPRESSED_SUFFIX)) {
+                    segment = new Segment(compressed);
+                } else {
+                    // compressed before the process died, but not yet deleted
+                    file.delete();
+                    continue;
+                }
+                if (migrated) {
+                    migratedSegments.add(segment);
+                    nextMigratedSequence = Math.max(nextMigratedSequence, sequence + 1);
+                } else {
+                    segments.add(segment);
+                    mNextSequence = Math.max(mNextSequence, sequence + 1);
+                }
+            }
+        }
+        if (!mLegacyFiles.isEmpty()) {
+            Segment migrated = migrateLegacyFiles(nextMigratedSequence);
+            if (migrated != null) {
+                migratedSegments.add(migrated);
+            }
+        }
+        mSegments.addAll(migratedSegments);
+        mSegments.addAll(segments);
+        mRecordCount += mLegacyFiles.size();
+        mTotalBytes += mLegacyBytes;
+        for (Segment segment : mSegments) {
+            mRecordCount += segment.recordCount;
+            mTotalBytes += segment.size;
+        }
+        mOpened = true;
+
+        for (Segment segment : mSegments) {
+            if (segment.compressed == null && segment.recordCount > 0) {
+                scheduleCompression(segment);
+            }
+        }
+    }
+
+    /**
+     * Writes the records of the one-file-per-log files into a new segment and deletes the files.
+     *
+     * @return the segment, or {@code null} if the files could not be migrated and stay as they are
+     */
+    private Segment migrateLegacyFiles(long sequence) {
+        ArrayList<LogTypes.Log> logs = new ArrayList<>(mLegacyFiles.size());
+        FilePerLogStore.readFiles(mLegacyFiles, 0, mLegacyFiles.size(), logs);
+
+        File file = new File(mDirectory, MIGRATED_PREFIX + String.format(Locale.ROOT, "%019d", sequence) + SEGMENT_SUFFIX);
+        File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+        Segment segment = new Segment(file);
+        try (FileChannel channel = new FileOutputStream(temporary).getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            segment.size = SEGMENT_HEADER_BYTES;
+            for (LogTypes.Log log : logs) {
+                // a file that cannot be read has nothing to carry over
+                if (log == null) {
+                    continue;
+                }
+                ByteBuffer record = mCodec.encode(log.getMilliSecond(), log.getLevel(), log.getTag(), log.getLogString());
+                segment.addRecord(segment.size, log.getMilliSecond());
+                segment.size += record.remaining();
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temporary.delete();
+            return null;
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            return null;
+        }
+
+        for (File legacyFile : mLegacyFiles) {
+            legacyFile.delete();
+        }
+        mLegacyFiles.clear();
+        mLegacyBytes = 0;
+        return segment;
+    }
+
+    /**
+     * Always starts a fresh segment for the first append of a process, so a record torn by a
+     * previous crash can only ever sit at the tail of a segment that is no longer written to.
+     */
+    private void rollSegment() throws IOException {
+        Segment sealed = mActiveSegment;
+        if (sealed != null) {
+            mUnsyncedFiles.add(sealed.file);
+        }
+        closeActiveChannel();
+        if (sealed != null && sealed.recordCount > 0) {
+            scheduleCompression(sealed);
+        }
+
+        File file = new File(mDirectory, String.format(Locale.ROOT, "%019d", mNextSequence++) + SEGMENT_SUFFIX);
+        FileChannel channel = new FileOutputStream(file, true).getChannel();
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+
+        Segment segment = new Segment(file);
+        segment.size = SEGMENT_HEADER_BYTES;
+        mSegments.addLast(segment);
+        mTotalBytes += SEGMENT_HEADER_BYTES;
+        mActiveSegment = segment;
+        mActiveChannel = channel;
+
+        expireSegments(Long.MIN_VALUE);
+    }
+
+    /**
+     * @param ageCutoff segments whose newest record is older than this go as well
+     */
+    private void expireSegments(long ageCutoff) {
+        while (!mSegments.isEmpty()) {
+            Segment oldest = mSegments.peekFirst();
+            boolean active = oldest == mActiveSegment;
+            boolean expire = oldest.recordCount > 0 && oldest.lastTime < ageCutoff;
+            if (!active) {
+                expire |= exceedsBytes()
+                        // only once the records after this segment alone are still too many
+                        || mRetentionPolicy.exceedsRecords(mRecordCount - mLegacyFiles.size() - oldest.recordCount + 1);
+            }
+            if (!expire) {
+                break;
+            }
+
+            // legacy one-file-per-log records predate every segment, so they go first
+            for (File legacyFile : mLegacyFiles) {
+                legacyFile.delete();
+            }
+            mRecordCount -= mLegacyFiles.size();
+            mFirstIndex += mLegacyFiles.size();
+            mTotalBytes -= mLegacyBytes;
+            mLegacyFiles.clear();
+            mLegacyBytes = 0;
+
+            if (active) {
+                closeActiveChannel();
+            }
+            mSegments.pollFirst();
+            oldest.close();
+            oldest.file.delete();
+            mUnsyncedFiles.remove(oldest.file);
+            mRecordCount -= oldest.recordCount;
+            mFirstIndex += oldest.recordCount;
+            mTotalBytes -= oldest.size;
+        }
+    }
+
+    /**
+     * The byte limit of the retention policy replaces the segment cap, which only applies without
+     * one.
+     */
+    private boolean exceedsBytes() {
+        return mRetentionPolicy.getMaxTotalBytes() > 0 ? mRetentionPolicy.exceedsBytes(mTotalBytes) : mTotalBytes > mMaxDiskBytes;
+    }
+
+    private void scheduleCompression(Segment segment) {
+        Compressor.EXECUTOR.execute(() -> compress(segment));
+    }
+
+    /**
+     * Blocks until every segment sealed so far has been compressed, or given up on.
+     */
+    /*package-private*/
+    void awaitCompression() throws InterruptedException {
+        CountDownLatch compressed = new CountDownLatch(1);
+        Compressor.EXECUTOR.execute(compressed::countDown);
+        compressed.await();
+    }
+
+    /**
+     * Compresses {@code segment} without holding the lock, as it is no longer written to, and only
+     * swaps the files under the lock if the segment is still there by then. A crash in between leaves
+     * either a temporary file, or both files of which the compressed one is used.
+     */
+    private void compress(Segment segment) {
+        File source;
+        int version;
+        int[] recordOffsets;
+        int recordCount;
+        long size;
+        synchronized (this) {
+            if (segment.compressed != null || !mSegments.contains(segment)) {
+                return;
+            }
+            source = segment.file;
+            version = segment.version;
+            recordOffsets = segment.recordOffsets;
+            recordCount = segment.recordCount;
+            size = segment.size;
+        }
+
+        String baseName = baseName(source.getName());
+        File target = new File(mDirectory, baseName + COMPRESSED_SUFFIX);
+        File temporary = new File(target.getPath() + TEMPORARY_SUFFIX);
+        try {
+            CompressedSegment.write(source, version, recordOffsets, recordCount, size, temporary);
+        } catch (IOException e) {
+            // otherwise retention dropped the segment while it was being read, which is no failure
+            if (source.exists()) {
+                e.printStackTrace();
+            }
+            temporary.delete();
+            return;
+        }
+
+        synchronized (this) {
+            if (!mSegments.contains(segment) || !temporary.renameTo(target)) {
+                temporary.delete();
+                return;
+            }
+            CompressedSegment compressed = CompressedSegment.open(target);
+            if (compressed == null || compressed.recordCount != recordCount) {
+                target.delete();
+                return;
+            }
+            segment.close();
+            source.delete();
+            mUnsyncedFiles.remove(source);
+            mTotalBytes += compressed.size - segment.size;
+            segment.setCompressed(compressed);
+        }
+    }
+
+    private void closeActiveChannel() {
+        if (mActiveChannel != null) {
+            try {
+                mActiveChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        mActiveChannel = null;
+        mActiveSegment = null;
+    }
+
+    private static String baseName(String name) {
+        return name.substring(0, name.length() - (name.endsWith(COMPRESSED_SUFFIX) ? COMPRESSED_SUFFIX : SEGMENT_SUFFIX).length());
+    }
+
+    private static long parseSequence(String baseName) {
+        try {
+            return Long.parseLong(baseName);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void indexRecords(Segment segment, RecordCodec codec) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)))) {
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            segment.version = in.readInt();
+            if (segment.version < 1 || segment.version > VERSION) {
+                return;
+            }
+            long offset = SEGMENT_HEADER_BYTES;
+            if (segment.version == VERSION) {
+                byte[] record = new byte[Math.max(RecordCodec.HEADER_BYTES, 4096)];
+                while (segment.size - offset >= RecordCodec.HEADER_BYTES) {
+                    in.readFully(record, 0, RecordCodec.HEADER_BYTES);
+                    int recordBytes = RecordCodec.recordBytes(record);
+                    if (recordBytes < 0 || recordBytes > segment.size - offset) {
+                        break;
+                    }
+                    if (recordBytes > record.length) {
+                        record = Arrays.copyOf(record, recordBytes);
+                    }
+                    in.readFully(record, RecordCodec.HEADER_BYTES, recordBytes - RecordCodec.HEADER_BYTES);
+                    if (!codec.isIntact(record, recordBytes)) {
+                        break;
+                    }
+                    segment.addRecord(offset, RecordCodec.time(record));
+                    offset += recordBytes;
+                }
+            } else {
+                int headerBytes = segment.version == 1 ? RecordCodec.V1_HEADER_BYTES : RecordCodec.V2_HEADER_BYTES;
+                while (segment.size - offset >= headerBytes) {
+                    int length = in.readInt();
+                    long time = in.readLong();
+                    if (segment.version != 1) {
+                        in.readShort();
+                        length += in.readUnsignedShort();
+                    }
+                    if (length < 0 || length > segment.size - offset - headerBytes) {
+                        break;
+                    }
+                    in.skipBytes(length);
+                    segment.addRecord(offset, time);
+                    offset += headerBytes + length;
+                }
+            }
+            // anything after the last complete record is a torn write and is never read
+            segment.size = offset;
+        } catch (EOFException e) {
+            // header itself is torn, the segment holds nothing
+        }
+    }
+
+    private static final class Segment {
+        File file;
+        int version = VERSION;
+        long size;
+        int recordCount;
+        long firstTime = Long.MAX_VALUE;
+        long lastTime = Long.MIN_VALUE;
+        int[] recordOffsets = new int[64];
+        final SparseTimeIndex times = new SparseTimeIndex(0);
+        CompressedSegment compressed;
+
+        private FileChannel mReadChannel;
+
+        Segment(File file) {
+            this.file = file;
+        }
+
+        Segment(CompressedSegment compressed) {
+            this(compressed.file);
+            setCompressed(compressed);
+            compressed.addTimes(times);
+            recordCount = compressed.recordCount;
+            firstTime = compressed.firstTime();
+            lastTime = compressed.lastTime();
+        }
+
+        /**
+         * Reads from {@code compressed} from now on; records and times stay as they are.
+         */
+        void setCompressed(CompressedSegment compressed) {
+            this.compressed = compressed;
+            file = compressed.file;
+            version = compressed.version;
+            size = compressed.size;
+            recordOffsets = null;
+        }
+
+        void addRecord(long offset, long time) {
+            if (recordCount == recordOffsets.length) {
+                recordOffsets = Arrays.copyOf(recordOffsets, recordCount * 2);
+            }
+            recordOffsets[recordCount++] = (int) offset;
+            times.add(time);
+            firstTime = Math.min(firstTime, time);
+            lastTime = Math.max(lastTime, time);
+        }
+
+        LogTypes.Log read(int position, RecordCodec codec, CompressedSegment.BlockReader blockReader) throws IOException {
+            if (compressed != null) {
+                ArrayList<LogTypes.Log> out = new ArrayList<>(1);
+                blockReader.read(compressed, position, 1, codec, out);
+                return out.get(0);
+            }
+            int offset = recordOffsets[position];
+            int end = position + 1 < recordCount ? recordOffsets[position + 1] : (int) size;
+
+            ByteBuffer buffer = ByteBuffer.allocate(end - offset);
+            readFully(buffer, offset);
+            return codec.decode(buffer, version);
+        }
+
+        /**
+         * Reads {@code count} consecutive records with a single positional read, or block by block
+         * once compressed.
+         */
+        void read(int position, int count, RecordCodec codec, CompressedSegment.BlockReader blockReader,
+                  List<LogTypes.Log> out) throws IOException {
+            if (compressed != null) {
+                blockReader.read(compressed, position, count, codec, out);
+                return;
+            }
+            int offset = recordOffsets[position];
+            int last = position + count;
+            int end = last < recordCount ? recordOffsets[last] : (int) size;
+
+            ByteBuffer buffer = ByteBuffer.allocate(end - offset);
+            readFully(buffer, offset);
+            for (int i = 0; i < count; i++) {
+                out.add(codec.decode(buffer, version));
+            }
+        }
+
+        void close() {
+            if (mReadChannel != null) {
+                try {
+                    mReadChannel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                mReadChannel = null;
+            }
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            if (mReadChannel == null) {
+                mReadChannel = new RandomAccessFile(file, "r").getChannel();
+            }
+            while (buffer.hasRemaining()) {
+                if (mReadChannel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException(file.getName());
+                }
+            }
+            buffer.flip();
+        }
+    }
+
+    private static final class Compressor {
+        // one thread for every store, compressing a segment at a time at low priority
+        static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LogCenter-compressor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,153 @@
+package com.ungseong.logcenter;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where and how records are forwarded to a collector, see {@link LogEngine#enableShipping(ShippingPolicy)}.
+ * Records are sent as gzip-compressed NDJSON in batches that close at whichever limit is reached
+ * first; a batch that fails is retried with exponential backoff.
+ *
+ * <pre>
+ * LogCenter.enableShipping(context, ShippingPolicy.to(new URL("https://logs.example.com/ingest"))
+ *         .minimumLevel(LogCenter.Level.WARN)
+ *         .header("Authorization", "Bearer " + token));
+ * </pre>
+ */
+public final class ShippingPolicy {
+
+    public static final int DEFAULT_MAX_BATCH_RECORDS = 500;
+    public static final int DEFAULT_MAX_BATCH_BYTES = 256 * 1024;
+    public static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 30_000;
+    public static final long DEFAULT_MAX_SPOOL_BYTES = 2 * 1024 * 1024;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1_000;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 5 * 60_000;
+
+    private final URL mEndpoint;
+    private final Map<String, String> mHeaders;
+    private final LogTypes.Level mMinimumLevel;
+    private final int mMaxBatchRecords;
+    private final int mMaxBatchBytes;
+    private final long mMaxBatchDelayMillis;
+    private final long mMaxSpoolBytes;
+    private final long mInitialBackoffMillis;
+    private final long mMaxBackoffMillis;
+
+    private ShippingPolicy(URL endpoint, Map<String, String> headers, LogTypes.Level minimumLevel,
+                           int maxBatchRecords, int maxBatchBytes, long maxBatchDelayMillis, long maxSpoolBytes,
+                           long initialBackoffMillis, long maxBackoffMillis) {
+        mEndpoint = endpoint;
+        mHeaders = headers;
+        mMinimumLevel = minimumLevel;
+        mMaxBatchRecords = maxBatchRecords;
+        mMaxBatchBytes = maxBatchBytes;
+        mMaxBatchDelayMillis = maxBatchDelayMillis;
+        mMaxSpoolBytes = maxSpoolBytes;
+        mInitialBackoffMillis = initialBackoffMillis;
+        mMaxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Ships every record to {@code endpoint} with the default limits.
+     */
+    public static ShippingPolicy to(URL endpoint) {
+        if (endpoint == null) {
+            throw new NullPointerException("endpoint");
+        }
+        return new ShippingPolicy(endpoint, Collections.<String, String>emptyMap(), LogTypes.Level.VERBOSE,
+                DEFAULT_MAX_BATCH_RECORDS, DEFAULT_MAX_BATCH_BYTES, DEFAULT_MAX_BATCH_DELAY_MILLIS, DEFAULT_MAX_SPOOL_BYTES,
+                DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Sent with every request, as for credentials.
+     */
+    public ShippingPolicy header(String name, String value) {
+        LinkedHashMap<String, String> headers = new LinkedHashMap<>(mHeaders);
+        headers.put(name, value);
+        return new ShippingPolicy(mEndpoint, Collections.unmodifiableMap(headers), mMinimumLevel,
+                mMaxBatchRecords, mMaxBatchBytes, mMaxBatchDelayMillis, mMaxSpoolBytes, mInitialBackoffMillis, mMaxBackoffMillis);
+    }
+
+    public ShippingPolicy minimumLevel(LogTypes.Level minimumLevel) {
+        return new ShippingPolicy(mEndpoint, mHeaders, minimumLevel,
+                mMaxBatchRecords, mMaxBatchBytes, mMaxBatchDelayMillis, mMaxSpoolBytes, mInitialBackoffMillis, mMaxBackoffMillis);
+    }
+
+    /**
+     * Closes a batch once it holds {@code maxRecords} records or {@code maxBytes} bytes of NDJSON, or
+     * once its first record is {@code maxDelay} old.
+     */
+    public ShippingPolicy maxBatch(int maxRecords, int maxBytes, long maxDelay, TimeUnit unit) {
+        checkPositive(maxRecords);
+        checkPositive(maxBytes);
+        checkPositive(maxDelay);
+        return new ShippingPolicy(mEndpoint, mHeaders, mMinimumLevel,
+                maxRecords, maxBytes, unit.toMillis(maxDelay), mMaxSpoolBytes, mInitialBackoffMillis, mMaxBackoffMillis);
+    }
+
+    /**
+     * Caps the batches kept on disk until they are sent; the oldest go first. A byte limit of the
+     * {@link RetentionPolicy} lowers this further.
+     */
+    public ShippingPolicy maxSpoolBytes(long maxSpoolBytes) {
+        checkPositive(maxSpoolBytes);
+        return new ShippingPolicy(mEndpoint, mHeaders, mMinimumLevel,
+                mMaxBatchRecords, mMaxBatchBytes, mMaxBatchDelayMillis, maxSpoolBytes, mInitialBackoffMillis, mMaxBackoffMillis);
+    }
+
+    /**
+     * The wait after the first failed attempt, doubled after every further one up to {@code max}.
+     */
+    public ShippingPolicy backoff(long initial, long max, TimeUnit unit) {
+        checkPositive(initial);
+        checkPositive(max);
+        return new ShippingPolicy(mEndpoint, mHeaders, mMinimumLevel,
+                mMaxBatchRecords, mMaxBatchBytes, mMaxBatchDelayMillis, mMaxSpoolBytes, unit.toMillis(initial), unit.toMillis(max));
+    }
+
+    public URL getEndpoint() {
+        return mEndpoint;
+    }
+
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    public LogTypes.Level getMinimumLevel() {
+        return mMinimumLevel;
+    }
+
+    public int getMaxBatchRecords() {
+        return mMaxBatchRecords;
+    }
+
+    public int getMaxBatchBytes() {
+        return mMaxBatchBytes;
+    }
+
+    public long getMaxBatchDelayMillis() {
+        return mMaxBatchDelayMillis;
+    }
+
+    public long getMaxSpoolBytes() {
+        return mMaxSpoolBytes;
+    }
+
+    public long getInitialBackoffMillis() {
+        return mInitialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return mMaxBackoffMillis;
+    }
+
+    private static void checkPositive(long limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+    }
+}
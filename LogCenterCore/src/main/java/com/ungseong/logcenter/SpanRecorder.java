@@ -0,0 +1,328 @@
+package com.ungseong.logcenter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records timing spans into chunks owned by the thread that records them, so recording takes no
+ * lock and allocates nothing; chunks the flusher is done with are reused. A span is kept on a stack
+ * of its thread while open and recorded whole once it ends, so a span dropped, or begun before
+ * tracing was enabled, never leaves an end without a begin or the other way round.
+ * A chunk is published to the flusher by a volatile count; the flusher copies out what it has not
+ * seen yet, every {@value #FLUSH_INTERVAL_MILLIS} ms or sooner when chunks pile up, and writes it to
+ * the trace store, in {@value #DIRECTORY} next to the records, as {@link LogTypes.Level#VERBOSE}
+ * records tagged {@value #TAG}.
+ *
+ * <p>A record holds up to {@value #RECORD_EVENTS} spans as tab-separated lines, with tabs,
+ * newlines and backslashes in names escaped:
+ * <pre>
+ * S  session  offsetNanos        the first line; offsetNanos turns a nanoTime into wall-clock nanos
+ * T  threadId  threadName        the thread of the spans that follow
+ * X  nanoTime  durationNanos  name [argName (s|l)argValue]
+ * </pre>
+ * Spans are dropped rather than buffered without bound when {@value #MAX_CHUNKS} chunks are waiting,
+ * and so are those nested deeper than {@value #MAX_OPEN_SPANS}.
+ */
+/*package-private*/
+final class SpanRecorder {
+
+    static final String TAG = "trace";
+    static final String DIRECTORY = "trace";
+
+    static final int CHUNK_EVENTS = 1024;
+    static final int MAX_CHUNKS = 64;
+    static final int MAX_FREE_CHUNKS = 8;
+    static final int RECORD_EVENTS = 512;
+    static final int MAX_OPEN_SPANS = 64;
+    static final long FLUSH_INTERVAL_MILLIS = 1_000;
+
+    static final char PHASE_COMPLETE = 'X';
+    static final char SESSION = 'S';
+    static final char THREAD = 'T';
+    static final char STRING_ARG = 's';
+    static final char LONG_ARG = 'l';
+
+    private final LogEngine mEngine;
+    private final long mSession;
+    private final long mOffsetNanos;
+
+    private final ThreadLocal<Track> mTracks = new ThreadLocal<>();
+    private final ConcurrentLinkedQueue<Chunk> mChunks = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Chunk> mFreeChunks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mChunkCount = new AtomicInteger();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    // threads whose chunk the current flush read before it was full, guarded by this
+    private final ArrayList<Thread> mPartialOwners = new ArrayList<>();
+
+    private final Thread mFlusherThread;
+    private volatile boolean mStopping;
+
+    SpanRecorder(LogEngine engine) {
+        mEngine = engine;
+        mSession = System.currentTimeMillis();
+        mOffsetNanos = TimeUnit.MILLISECONDS.toNanos(mSession) - System.nanoTime();
+
+        mFlusherThread = new Thread(this::flushLoop, "LogCenter-tracer");
+        mFlusherThread.setDaemon(true);
+        mFlusherThread.start();
+    }
+
+    /**
+     * @param argName    {@code null} for a span without an argument
+     * @param argString  the argument, or {@code null} to use {@code argLong} instead
+     */
+    void begin(String name, String argName, String argString, long argLong) {
+        Track track = mTracks.get();
+        if (track == null) {
+            track = new Track();
+            mTracks.set(track);
+        }
+        int depth = track.mDepth++;
+        if (depth >= MAX_OPEN_SPANS) {
+            // only counted, so the ends still pair up
+            return;
+        }
+        track.mNames[depth] = name;
+        track.mArgNames[depth] = argName;
+        track.mArgStrings[depth] = argString;
+        track.mArgLongs[depth] = argLong;
+        // taken last, so the bookkeeping above is not timed
+        track.mStartTimes[depth] = System.nanoTime();
+    }
+
+    void end() {
+        // taken first, for the same reason
+        long time = System.nanoTime();
+        Track track = mTracks.get();
+        if (track == null || track.mDepth == 0) {
+            // begun before tracing was enabled
+            return;
+        }
+        int depth = --track.mDepth;
+        if (depth >= MAX_OPEN_SPANS) {
+            mDroppedCount.incrementAndGet();
+            return;
+        }
+        Chunk chunk = writableChunk(track);
+        if (chunk == null) {
+            return;
+        }
+        int i = chunk.mCount;
+        chunk.mNames[i] = track.mNames[depth];
+        chunk.mArgNames[i] = track.mArgNames[depth];
+        chunk.mArgStrings[i] = track.mArgStrings[depth];
+        chunk.mArgLongs[i] = track.mArgLongs[depth];
+        chunk.mStartTimes[i] = track.mStartTimes[depth];
+        chunk.mDurations[i] = time - track.mStartTimes[depth];
+        chunk.mCount = i + 1;
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * Stops the flusher thread and writes out every event recorded so far.
+     */
+    void close() {
+        mStopping = true;
+        LockSupport.unpark(mFlusherThread);
+        flush();
+    }
+
+    private Chunk writableChunk(Track track) {
+        Chunk chunk = track.mChunk;
+        // a full chunk may have been reused by another thread since; the count is read first as it
+        // publishes the owner
+        if (chunk != null && chunk.mCount < CHUNK_EVENTS && chunk.mOwner == Thread.currentThread()) {
+            return chunk;
+        }
+        if (mStopping || mChunkCount.get() >= MAX_CHUNKS) {
+            mDroppedCount.incrementAndGet();
+            return null;
+        }
+        chunk = mFreeChunks.poll();
+        if (chunk == null) {
+            chunk = new Chunk();
+        }
+        chunk.takeOver(Thread.currentThread());
+        mChunkCount.incrementAndGet();
+        mChunks.add(chunk);
+        track.mChunk = chunk;
+        if (mChunkCount.get() > MAX_CHUNKS / 2) {
+            LockSupport.unpark(mFlusherThread);
+        }
+        return chunk;
+    }
+
+    private void flushLoop() {
+        while (!mStopping) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS));
+            if (!mStopping) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Writes out the spans not written yet, and forgets the chunks that will not get any more.
+     */
+    synchronized void flush() {
+        StringBuilder record = null;
+        int recordEvents = 0;
+        mPartialOwners.clear();
+        for (Iterator<Chunk> iterator = mChunks.iterator(); iterator.hasNext(); ) {
+            Chunk chunk = iterator.next();
+            if (mPartialOwners.contains(chunk.mOwner)) {
+                // filled since its earlier chunk was read; left for the next flush, so that the
+                // rest of the earlier one is written out first
+                continue;
+            }
+            // read before the count, so a dead owner's count is final
+            boolean ownerDead = !chunk.mOwner.isAlive();
+            int count = chunk.mCount;
+            if (count < CHUNK_EVENTS && !ownerDead) {
+                mPartialOwners.add(chunk.mOwner);
+            }
+            boolean threadWritten = false;
+            for (int i = chunk.mFlushed; i < count; i++) {
+                if (record == null) {
+                    record = new StringBuilder(RECORD_EVENTS * 48);
+                    record.append(SESSION).append('\t').append(mSession).append('\t').append(mOffsetNanos).append('\n');
+                    recordEvents = 0;
+                    threadWritten = false;
+                }
+                if (!threadWritten) {
+                    record.append(THREAD).append('\t').append(chunk.mThreadId).append('\t');
+                    appendEscaped(record, chunk.mThreadName);
+                    record.append('\n');
+                    threadWritten = true;
+                }
+                appendEvent(record, chunk, i);
+                if (++recordEvents == RECORD_EVENTS) {
+                    mEngine.appendTraceRecord(record.toString());
+                    record = null;
+                }
+            }
+            chunk.mFlushed = count;
+            if (count == CHUNK_EVENTS || ownerDead) {
+                iterator.remove();
+                mChunkCount.decrementAndGet();
+                if (count == CHUNK_EVENTS && mFreeChunks.size() < MAX_FREE_CHUNKS) {
+                    // its owner does not write to it again, see writableChunk()
+                    mFreeChunks.add(chunk);
+                }
+            }
+        }
+        if (record != null) {
+            mEngine.appendTraceRecord(record.toString());
+        }
+    }
+
+    private static void appendEvent(StringBuilder record, Chunk chunk, int i) {
+        record.append(PHASE_COMPLETE).append('\t').append(chunk.mStartTimes[i])
+                .append('\t').append(chunk.mDurations[i]).append('\t');
+        appendEscaped(record, chunk.mNames[i]);
+        if (chunk.mArgNames[i] != null) {
+            record.append('\t');
+            appendEscaped(record, chunk.mArgNames[i]);
+            record.append('\t');
+            if (chunk.mArgStrings[i] != null) {
+                record.append(STRING_ARG);
+                appendEscaped(record, chunk.mArgStrings[i]);
+            } else {
+                record.append(LONG_ARG).append(chunk.mArgLongs[i]);
+            }
+        }
+        record.append('\n');
+    }
+
+    private static void appendEscaped(StringBuilder record, String string) {
+        if (string == null) {
+            return;
+        }
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c == '\t') {
+                record.append("\\t");
+            } else if (c == '\n') {
+                record.append("\\n");
+            } else if (c == '\\') {
+                record.append("\\\\");
+            } else {
+                record.append(c);
+            }
+        }
+    }
+
+    /**
+     * Undoes {@link #appendEscaped(StringBuilder, String)} for one field of a record line.
+     */
+    static String unescape(String field) {
+        if (field.indexOf('\\') < 0) {
+            return field;
+        }
+        StringBuilder string = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char escaped = field.charAt(++i);
+                string.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped);
+            } else {
+                string.append(c);
+            }
+        }
+        return string.toString();
+    }
+
+    /**
+     * The spans a thread has open, innermost last, and the chunk it records to. Only touched by
+     * that thread.
+     */
+    private static final class Track {
+        Chunk mChunk;
+        int mDepth;
+
+        final String[] mNames = new String[MAX_OPEN_SPANS];
+        final String[] mArgNames = new String[MAX_OPEN_SPANS];
+        final String[] mArgStrings = new String[MAX_OPEN_SPANS];
+        final long[] mArgLongs = new long[MAX_OPEN_SPANS];
+        final long[] mStartTimes = new long[MAX_OPEN_SPANS];
+    }
+
+    /**
+     * Spans of one thread. Only the owner writes, and only below {@link #mCount} once it is
+     * published; the flusher only reads below it. The owner fields are set before the chunk is
+     * queued for the flusher, which publishes them.
+     */
+    private static final class Chunk {
+        Thread mOwner;
+        long mThreadId;
+        String mThreadName;
+
+        final long[] mStartTimes = new long[CHUNK_EVENTS];
+        final long[] mDurations = new long[CHUNK_EVENTS];
+        final String[] mNames = new String[CHUNK_EVENTS];
+        final String[] mArgNames = new String[CHUNK_EVENTS];
+        final String[] mArgStrings = new String[CHUNK_EVENTS];
+        final long[] mArgLongs = new long[CHUNK_EVENTS];
+
+        volatile int mCount;
+        // only touched by the flusher, once the chunk is queued
+        int mFlushed;
+
+        void takeOver(Thread owner) {
+            mOwner = owner;
+            mThreadId = owner.getId();
+            mThreadName = owner.getName();
+            mCount = 0;
+            mFlushed = 0;
+        }
+    }
+}
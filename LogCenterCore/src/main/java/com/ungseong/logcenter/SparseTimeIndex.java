@@ -0,0 +1,130 @@
+package com.ungseong.logcenter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Oldest and newest record time of every block of {@value #BLOCK_RECORDS} consecutive records, so a
+ * time range maps onto the blocks that can hold it without reading a single record. Record times
+ * mostly but not strictly grow, so next to each block's own newest time the newest time of it and
+ * every block before it is kept as well; that one never decreases and is what the first block of a
+ * range is binary searched by. From there blocks are only walked in memory, and those entirely
+ * outside the range are skipped.
+ *
+ * <p>Positions are whatever the owner counts records by, starting at the base given to
+ * {@link #reset(long)}.
+ */
+/*package-private*/
+final class SparseTimeIndex {
+
+    static final int BLOCK_RECORDS = 64;
+
+    // position of the first record of block 0, and of the record after the last one
+    private long mBase;
+    private long mEnd;
+
+    private long[] mMinTimes = new long[8];
+    private long[] mMaxTimes = new long[8];
+    private long[] mRunningMaxTimes = new long[8];
+    private int mBlocks;
+
+    SparseTimeIndex(long base) {
+        reset(base);
+    }
+
+    void reset(long base) {
+        mBase = base;
+        mEnd = base;
+        mBlocks = 0;
+    }
+
+    /**
+     * Adds the time of the record at the next position.
+     */
+    void add(long time) {
+        if ((mEnd - mBase) % BLOCK_RECORDS == 0) {
+            startBlock(time, time);
+        } else {
+            int last = mBlocks - 1;
+            mMinTimes[last] = Math.min(mMinTimes[last], time);
+            mMaxTimes[last] = Math.max(mMaxTimes[last], time);
+            mRunningMaxTimes[last] = Math.max(mRunningMaxTimes[last], time);
+        }
+        mEnd++;
+    }
+
+    /**
+     * Adds a whole block of {@code records} at once, of which only the oldest and newest time are
+     * known. The index must end on a block boundary, and {@code records} may only be fewer than
+     * {@value #BLOCK_RECORDS} for the last block added.
+     */
+    void addBlock(int records, long minTime, long maxTime) {
+        startBlock(minTime, maxTime);
+        mEnd += records;
+    }
+
+    private void startBlock(long minTime, long maxTime) {
+        if (mBlocks == mMinTimes.length) {
+            mMinTimes = Arrays.copyOf(mMinTimes, mBlocks * 2);
+            mMaxTimes = Arrays.copyOf(mMaxTimes, mBlocks * 2);
+            mRunningMaxTimes = Arrays.copyOf(mRunningMaxTimes, mBlocks * 2);
+        }
+        mMinTimes[mBlocks] = minTime;
+        mMaxTimes[mBlocks] = maxTime;
+        mRunningMaxTimes[mBlocks] = mBlocks > 0 ? Math.max(mRunningMaxTimes[mBlocks - 1], maxTime) : maxTime;
+        mBlocks++;
+    }
+
+    /**
+     * Forgets the blocks that lie entirely before {@code position}. A block that is only partly
+     * before it stays, which at worst makes a range start a little early.
+     */
+    void dropBefore(long position) {
+        int dropped = (int) Math.min(mBlocks, Math.max(0, (position - mBase) / BLOCK_RECORDS));
+        if (dropped == 0) {
+            return;
+        }
+        mBlocks -= dropped;
+        System.arraycopy(mMinTimes, dropped, mMinTimes, 0, mBlocks);
+        System.arraycopy(mMaxTimes, dropped, mMaxTimes, 0, mBlocks);
+        System.arraycopy(mRunningMaxTimes, dropped, mRunningMaxTimes, 0, mBlocks);
+        mBase += (long) dropped * BLOCK_RECORDS;
+        if (mBlocks == 0) {
+            mEnd = mBase;
+        }
+    }
+
+    /**
+     * Adds the positions, shifted by {@code offset}, of the blocks that may hold records from
+     * {@code fromTime} up to {@code toTime} to {@code out} as {@code [start, end)} pairs. A pair that
+     * continues the last one in {@code out} is merged into it.
+     */
+    void findRange(long fromTime, long toTime, long offset, List<long[]> out) {
+        if (fromTime >= toTime) {
+            return;
+        }
+        int low = 0;
+        int high = mBlocks;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mRunningMaxTimes[middle] < fromTime) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int block = low; block < mBlocks; block++) {
+            if (mMinTimes[block] >= toTime || mMaxTimes[block] < fromTime) {
+                continue;
+            }
+            long start = offset + mBase + (long) block * BLOCK_RECORDS;
+            long end = Math.min(start + BLOCK_RECORDS, offset + mEnd);
+            long[] last = out.isEmpty() ? null : out.get(out.size() - 1);
+            if (last != null && last[1] == start) {
+                last[1] = end;
+            } else {
+                out.add(new long[]{start, end});
+            }
+        }
+    }
+}
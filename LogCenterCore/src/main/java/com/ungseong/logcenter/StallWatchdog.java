@@ -0,0 +1,177 @@
+package com.ungseong.logcenter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notices when a thread that runs posted tasks, as the main looper does, stops running them. Every
+ * interval the watchdog checks whether its last ping was run; if it was, it posts the next one, and
+ * if it has been waiting longer than the threshold the thread is stalled. While it stays stalled its
+ * stack is sampled every {@value #SAMPLE_INTERVAL_MILLIS} ms, and once it runs the ping again one
+ * {@link LogTypes.Level#WARN} record with the duration and the frames seen most often is posted.
+ *
+ * <p>A healthy check posts the same ping and allocates nothing. A stall that outlasts
+ * {@value #MAX_SAMPLES} samples is posted right away with {@link LogTypes.Durability#SYNC}, since
+ * the process may well be killed before the thread comes back.
+ */
+/*package-private*/
+final class StallWatchdog {
+
+    static final String TAG = "stall";
+
+    static final long SAMPLE_INTERVAL_MILLIS = 50;
+    static final int MAX_SAMPLES = 100;
+    static final int MAX_FRAMES = 12;
+
+    private final LogEngine mEngine;
+    private final Thread mWatchedThread;
+    private final Executor mWatchedExecutor;
+    private final long mIntervalMillis;
+    private final long mThresholdNanos;
+    private final Thread mWatchdogThread;
+
+    private volatile boolean mStopping;
+
+    // written by the watched thread when it runs the ping
+    private volatile long mAnsweredAt;
+    private volatile boolean mAnswered = true;
+
+    private final Runnable mPing = new Runnable() {
+        @Override
+        public void run() {
+            mAnsweredAt = System.nanoTime();
+            mAnswered = true;
+        }
+    };
+
+    /**
+     * @param watchedExecutor runs tasks on {@code watchedThread}, as a {@code Handler} of its looper
+     */
+    StallWatchdog(LogEngine engine, Thread watchedThread, Executor watchedExecutor, long intervalMillis,
+                  long thresholdMillis) {
+        mEngine = engine;
+        mWatchedThread = watchedThread;
+        mWatchedExecutor = watchedExecutor;
+        mIntervalMillis = intervalMillis;
+        mThresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+
+        mWatchdogThread = new Thread(this::watchLoop, "LogCenter-watchdog");
+        mWatchdogThread.setDaemon(true);
+        mWatchdogThread.start();
+    }
+
+    /**
+     * Stops watching. A stall that is being sampled is not posted.
+     */
+    void stop() {
+        mStopping = true;
+        mWatchdogThread.interrupt();
+    }
+
+    private void watchLoop() {
+        long sentAt = 0;
+        try {
+            while (!mStopping) {
+                if (mAnswered) {
+                    mAnswered = false;
+                    sentAt = System.nanoTime();
+                    mWatchedExecutor.execute(mPing);
+                } else if (System.nanoTime() - sentAt >= mThresholdNanos) {
+                    sampleStall(sentAt);
+                    continue;
+                }
+                Thread.sleep(mIntervalMillis);
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * Samples the watched thread until it runs the ping or {@link #MAX_SAMPLES} samples are taken,
+     * posts the stall, and in the latter case waits for the ping before returning.
+     */
+    private void sampleStall(long sentAt) throws InterruptedException {
+        HashMap<StackTraceElement, Frame> frames = new HashMap<>();
+        int samples = 0;
+        while (!mAnswered && samples < MAX_SAMPLES) {
+            StackTraceElement[] stack = mWatchedThread.getStackTrace();
+            // the ping may have run while the stack was taken, which would show the idle looper
+            if (mAnswered) {
+                break;
+            }
+            samples++;
+            for (int depth = 0; depth < stack.length; depth++) {
+                Frame frame = frames.get(stack[depth]);
+                if (frame == null) {
+                    frame = new Frame(stack[depth], depth);
+                    frames.put(stack[depth], frame);
+                }
+                // a recursive frame counts once per sample
+                if (frame.mLastSample != samples) {
+                    frame.mLastSample = samples;
+                    frame.mSamples++;
+                    frame.mDepth = Math.min(frame.mDepth, depth);
+                }
+            }
+            Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+        }
+
+        boolean ongoing = !mAnswered;
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis((ongoing ? System.nanoTime() : mAnsweredAt) - sentAt);
+        if (!mStopping) {
+            String message = describe(mWatchedThread.getName(), durationMillis, ongoing, samples,
+                    new ArrayList<>(frames.values()));
+            if (ongoing) {
+                mEngine.postLog(LogTypes.Level.WARN, TAG, message, LogTypes.Durability.SYNC);
+            } else {
+                mEngine.postLog(LogTypes.Level.WARN, TAG, message);
+            }
+        }
+        while (!mAnswered && !mStopping) {
+            Thread.sleep(mIntervalMillis);
+        }
+    }
+
+    /**
+     * One line for the stall, then up to {@value #MAX_FRAMES} frames, those in the most samples first
+     * and, among those, the ones closest to the top of the stack.
+     */
+    private static String describe(String threadName, long durationMillis, boolean ongoing, int samples, ArrayList<Frame> frames) {
+        Collections.sort(frames, new Comparator<Frame>() {
+            @Override
+            public int compare(Frame a, Frame b) {
+                if (a.mSamples != b.mSamples) {
+                    return b.mSamples - a.mSamples;
+                }
+                return a.mDepth - b.mDepth;
+            }
+        });
+        StringBuilder message = new StringBuilder();
+        message.append(String.format(Locale.ROOT, ongoing ? "%s thread still stalled after %d ms (%d samples)"
+                : "%s thread stalled for %d ms (%d samples)", threadName, durationMillis, samples));
+        for (int i = 0; i < frames.size() && i < MAX_FRAMES; i++) {
+            Frame frame = frames.get(i);
+            message.append(String.format(Locale.ROOT, "\n  %d/%d at %s", frame.mSamples, samples, frame.mElement));
+        }
+        return message.toString();
+    }
+
+    private static final class Frame {
+        final StackTraceElement mElement;
+        int mSamples;
+        // closest to the top of the stack it was seen
+        int mDepth;
+        int mLastSample;
+
+        Frame(StackTraceElement element, int depth) {
+            mElement = element;
+            mDepth = depth;
+        }
+    }
+}
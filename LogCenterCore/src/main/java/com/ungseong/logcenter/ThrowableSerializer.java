@@ -0,0 +1,151 @@
+package com.ungseong.logcenter;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Writes a throwable in the familiar {@link Throwable#printStackTrace()} layout straight into a
+ * {@link StringBuilder}, walking causes and suppressed exceptions itself instead of going through a
+ * {@code PrintWriter} and an intermediate String per line.
+ *
+ * <p>Frames a cause shares with the throwable enclosing it are collapsed into {@code ... n more},
+ * at most {@code maxFrames} frames are written per throwable, and a throwable that shows up again
+ * in its own cause or suppressed chain is written as a {@code [CIRCULAR REFERENCE: ...]} line.
+ */
+/*package-private*/
+final class ThrowableSerializer {
+
+    static final int DEFAULT_MAX_FRAMES = 256;
+
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<StringBuilder> sBuffers = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(4096);
+        }
+    };
+
+    private ThrowableSerializer() {
+
+    }
+
+    static String serialize(Throwable throwable, int maxFrames) {
+        StringBuilder out = sBuffers.get();
+        out.setLength(0);
+        serialize(throwable, maxFrames, out);
+        String serialized = out.toString();
+
+        if (out.capacity() > MAX_RETAINED_CAPACITY) {
+            // one huge trace should not pin its buffer to the thread forever
+            sBuffers.remove();
+        }
+        return serialized;
+    }
+
+    static void serialize(Throwable throwable, int maxFrames, StringBuilder out) {
+        Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>());
+        seen.add(throwable);
+
+        appendDescription(throwable, out);
+        StackTraceElement[] trace = throwable.getStackTrace();
+        appendFrames(trace, trace.length, maxFrames, "", out);
+
+        for (Throwable suppressed : throwable.getSuppressed()) {
+            appendEnclosed(suppressed, trace, "Suppressed: ", "\t", maxFrames, seen, out);
+        }
+        Throwable cause = throwable.getCause();
+        if (cause != null) {
+            appendEnclosed(cause, trace, "Caused by: ", "", maxFrames, seen, out);
+        }
+    }
+
+    private static void appendEnclosed(Throwable throwable, StackTraceElement[] enclosingTrace, String caption,
+                                       String prefix, int maxFrames, Set<Throwable> seen, StringBuilder out) {
+        if (!seen.add(throwable)) {
+            out.append('\n').append(prefix).append(caption).append("[CIRCULAR REFERENCE: ");
+            appendDescription(throwable, out);
+            out.append(']');
+            return;
+        }
+
+        StackTraceElement[] trace = throwable.getStackTrace();
+        int unique = trace.length - countFramesInCommon(trace, enclosingTrace);
+
+        out.append('\n').append(prefix).append(caption);
+        appendDescription(throwable, out);
+        appendFrames(trace, unique, maxFrames, prefix, out);
+        if (unique < trace.length) {
+            out.append('\n').append(prefix).append("\t... ").append(trace.length - unique).append(" more");
+        }
+
+        for (Throwable suppressed : throwable.getSuppressed()) {
+            appendEnclosed(suppressed, trace, "Suppressed: ", prefix + "\t", maxFrames, seen, out);
+        }
+        Throwable cause = throwable.getCause();
+        if (cause != null) {
+            appendEnclosed(cause, trace, "Caused by: ", prefix, maxFrames, seen, out);
+        }
+    }
+
+    /**
+     * Same text as {@link Throwable#toString()}, appended piecewise.
+     */
+    private static void appendDescription(Throwable throwable, StringBuilder out) {
+        out.append(throwable.getClass().getName());
+        String message = throwable.getLocalizedMessage();
+        if (message != null) {
+            out.append(": ").append(message);
+        }
+    }
+
+    private static void appendFrames(StackTraceElement[] trace, int count, int maxFrames, String prefix, StringBuilder out) {
+        int written = Math.min(count, maxFrames);
+        for (int i = 0; i < written; i++) {
+            out.append('\n').append(prefix).append("\tat ");
+            appendFrame(trace[i], out);
+        }
+        if (written < count) {
+            out.append('\n').append(prefix).append("\t... ").append(count - written).append(" frames omitted");
+        }
+    }
+
+    /**
+     * Same text as {@link StackTraceElement#toString()}, appended piecewise.
+     */
+    private static void appendFrame(StackTraceElement frame, StringBuilder out) {
+        out.append(frame.getClassName()).append('.').append(frame.getMethodName());
+        String fileName = frame.getFileName();
+        int lineNumber = frame.getLineNumber();
+        if (frame.isNativeMethod()) {
+            out.append("(Native Method)");
+        } else if (fileName == null) {
+            out.append("(Unknown Source)");
+        } else if (lineNumber >= 0) {
+            out.append('(').append(fileName).append(':').append(lineNumber).append(')');
+        } else {
+            out.append('(').append(fileName).append(')');
+        }
+    }
+
+    /**
+     * @param enclosingTrace may be {@code null}, sharing nothing
+     * @return how many frames at the bottom of {@code trace} are also the bottom of {@code enclosingTrace}
+     */
+    /*package-private*/
+    static int countFramesInCommon(StackTraceElement[] trace, StackTraceElement[] enclosingTrace) {
+        if (enclosingTrace == null) {
+            return 0;
+        }
+        int m = trace.length - 1;
+        int n = enclosingTrace.length - 1;
+        int common = 0;
+        while (m >= 0 && n >= 0 && trace[m].equals(enclosingTrace[n])) {
+            m--;
+            n--;
+            common++;
+        }
+        return common;
+    }
+}
@@ -0,0 +1,215 @@
+package com.ungseong.logcenter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+
+/**
+ * Turns the records of a {@link SpanRecorder} into a Chrome trace-event file, as opened by
+ * {@code chrome://tracing} and Perfetto, one event per line as records are visited. Timestamps are
+ * wall-clock microseconds, so spans of different sessions line up; each session becomes a process of
+ * its own, numbered from 1 in the order they are met, and each thread keeps its name.
+ *
+ * <p>Like {@link LogExporter}, the first write that fails stops the visit and is thrown again by
+ * {@link #finish()}.
+ */
+/*package-private*/
+final class TraceExporter implements LogTypes.LogVisitor {
+
+    private final Writer mWriter;
+
+    private final HashMap<String, Integer> mProcessIds = new HashMap<>();
+    private final HashSet<String> mNamedThreads = new HashSet<>();
+
+    private boolean mStarted;
+    private int mEventCount;
+    private IOException mFailure;
+
+    /**
+     * Leaves {@code out} open; {@link #finish()} closes the JSON and writes out what is buffered.
+     */
+    TraceExporter(OutputStream out) throws IOException {
+        mWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        mWriter.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+    }
+
+    @Override
+    public boolean visit(LogTypes.Log log) {
+        if (!SpanRecorder.TAG.equals(log.getTag())) {
+            return true;
+        }
+        try {
+            writeRecord(log.getLogString());
+            return true;
+        } catch (IOException e) {
+            mFailure = e;
+            return false;
+        }
+    }
+
+    /**
+     * @return how many spans were written
+     */
+    int finish() throws IOException {
+        if (mFailure != null) {
+            throw mFailure;
+        }
+        mWriter.write("\n]}\n");
+        mWriter.flush();
+        return mEventCount;
+    }
+
+    /**
+     * Skips a record that does not start with a session line, and every line that is not one of
+     * those a {@link SpanRecorder} writes, so nothing but numbers goes into the JSON unquoted.
+     */
+    private void writeRecord(String record) throws IOException {
+        String[] lines = record.split("\n");
+        String[] session = lines[0].split("\t", -1);
+        if (session.length != 3 || !isPhase(session[0], SpanRecorder.SESSION)
+                || !isNumber(session[1]) || !isNumber(session[2])) {
+            return;
+        }
+        int pid = processId(session[1]);
+        long offsetNanos = Long.parseLong(session[2]);
+        String tid = null;
+        for (int i = 1; i < lines.length; i++) {
+            String[] fields = lines[i].split("\t", -1);
+            if (fields[0].length() != 1) {
+                continue;
+            }
+            switch (fields[0].charAt(0)) {
+                case SpanRecorder.THREAD:
+                    if (fields.length != 3 || !isNumber(fields[1])) {
+                        // the events that follow are not told apart from those of another thread
+                        tid = null;
+                        break;
+                    }
+                    tid = fields[1];
+                    if (mNamedThreads.add(pid + ":" + tid)) {
+                        writeMetadata("thread_name", pid, tid, SpanRecorder.unescape(fields[2]));
+                    }
+                    break;
+                case SpanRecorder.PHASE_COMPLETE:
+                    if (tid != null && (fields.length == 4 || (fields.length == 6 && isArgument(fields[5])))
+                            && isNumber(fields[1]) && isNumber(fields[2])) {
+                        writeEvent(fields, pid, tid, offsetNanos);
+                    }
+                    break;
+                default:
+                    // written by a newer version
+                    break;
+            }
+        }
+    }
+
+    private static boolean isPhase(String field, char phase) {
+        return field.length() == 1 && field.charAt(0) == phase;
+    }
+
+    private static boolean isArgument(String field) {
+        if (field.isEmpty()) {
+            return false;
+        }
+        char type = field.charAt(0);
+        return type == SpanRecorder.STRING_ARG || (type == SpanRecorder.LONG_ARG && isNumber(field.substring(1)));
+    }
+
+    /**
+     * Whether {@code field} is a {@code long} as {@link Long#toString(long)} writes it, which is also
+     * a JSON number.
+     */
+    private static boolean isNumber(String field) {
+        int start = field.startsWith("-") ? 1 : 0;
+        if (field.length() == start) {
+            return false;
+        }
+        for (int i = start; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        try {
+            Long.parseLong(field);
+            return true;
+        } catch (NumberFormatException e) {
+            // out of range
+            return false;
+        }
+    }
+
+    private int processId(String session) throws IOException {
+        Integer pid = mProcessIds.get(session);
+        if (pid == null) {
+            pid = mProcessIds.size() + 1;
+            mProcessIds.put(session, pid);
+            writeMetadata("process_name", pid, null, "session " + session);
+        }
+        return pid;
+    }
+
+    private void writeMetadata(String name, int pid, String tid, String value) throws IOException {
+        startEvent();
+        mWriter.write("{\"name\":\"");
+        mWriter.write(name);
+        mWriter.write("\",\"ph\":\"M\",\"pid\":");
+        mWriter.write(Integer.toString(pid));
+        if (tid != null) {
+            mWriter.write(",\"tid\":");
+            mWriter.write(tid);
+        }
+        mWriter.write(",\"args\":{\"name\":");
+        LogExporter.writeString(mWriter, value);
+        mWriter.write("}}");
+    }
+
+    private void writeEvent(String[] fields, int pid, String tid, long offsetNanos) throws IOException {
+        long nanos = Long.parseLong(fields[1]) + offsetNanos;
+        long duration = Long.parseLong(fields[2]);
+        if (nanos < 0 || duration < 0) {
+            // not a span a session can have recorded
+            return;
+        }
+        startEvent();
+        mWriter.write("{\"ph\":\"X\",\"ts\":");
+        writeMicros(nanos);
+        mWriter.write(",\"dur\":");
+        writeMicros(duration);
+        mWriter.write(",\"pid\":");
+        mWriter.write(Integer.toString(pid));
+        mWriter.write(",\"tid\":");
+        mWriter.write(tid);
+        mWriter.write(",\"name\":");
+        LogExporter.writeString(mWriter, SpanRecorder.unescape(fields[3]));
+        if (fields.length > 5) {
+            mWriter.write(",\"args\":{");
+            LogExporter.writeString(mWriter, SpanRecorder.unescape(fields[4]));
+            mWriter.write(':');
+            String value = fields[5].substring(1);
+            if (fields[5].charAt(0) == SpanRecorder.LONG_ARG) {
+                mWriter.write(value);
+            } else {
+                LogExporter.writeString(mWriter, SpanRecorder.unescape(value));
+            }
+            mWriter.write('}');
+        }
+        mWriter.write('}');
+        mEventCount++;
+    }
+
+    private void writeMicros(long nanos) throws IOException {
+        mWriter.write(String.format(Locale.ROOT, "%d.%03d", nanos / 1000, nanos % 1000));
+    }
+
+    private void startEvent() throws IOException {
+        mWriter.write(mStarted ? ",\n" : "\n");
+        mStarted = true;
+    }
+}
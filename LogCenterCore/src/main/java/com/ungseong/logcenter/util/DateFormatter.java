@@ -0,0 +1,271 @@
+package com.ungseong.logcenter.util;
+
+import androidx.annotation.NonNull;
+
+import java.text.DateFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Immutable, thread-safe replacement for a {@link SimpleDateFormat} with the same pattern and
+ * locale. The pattern is compiled once into fields and literal text, and formatting works the date
+ * out from the epoch millis itself, so it needs no {@link Calendar} and appends straight into the
+ * caller's {@link StringBuilder}.
+ *
+ * <p>Covers the pattern letters {@code y Y M d E a H k K h m s S}. A pattern using any other letter
+ * falls back to a per-thread {@link SimpleDateFormat}.
+ */
+public final class DateFormatter {
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private final String mPattern;
+    private final Locale mLocale;
+
+    // compiled pattern: a pattern letter with its repeat count, or a literal when mFields[i] is 0
+    private final char[] mFields;
+    private final int[] mCounts;
+    private final String[] mLiterals;
+
+    private final String[] mAmPm;
+    private final String[] mShortWeekdays;
+    private final String[] mWeekdays;
+    private final String[] mShortMonths;
+    private final String[] mMonths;
+    private final int mFirstDayOfWeek;
+    private final int mMinimalDaysInFirstWeek;
+
+    private final ThreadLocal<SimpleDateFormat> mFallback;
+
+    public DateFormatter(@NonNull String pattern, @NonNull Locale locale) {
+        mPattern = pattern;
+        mLocale = locale;
+
+        DateFormatSymbols symbols = DateFormatSymbols.getInstance(locale);
+        mAmPm = symbols.getAmPmStrings();
+        mShortWeekdays = symbols.getShortWeekdays();
+        mWeekdays = symbols.getWeekdays();
+        mShortMonths = symbols.getShortMonths();
+        mMonths = symbols.getMonths();
+        Calendar calendar = Calendar.getInstance(locale);
+        mFirstDayOfWeek = calendar.getFirstDayOfWeek();
+        mMinimalDaysInFirstWeek = calendar.getMinimalDaysInFirstWeek();
+
+        int tokens = 0;
+        char[] fields = new char[pattern.length()];
+        int[] counts = new int[pattern.length()];
+        String[] literals = new String[pattern.length()];
+        boolean supported = true;
+        StringBuilder literal = new StringBuilder();
+
+        for (int i = 0; i < pattern.length(); ) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                // quoted text, where '' stands for a single quote
+                int end = i + 1;
+                if (end < pattern.length() && pattern.charAt(end) == '\'') {
+                    literal.append('\'');
+                    i = end + 1;
+                    continue;
+                }
+                while (end < pattern.length()) {
+                    if (pattern.charAt(end) == '\'') {
+                        if (end + 1 < pattern.length() && pattern.charAt(end + 1) == '\'') {
+                            literal.append('\'');
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    literal.append(pattern.charAt(end++));
+                }
+                i = end + 1;
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                if ("yYMdEaHkKhmsS".indexOf(c) < 0) {
+                    supported = false;
+                }
+                if (literal.length() > 0) {
+                    literals[tokens++] = literal.toString();
+                    literal.setLength(0);
+                }
+                int end = i;
+                while (end < pattern.length() && pattern.charAt(end) == c) {
+                    end++;
+                }
+                fields[tokens] = c;
+                counts[tokens++] = end - i;
+                i = end;
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        if (literal.length() > 0) {
+            literals[tokens++] = literal.toString();
+        }
+
+        mFields = Arrays.copyOf(fields, tokens);
+        mCounts = Arrays.copyOf(counts, tokens);
+        mLiterals = Arrays.copyOf(literals, tokens);
+        mFallback = supported ? null : new ThreadLocal<SimpleDateFormat>() {
+            @Override
+            protected SimpleDateFormat initialValue() {
+                return new SimpleDateFormat(mPattern, mLocale);
+            }
+        };
+    }
+
+    public String getPattern() {
+        return mPattern;
+    }
+
+    public String format(long millis) {
+        return format(millis, TimeZone.getDefault(), new StringBuilder(32)).toString();
+    }
+
+    /**
+     * Appends {@code millis} as seen in {@code timeZone} to {@code out}.
+     *
+     * @return {@code out}
+     */
+    public StringBuilder format(long millis, @NonNull TimeZone timeZone, @NonNull StringBuilder out) {
+        if (mFallback != null) {
+            SimpleDateFormat fallback = mFallback.get();
+            fallback.setTimeZone(timeZone);
+            return out.append(fallback.format(new Date(millis)));
+        }
+
+        long local = millis + timeZone.getOffset(millis);
+        long epochDay = Math.floorDiv(local, MILLIS_PER_DAY);
+        int millisOfDay = (int) Math.floorMod(local, MILLIS_PER_DAY);
+
+        // civil date from days since 1970-01-01, after Howard Hinnant's days_from_civil inverse
+        long shifted = epochDay + 719468;
+        long era = Math.floorDiv(shifted, 146097);
+        int dayOfEra = (int) (shifted - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYearFromMarch = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthFromMarch = (5 * dayOfYearFromMarch + 2) / 153;
+        int day = dayOfYearFromMarch - (153 * monthFromMarch + 2) / 5 + 1;
+        int month = monthFromMarch < 10 ? monthFromMarch + 3 : monthFromMarch - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+        // Calendar.SUNDAY is 1, and 1970-01-01 was a Thursday
+        int dayOfWeek = Math.floorMod(epochDay + 4, 7) + 1;
+
+        int hour = millisOfDay / 3_600_000;
+        int minute = millisOfDay / 60_000 % 60;
+        int second = millisOfDay / 1000 % 60;
+        int milli = millisOfDay % 1000;
+
+        for (int i = 0; i < mFields.length; i++) {
+            int count = mCounts[i];
+            switch (mFields[i]) {
+                case 0:
+                    out.append(mLiterals[i]);
+                    break;
+                case 'y':
+                    appendYear(out, year, count);
+                    break;
+                case 'Y':
+                    appendYear(out, weekYear(epochDay, year, dayOfWeek), count);
+                    break;
+                case 'M':
+                    if (count >= 4) {
+                        out.append(mMonths[month - 1]);
+                    } else if (count == 3) {
+                        out.append(mShortMonths[month - 1]);
+                    } else {
+                        appendPadded(out, month, count);
+                    }
+                    break;
+                case 'd':
+                    appendPadded(out, day, count);
+                    break;
+                case 'E':
+                    out.append(count >= 4 ? mWeekdays[dayOfWeek] : mShortWeekdays[dayOfWeek]);
+                    break;
+                case 'a':
+                    out.append(mAmPm[hour < 12 ? 0 : 1]);
+                    break;
+                case 'H':
+                    appendPadded(out, hour, count);
+                    break;
+                case 'k':
+                    appendPadded(out, hour == 0 ? 24 : hour, count);
+                    break;
+                case 'K':
+                    appendPadded(out, hour % 12, count);
+                    break;
+                case 'h':
+                    appendPadded(out, hour % 12 == 0 ? 12 : hour % 12, count);
+                    break;
+                case 'm':
+                    appendPadded(out, minute, count);
+                    break;
+                case 's':
+                    appendPadded(out, second, count);
+                    break;
+                case 'S':
+                    appendPadded(out, milli, count);
+                    break;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The year the week containing {@code epochDay} belongs to, with the locale's first day of the
+     * week and minimal days in the first week, like {@code GregorianCalendar.getWeekYear()}.
+     */
+    private int weekYear(long epochDay, int year, int dayOfWeek) {
+        long weekStart = epochDay - Math.floorMod(dayOfWeek - mFirstDayOfWeek, 7);
+
+        long nextYearStart = epochDayOf(year + 1);
+        if (weekStart + 6 >= nextYearStart && weekStart + 7 - nextYearStart >= mMinimalDaysInFirstWeek) {
+            return year + 1;
+        }
+        long yearStart = epochDayOf(year);
+        int yearStartDayOfWeek = Math.floorMod(yearStart + 4, 7) + 1;
+        int daysBeforeWeek = Math.floorMod(yearStartDayOfWeek - mFirstDayOfWeek, 7);
+        long firstWeekStart = yearStart - daysBeforeWeek;
+        if (7 - daysBeforeWeek < mMinimalDaysInFirstWeek) {
+            firstWeekStart += 7;
+        }
+        return epochDay < firstWeekStart ? year - 1 : year;
+    }
+
+    /**
+     * Days from 1970-01-01 to January 1st of {@code year}.
+     */
+    private static long epochDayOf(int year) {
+        long y = year - 1L;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        // March 1st of the previous year, plus the 306 days to January 1st
+        long dayOfEra = 365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100 + 306;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static void appendYear(StringBuilder out, int year, int count) {
+        if (count == 2) {
+            appendPadded(out, Math.floorMod(year, 100), 2);
+        } else {
+            appendPadded(out, year, count);
+        }
+    }
+
+    private static void appendPadded(StringBuilder out, int value, int width) {
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = digits; i < width; i++) {
+            out.append('0');
+        }
+        out.append(value);
+    }
+}
@@ -0,0 +1,85 @@
+package com.ungseong.logcenter.util;
+
+import java.util.Locale;
+
+/**
+ * The date formats made up of {@code FLAG_*} bits, for 12 and 24 hour time. Every one of the 256
+ * patterns is built once up front and its {@link DateFormatter} on first use.
+ */
+public final class FlagDateFormats {
+
+    public static final int FLAG_MILLIS = 1;
+    public static final int FLAG_SECOND = 1 << 1;
+    public static final int FLAG_MINUTE = 1 << 2;
+    public static final int FLAG_HOUR = 1 << 3;
+    public static final int FLAG_W_DATE = 1 << 4;
+    public static final int FLAG_DATE = 1 << 5;
+    public static final int FLAG_MONTH = 1 << 6;
+    public static final int FLAG_YEAR = 1 << 7;
+
+    public static final String[] DATE_FORMAT_FLAG = {
+            " SSS밀리초||SSS초",
+            " ss초|| ss.",
+            " mm분",
+            " a h시|| HH시",
+            " (E)",
+            " d일",
+            " M월",
+            " YYYY년"
+    };
+
+    // every combination of the eight flags, for 12 and 24 hour time
+    private static final String[][] FLAG_PATTERNS = new String[2][1 << DATE_FORMAT_FLAG.length];
+
+    // formatters are immutable, so publishing them through a racy array write is safe
+    private static final DateFormatter[][] sFlagFormatters = new DateFormatter[2][1 << DATE_FORMAT_FLAG.length];
+
+    static {
+        for (int flags = 0; flags < FLAG_PATTERNS[0].length; flags++) {
+            FLAG_PATTERNS[0][flags] = buildFlagPattern(flags, false);
+            FLAG_PATTERNS[1][flags] = buildFlagPattern(flags, true);
+        }
+    }
+
+    public static String getPattern(int flags, boolean is24Hour) {
+        return FLAG_PATTERNS[is24Hour ? 1 : 0][flags & 0xFF];
+    }
+
+    /**
+     * The shared, thread-safe formatter for {@code flags}.
+     */
+    public static DateFormatter getFormatter(int flags, boolean is24Hour) {
+        int key = is24Hour ? 1 : 0;
+        DateFormatter formatter = sFlagFormatters[key][flags & 0xFF];
+        if (formatter == null) {
+            formatter = new DateFormatter(FLAG_PATTERNS[key][flags & 0xFF].trim(), Locale.KOREA);
+            sFlagFormatters[key][flags & 0xFF] = formatter;
+        }
+        return formatter;
+    }
+
+    private static String buildFlagPattern(int flags, boolean is24Hour) {
+        boolean isDecimalSecond = (flags & 0b11) == 0b11;
+
+        StringBuilder format = new StringBuilder();
+
+        for (int i = 0; i < DATE_FORMAT_FLAG.length; i++) {
+            if ((flags & 1 << i) > 0) {
+                if (isDecimalSecond && i < 2) {
+                    String singleFormat = DATE_FORMAT_FLAG[i].split("\\|\\|")[1];
+                    format.insert(0, singleFormat);
+                } else if (is24Hour && i == 3) {
+                    String singleFormat = DATE_FORMAT_FLAG[i].split("\\|\\|")[1];
+                    format.insert(0, singleFormat);
+                } else {
+                    format.insert(0, DATE_FORMAT_FLAG[i]);
+                }
+            }
+        }
+        return format.toString();
+    }
+
+    private FlagDateFormats() {
+
+    }
+}
@@ -0,0 +1,206 @@
+package com.ungseong.logcenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hammers the async writer from many producer threads at once and checks what reaches the store.
+ */
+public class AsyncLogWriterStressTest {
+
+    private static final int PRODUCERS = 8;
+    private static final int RECORDS_PER_PRODUCER = 5000;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void blockingWriter_keepsEveryRecordInProducerOrder() throws Exception {
+        SegmentedLogStore store = new SegmentedLogStore(mTemporaryFolder.newFolder("log"), 1024 * 1024, 1000);
+        AsyncLogWriter writer = new AsyncLogWriter(batch -> {
+            for (AsyncLogWriter.PendingLog pendingLog : batch) {
+                try {
+                    store.append(pendingLog.time, pendingLog.level, pendingLog.tag, pendingLog.log);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, 64, LogTypes.OverflowPolicy.BLOCK);
+
+        runProducers(writer);
+        assertTrue(writer.awaitIdle(30, TimeUnit.SECONDS));
+        writer.shutdown();
+
+        assertEquals(0, writer.getDroppedCount());
+        assertEquals(PRODUCERS * RECORDS_PER_PRODUCER, store.count());
+
+        List<LogTypes.Log> logs = new ArrayList<>();
+        store.read(store.firstIndex(), store.count(), logs);
+
+        int[] nextSequence = new int[PRODUCERS];
+        for (LogTypes.Log log : logs) {
+            assertNotNull(log);
+            String[] parts = log.getLogString().split(":");
+            int producer = Integer.parseInt(parts[0]);
+            int sequence = Integer.parseInt(parts[1]);
+
+            assertEquals(nextSequence[producer], sequence);
+            assertEquals(producer * 1_000_000L + sequence, log.getMilliSecond());
+            assertEquals(payload(producer, sequence), log.getLogString());
+            nextSequence[producer]++;
+        }
+        for (int producer = 0; producer < PRODUCERS; producer++) {
+            assertEquals(RECORDS_PER_PRODUCER, nextSequence[producer]);
+        }
+    }
+
+    @Test
+    public void droppingWriters_accountForEveryRecord() throws Exception {
+        for (LogTypes.OverflowPolicy policy : new LogTypes.OverflowPolicy[]{
+                LogTypes.OverflowPolicy.DROP_OLDEST, LogTypes.OverflowPolicy.DROP_NEWEST}) {
+            AtomicLong written = new AtomicLong();
+            AsyncLogWriter writer = new AsyncLogWriter(batch -> {
+                written.addAndGet(batch.size());
+                Thread.yield();
+            }, 16, policy);
+
+            runProducers(writer);
+            assertTrue(writer.awaitIdle(30, TimeUnit.SECONDS));
+            writer.shutdown();
+
+            assertEquals(policy.name(), PRODUCERS * RECORDS_PER_PRODUCER, written.get() + writer.getDroppedCount());
+        }
+    }
+
+    @Test
+    public void shutdownWhileProducing_losesNoRecord() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            AtomicLong written = new AtomicLong();
+            AtomicLong writtenByCaller = new AtomicLong();
+            AsyncLogWriter writer = new AsyncLogWriter(batch -> written.addAndGet(batch.size()), 16,
+                    LogTypes.OverflowPolicy.BLOCK);
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> producers = new ArrayList<>();
+            for (int p = 0; p < PRODUCERS; p++) {
+                Thread thread = new Thread(() -> {
+                    awaitQuietly(start);
+                    for (int i = 0; i < 200; i++) {
+                        // a record the writer turns away is written by the caller
+                        if (!writer.enqueue(i, LogTypes.Level.INFO, "", "record", LogTypes.Durability.NONE)) {
+                            writtenByCaller.incrementAndGet();
+                        }
+                    }
+                });
+                thread.start();
+                producers.add(thread);
+            }
+            start.countDown();
+            // lands while producers are between checking that the writer runs and queueing
+            Thread.yield();
+            writer.shutdown();
+            for (Thread thread : producers) {
+                thread.join();
+            }
+
+            assertEquals(0, writer.getDroppedCount());
+            assertEquals("round " + round, PRODUCERS * 200, written.get() + writtenByCaller.get());
+        }
+    }
+
+    @Test
+    public void ringQueue_handsOutEveryItemExactlyOnce() throws Exception {
+        BoundedRingQueue<Integer> queue = new BoundedRingQueue<>(128);
+        int total = PRODUCERS * RECORDS_PER_PRODUCER;
+        boolean[] seen = new boolean[total];
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < RECORDS_PER_PRODUCER; i++) {
+                    Integer item = producer * RECORDS_PER_PRODUCER + i;
+                    while (!queue.offer(item)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+
+        start.countDown();
+        int received = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (received < total && System.nanoTime() < deadline) {
+            Integer item = queue.poll();
+            if (item == null) {
+                Thread.yield();
+                continue;
+            }
+            assertTrue("duplicate " + item, !seen[item]);
+            seen[item] = true;
+            received++;
+        }
+        for (Thread thread : producers) {
+            thread.join();
+        }
+
+        assertEquals(total, received);
+        assertTrue(queue.isEmpty());
+    }
+
+    private static void runProducers(AsyncLogWriter writer) throws InterruptedException {
+        AtomicLong rejected = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < RECORDS_PER_PRODUCER; i++) {
+                    if (!writer.enqueue(producer * 1_000_000L + i, LogTypes.Level.INFO, "", payload(producer, i), LogTypes.Durability.NONE)) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : producers) {
+            thread.join();
+        }
+        assertEquals(0, rejected.get());
+    }
+
+    private static String payload(int producer, int sequence) {
+        StringBuilder payload = new StringBuilder().append(producer).append(':').append(sequence).append(':');
+        for (int i = 0; i < sequence % 97; i++) {
+            payload.append('x');
+        }
+        return payload.toString();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.ungseong.logcenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Ships records to a collector stand-in on the loopback interface.
+ */
+public class LogShipperTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+    private final LinkedBlockingQueue<List<String>> mReceived = new LinkedBlockingQueue<>();
+    // Content-Encoding and Authorization of every batch taken
+    private final List<String> mHeaders = Collections.synchronizedList(new ArrayList<>());
+    // statuses answered to the next requests, 200 once they are used up
+    private final LinkedBlockingQueue<Integer> mStatuses = new LinkedBlockingQueue<>();
+    private final AtomicInteger mRequests = new AtomicInteger();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = mTemporaryFolder.newFolder("log");
+        startServer(0);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void fullBatches_areSentGzippedWithHeaders() throws Exception {
+        LogEngine engine = new LogEngine(mDirectory);
+        engine.enableShipping(policy()
+                .minimumLevel(LogTypes.Level.INFO)
+                .maxBatch(3, 1024 * 1024, 1, TimeUnit.HOURS)
+                .header("Authorization", "Bearer token"));
+
+        for (int i = 0; i < 7; i++) {
+            engine.postLog(LogTypes.Level.INFO, "net", "record " + i);
+            engine.postLog(LogTypes.Level.DEBUG, "net", "left out " + i);
+        }
+
+        assertBatch(0, 3, mReceived.poll(10, TimeUnit.SECONDS));
+        assertBatch(3, 3, mReceived.poll(10, TimeUnit.SECONDS));
+        // the seventh record waits for its batch to fill up or age
+        assertEquals(null, mReceived.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.nCopies(2, "gzip Bearer token"), new ArrayList<>(mHeaders));
+        engine.close();
+    }
+
+    @Test
+    public void failedBatches_areRetriedInOrder() throws Exception {
+        mStatuses.add(503);
+        mStatuses.add(401);
+        mStatuses.add(404);
+        mStatuses.add(429);
+        LogEngine engine = new LogEngine(mDirectory);
+        engine.enableShipping(policy().maxBatch(2, 1024 * 1024, 1, TimeUnit.HOURS));
+
+        for (int i = 0; i < 6; i++) {
+            engine.postLog(LogTypes.Level.WARN, "net", "record " + i);
+        }
+
+        assertBatch(0, 2, mReceived.poll(10, TimeUnit.SECONDS));
+        assertBatch(2, 2, mReceived.poll(10, TimeUnit.SECONDS));
+        assertBatch(4, 2, mReceived.poll(10, TimeUnit.SECONDS));
+        assertEquals(7, mRequests.get());
+        engine.close();
+    }
+
+    @Test
+    public void rejectedBatch_isDropped() throws Exception {
+        mStatuses.add(400);
+        LogEngine engine = new LogEngine(mDirectory);
+        engine.enableShipping(policy().maxBatch(1, 1024 * 1024, 1, TimeUnit.HOURS));
+
+        engine.postLog(LogTypes.Level.WARN, "net", "record 0");
+        engine.postLog(LogTypes.Level.WARN, "net", "record 1");
+
+        assertBatch(1, 1, mReceived.poll(10, TimeUnit.SECONDS));
+        assertEquals(2, mRequests.get());
+        engine.close();
+    }
+
+    @Test
+    public void spooledBatches_surviveARestart() throws Exception {
+        mServer.stop(0);
+        LogEngine engine = new LogEngine(mDirectory);
+        engine.enableShipping(policy().maxBatch(2, 1024 * 1024, 1, TimeUnit.HOURS));
+        for (int i = 0; i < 3; i++) {
+            engine.postLog(LogTypes.Level.ERROR, "net", "record " + i);
+        }
+        // the full batch is spooled by the shipper thread, the open one by close()
+        engine.close();
+        String[] spooled = new File(mDirectory, LogShipper.SPOOL_DIRECTORY).list();
+        assertEquals(2, spooled.length);
+
+        startServer(mServer.getAddress().getPort());
+        LogEngine restarted = new LogEngine(mDirectory);
+        restarted.enableShipping(policy().maxBatch(2, 1024 * 1024, 1, TimeUnit.HOURS));
+
+        assertBatch(0, 2, mReceived.poll(10, TimeUnit.SECONDS));
+        assertBatch(2, 1, mReceived.poll(10, TimeUnit.SECONDS));
+        restarted.close();
+        assertEquals(0, new File(mDirectory, LogShipper.SPOOL_DIRECTORY).list().length);
+    }
+
+    @Test
+    public void openBatch_isSentOnceItIsOldEnough() throws Exception {
+        LogEngine engine = new LogEngine(mDirectory);
+        engine.enableShipping(policy().maxBatch(100, 1024 * 1024, 50, TimeUnit.MILLISECONDS));
+
+        engine.postLog(LogTypes.Level.ERROR, "net", "record 0");
+
+        assertBatch(0, 1, mReceived.poll(10, TimeUnit.SECONDS));
+        engine.close();
+    }
+
+    private ShippingPolicy policy() throws IOException {
+        return ShippingPolicy.to(new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/ingest"))
+                .backoff(10, 50, TimeUnit.MILLISECONDS);
+    }
+
+    private void startServer(int port) throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        mServer.createContext("/ingest", this::handle);
+        mServer.start();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        mRequests.incrementAndGet();
+        Integer status = mStatuses.poll();
+        if (status == null) {
+            mHeaders.add(exchange.getRequestHeaders().getFirst("Content-Encoding") + " "
+                    + exchange.getRequestHeaders().getFirst("Authorization"));
+            String body = readAll(new GZIPInputStream(exchange.getRequestBody()));
+            List<String> lines = new ArrayList<>();
+            Collections.addAll(lines, body.split("\n"));
+            mReceived.add(lines);
+            status = 200;
+        } else {
+            readAll(exchange.getRequestBody());
+        }
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    private static void assertBatch(int first, int count, List<String> lines) {
+        assertTrue("no batch arrived", lines != null);
+        assertEquals(count, lines.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue(lines.get(i), lines.get(i).contains("\"message\":\"record " + (first + i) + "\""));
+        }
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
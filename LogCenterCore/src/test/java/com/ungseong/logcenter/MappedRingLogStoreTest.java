@@ -0,0 +1,133 @@
+package com.ungseong.logcenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Laps a small ring several times, damages it the way a crash would and replays it.
+ */
+public class MappedRingLogStoreTest {
+
+    private static final int CAPACITY = 1024;
+    private static final int RECORDS = 100;
+    // [int magic][int length][long sequence][long time][int crc], then level, flags and tag length
+    private static final int RECORD_HEADER_BYTES = 28 + 4;
+    private static final String TAG = "tag";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new File(mTemporaryFolder.newFolder("log"), MappedRingLogStore.FILE_NAME);
+    }
+
+    @Test
+    public void lappedRing_isReplayedInOrder() throws Exception {
+        MappedRingLogStore store = new MappedRingLogStore(mFile, CAPACITY);
+        appendNumbered(store);
+        long firstIndex = store.firstIndex();
+        int count = store.count();
+        assertTrue(firstIndex > 0);
+        store.close();
+
+        store = new MappedRingLogStore(mFile, CAPACITY);
+        assertEquals(firstIndex, store.firstIndex());
+        assertRecords(store, count);
+        assertEquals(0, store.getTornRecordCount());
+        store.close();
+    }
+
+    @Test
+    public void lastRecordFailingItsCrc_isDropped() throws Exception {
+        MappedRingLogStore store = new MappedRingLogStore(mFile, CAPACITY);
+        appendNumbered(store);
+        int count = store.count();
+        store.close();
+
+        // one bit of the body of the newest record
+        int body = offsetOf("record " + (RECORDS - 1));
+        flipBit(body + 1);
+
+        store = new MappedRingLogStore(mFile, CAPACITY);
+        assertRecords(store, count - 1);
+        assertEquals(1, store.getTornRecordCount());
+        // the dropped record's index is taken by the next one
+        assertEquals(RECORDS - 1, store.append(2000, LogTypes.Level.INFO, TAG, "after"));
+        assertEquals("after", store.get(RECORDS - 1).getLogString());
+        store.close();
+    }
+
+    @Test
+    public void lastRecordWithoutMagic_isDropped() throws Exception {
+        MappedRingLogStore store = new MappedRingLogStore(mFile, CAPACITY);
+        appendNumbered(store);
+        int count = store.count();
+        store.close();
+
+        // the magic is written last, so a record cut short by a crash has none
+        int start = offsetOf("record " + (RECORDS - 1)) - RECORD_HEADER_BYTES - TAG.length();
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.seek(start);
+            file.writeInt(0);
+        }
+
+        store = new MappedRingLogStore(mFile, CAPACITY);
+        assertRecords(store, count - 1);
+        assertEquals(0, store.getTornRecordCount());
+        store.close();
+    }
+
+    private static void appendNumbered(MappedRingLogStore store) throws IOException {
+        for (int i = 0; i < RECORDS; i++) {
+            assertEquals(i, store.append(1000 + i, LogTypes.Level.INFO, TAG, "record " + i));
+        }
+    }
+
+    /**
+     * Checks that {@code store} holds exactly the newest {@code count} of the numbered records,
+     * oldest first.
+     */
+    private static void assertRecords(MappedRingLogStore store, int count) throws IOException {
+        assertEquals(count, store.count());
+        List<LogTypes.Log> logs = new ArrayList<>();
+        store.read(store.firstIndex(), count, logs);
+        int first = (int) store.firstIndex();
+        for (int i = 0; i < count; i++) {
+            assertEquals("record " + (first + i), logs.get(i).getLogString());
+            assertEquals(1000 + first + i, logs.get(i).getMilliSecond());
+            assertEquals(TAG, logs.get(i).getTag());
+        }
+    }
+
+    private int offsetOf(String text) throws IOException {
+        String contents = new String(Files.readAllBytes(mFile.toPath()), StandardCharsets.ISO_8859_1);
+        int offset = contents.indexOf(text);
+        assertTrue(offset >= 0 && offset == contents.lastIndexOf(text));
+        return offset;
+    }
+
+    private void flipBit(int offset) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 1);
+        }
+    }
+}
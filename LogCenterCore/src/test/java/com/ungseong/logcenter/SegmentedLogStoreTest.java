@@ -0,0 +1,329 @@
+package com.ungseong.logcenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Writes, seals and reopens segments in a temporary directory.
+ */
+public class SegmentedLogStoreTest {
+
+    private static final int SEGMENT_BYTES = 1024;
+    private static final int MAX_SEGMENTS = 2;
+
+    private static final int SEGMENT_MAGIC = 0x4C435347; // "LCSG"
+    private static final int SEGMENT_HEADER_BYTES = 8;
+    // "record n" with the tag "tag", as appendNumbered writes them for n < 10
+    private static final int NUMBERED_RECORD_BYTES = RecordCodec.HEADER_BYTES + 3 + 8;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = mTemporaryFolder.newFolder("log");
+    }
+
+    @Test
+    public void withoutByteLimit_segmentCapApplies() throws Exception {
+        SegmentedLogStore store = new SegmentedLogStore(mDirectory, SEGMENT_BYTES, MAX_SEGMENTS);
+        appendRandom(store, 200);
+        store.awaitCompression();
+
+        assertTrue(store.count() < 200);
+        store.close();
+    }
+
+    @Test
+    public void byteLimit_replacesSegmentCap() throws Exception {
+        SegmentedLogStore store = new SegmentedLogStore(mDirectory, SEGMENT_BYTES, MAX_SEGMENTS);
+        store.setRetentionPolicy(RetentionPolicy.unlimited().maxTotalBytes(64 * 1024));
+        appendRandom(store, 200);
+        store.awaitCompression();
+
+        assertEquals(200, store.count());
+        assertEquals(0, store.firstIndex());
+        store.close();
+    }
+
+    @Test
+    public void sealedSegments_areCompressedAndReadBack() throws Exception {
+        SegmentedLogStore store = new SegmentedLogStore(mDirectory, SEGMENT_BYTES, 100);
+        appendNumbered(store, 200);
+        store.awaitCompression();
+
+        assertTrue(countFiles(SegmentedLogStore.COMPRESSED_SUFFIX) > 0);
+        assertRecords(store, 0, 200);
+        assertTimeRange(store, 50, 60);
+        store.close();
+
+        // the reopened store finds the time index of compressed segments again
+        store = new SegmentedLogStore(mDirectory, SEGMENT_BYTES, 100);
+        assertRecords(store, 0, 200);
+        assertTimeRange(store, 50, 60);
+        assertTimeRange(store, 190, 200);
+        store.close();
+    }
+
+    @Test
+    public void segmentsDroppedBeforeCompression_areSkipped() throws Exception {
+        SegmentedLogStore store = new SegmentedLogStore(mDirectory, SEGMENT_BYTES, 100);
+        // the compressor waits for the lock until every sealed segment is gone
+        synchronized (store) {
+            appendNumbered(store, 200);
+            store.setRetentionPolicy(RetentionPolicy.unlimited().maxRecords(1));
+            store.append(2000, LogTypes.Level.INFO, "tag", "last");
+        }
+        store.awaitCompression();
+
+        assertEquals(0, countFiles(SegmentedLogStore.COMPRESSED_SUFFIX));
+        assertEquals(0, countFiles(".tmp"));
+        assertEquals(1, countFiles(SegmentedLogStore.SEGMENT_SUFFIX));
+        store.close();
+    }
+
+    @Test
+    public void segmentsDroppedWhileCompressed_leaveNothingBehind() throws Exception {
+        PrintStream err = System.err;
+        ByteArrayOutputStream reported = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(reported, true));
+        try {
+            // whether retention strikes in the middle of a compression is up to the scheduler
+            for (int round = 0; round < 10; round++) {
+                mDirectory = mTemporaryFolder.newFolder("round" + round);
+                SegmentedLogStore store = new SegmentedLogStore(mDirectory, SEGMENT_BYTES, 100);
+                // keeps about two segments, so most are dropped while queued for or being compressed
+                store.setRetentionPolicy(RetentionPolicy.unlimited().maxRecords(40));
+                appendNumbered(store, 2000);
+                store.awaitCompression();
+
+                assertEquals("", reported.toString());
+                assertEquals(0, countFiles(".tmp"));
+                int count = store.count();
+                assertRecords(store, 2000 - count, count);
+                store.close();
+
+                store = new SegmentedLogStore(mDirectory, SEGMENT_BYTES, 100);
+                assertRecords(store, 2000 - count, count);
+                store.close();
+            }
+        } finally {
+            System.setErr(err);
+        }
+    }
+
+    @Test
+    public void recordFailingItsCrc_endsTheSegment() throws Exception {
+        SegmentedLogStore store = new SegmentedLogStore(mDirectory);
+        appendNumbered(store, 10);
+        store.close();
+
+        File segment = onlyFile(SegmentedLogStore.SEGMENT_SUFFIX);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // one bit of the body of the sixth record; its lengths still add up
+            long offset = SEGMENT_HEADER_BYTES + 5 * NUMBERED_RECORD_BYTES + NUMBERED_RECORD_BYTES - 1;
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 1);
+        }
+
+        store = new SegmentedLogStore(mDirectory);
+        assertRecords(store, 0, 5);
+        // written after the records left out, never in between
+        assertEquals(5, store.append(2000, LogTypes.Level.INFO, "tag", "after"));
+        assertEquals("after", store.get(5).getLogString());
+        store.close();
+    }
+
+    @Test
+    public void tornTail_isCutOffOnOpen() throws Exception {
+        SegmentedLogStore store = new SegmentedLogStore(mDirectory);
+        appendNumbered(store, 10);
+        store.close();
+
+        File segment = onlyFile(SegmentedLogStore.SEGMENT_SUFFIX);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+
+        store = new SegmentedLogStore(mDirectory);
+        assertRecords(store, 0, 9);
+        store.append(2000, LogTypes.Level.INFO, "tag", "after");
+        store.close();
+
+        store = new SegmentedLogStore(mDirectory);
+        assertEquals(10, store.count());
+        assertEquals("record 8", store.get(8).getLogString());
+        assertEquals("after", store.get(9).getLogString());
+        store.close();
+    }
+
+    @Test
+    public void oneFilePerLogRecords_areMigrated() throws Exception {
+        FilePerLogStore legacyStore = new FilePerLogStore(mDirectory);
+        appendNumbered(legacyStore, 3);
+        legacyStore.close();
+
+        SegmentedLogStore store = new SegmentedLogStore(mDirectory);
+        assertRecords(store, 0, 3);
+        assertEquals(0, countFiles(SegmentedLogStore.LEGACY_SUFFIX));
+        // compressed or not, depending on whether the compressor got to it yet
+        String[] migrated = mDirectory.list((directory, name) -> name.startsWith("legacy-"));
+        assertEquals(1, migrated.length);
+        store.append(2000, LogTypes.Level.INFO, "tag", "after");
+        store.close();
+
+        // the migrated segment still comes before the ones written since
+        store = new SegmentedLogStore(mDirectory);
+        assertEquals(4, store.count());
+        assertEquals("record 0", store.get(0).getLogString());
+        assertEquals("after", store.get(3).getLogString());
+        store.close();
+    }
+
+    @Test
+    public void olderSegmentVersions_areRead() throws Exception {
+        ByteBuffer version1 = ByteBuffer.allocate(256);
+        putVersion1(version1, 1000, "first");
+        putVersion1(version1, 1001, "second");
+        writeSegment("0000000000000000000.seg", 1, version1);
+
+        ByteBuffer version2 = ByteBuffer.allocate(256);
+        putVersion2(version2, 1002, LogTypes.Level.WARN, "net", "third");
+        putVersion2(version2, 1003, LogTypes.Level.ERROR, "", "fourth");
+        writeSegment("0000000000000000001.seg", 2, version2);
+
+        SegmentedLogStore store = new SegmentedLogStore(mDirectory);
+        assertEquals(4, store.count());
+        List<LogTypes.Log> logs = new ArrayList<>();
+        store.read(0, 4, logs);
+        assertLog(1000, LogTypes.Level.INFO, "first", logs.get(0));
+        assertLog(1001, LogTypes.Level.INFO, "second", logs.get(1));
+        assertLog(1002, LogTypes.Level.WARN, "third", logs.get(2));
+        assertEquals("net", logs.get(2).getTag());
+        assertLog(1003, LogTypes.Level.ERROR, "fourth", logs.get(3));
+
+        // new records go to a segment of the current version after them
+        assertEquals(4, store.append(1004, LogTypes.Level.INFO, "tag", "fifth"));
+        store.close();
+        store = new SegmentedLogStore(mDirectory);
+        assertEquals(5, store.count());
+        assertEquals("second", store.get(1).getLogString());
+        assertEquals("fifth", store.get(4).getLogString());
+        store.close();
+    }
+
+    private static void putVersion1(ByteBuffer out, long time, String log) {
+        byte[] body = log.getBytes(StandardCharsets.UTF_8);
+        out.putInt(body.length).putLong(time).put(body);
+    }
+
+    private static void putVersion2(ByteBuffer out, long time, LogTypes.Level level, String tag, String log) {
+        byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+        byte[] body = log.getBytes(StandardCharsets.UTF_8);
+        out.putInt(body.length).putLong(time).put((byte) level.priority).put((byte) 0).putShort((short) tagBytes.length)
+                .put(tagBytes).put(body);
+    }
+
+    private void writeSegment(String name, int version, ByteBuffer records) throws IOException {
+        records.flip();
+        ByteBuffer segment = ByteBuffer.allocate(SEGMENT_HEADER_BYTES + records.remaining());
+        segment.putInt(SEGMENT_MAGIC).putInt(version).put(records);
+        Files.write(new File(mDirectory, name).toPath(), segment.array());
+    }
+
+    private static void assertLog(long time, LogTypes.Level level, String log, LogTypes.Log actual) {
+        assertEquals(time, actual.getMilliSecond());
+        assertEquals(level, actual.getLevel());
+        assertEquals(log, actual.getLogString());
+    }
+
+    private File onlyFile(String suffix) {
+        assertEquals(1, countFiles(suffix));
+        for (File file : mDirectory.listFiles()) {
+            if (file.getName().endsWith(suffix)) {
+                return file;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    private static void appendNumbered(LogStore store, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            store.append(1000 + i, LogTypes.Level.INFO, "tag", "record " + i);
+        }
+    }
+
+    /**
+     * Checks that {@code store} holds exactly the numbered records from {@code first} on.
+     */
+    private static void assertRecords(SegmentedLogStore store, int first, int count) throws IOException {
+        assertEquals(count, store.count());
+        List<LogTypes.Log> logs = new ArrayList<>();
+        store.read(store.firstIndex(), count, logs);
+        assertEquals(count, logs.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("record " + (first + i), logs.get(i).getLogString());
+            assertEquals(1000 + first + i, logs.get(i).getMilliSecond());
+        }
+    }
+
+    /**
+     * Checks that the ranges found for the numbered records {@code [from, to)} hold all of them but
+     * leave most of the store out.
+     */
+    private static void assertTimeRange(SegmentedLogStore store, int from, int to) throws IOException {
+        List<long[]> ranges = new ArrayList<>();
+        store.findTimeRange(1000 + from, 1000 + to, ranges);
+        long covered = 0;
+        for (long[] range : ranges) {
+            covered += range[1] - range[0];
+        }
+        for (int i = from; i < to; i++) {
+            long index = store.firstIndex() + i;
+            boolean found = false;
+            for (long[] range : ranges) {
+                found |= index >= range[0] && index < range[1];
+            }
+            assertTrue("record " + i + " outside " + ranges.size() + " ranges", found);
+        }
+        assertTrue(covered < store.count() / 2);
+    }
+
+    private int countFiles(String suffix) {
+        int count = 0;
+        for (String name : mDirectory.list()) {
+            if (name.endsWith(suffix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // hex does not compress below half, so compression alone never makes room for every record
+    private static void appendRandom(SegmentedLogStore store, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            store.append(i, LogTypes.Level.INFO, "tag", UUID.randomUUID().toString());
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.ungseong.logcenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Records spans on several threads and reads them back as a Chrome trace.
+ */
+public class SpanRecorderTest {
+
+    private static final Pattern TIMESTAMP = Pattern.compile("\"ts\":(\\d+)\\.(\\d{3})");
+    private static final Pattern DURATION = Pattern.compile("\"dur\":(\\d+)\\.(\\d{3})");
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private LogEngine mEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        mEngine = new LogEngine(mTemporaryFolder.newFolder("log"));
+        mEngine.setTracingEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.close();
+    }
+
+    @Test
+    public void nestedSpans_areExportedAsCompleteEvents() throws Exception {
+        mEngine.beginSpan("frame");
+        mEngine.beginSpan("bind \"row\"\t1", "position", 42);
+        mEngine.endSpan();
+        mEngine.beginSpan("decode", "url", "https://example.com/a\\b");
+        mEngine.endSpan();
+        mEngine.endSpan();
+
+        List<String> events = export();
+        String tid = "\"tid\":" + Thread.currentThread().getId();
+        assertTrue(events.get(0), events.get(0).contains("\"name\":\"process_name\""));
+        assertTrue(events.get(1), events.get(1).contains("\"name\":\"thread_name\"") && events.get(1).contains(tid)
+                && events.get(1).contains("\"args\":{\"name\":" + '"' + Thread.currentThread().getName() + '"'));
+        assertEquals(5, events.size());
+        // in the order they ended
+        assertTrue(events.get(2), events.get(2).startsWith("{\"ph\":\"X\"") && events.get(2).contains(tid)
+                && events.get(2).endsWith(",\"name\":\"bind \\\"row\\\"\\t1\",\"args\":{\"position\":42}}"));
+        assertTrue(events.get(3), events.get(3).endsWith("\"args\":{\"url\":\"https://example.com/a\\\\b\"}}"));
+        assertTrue(events.get(4), events.get(4).endsWith(",\"name\":\"frame\"}"));
+
+        // the frame holds both others
+        long frameStart = timestampNanos(events.get(4), TIMESTAMP);
+        long frameEnd = frameStart + timestampNanos(events.get(4), DURATION);
+        for (int i = 2; i < 4; i++) {
+            long start = timestampNanos(events.get(i), TIMESTAMP);
+            assertTrue(events.get(i), start >= frameStart && start + timestampNanos(events.get(i), DURATION) <= frameEnd);
+        }
+        assertTrue(timestampNanos(events.get(2), TIMESTAMP) <= timestampNanos(events.get(3), TIMESTAMP));
+        // wall-clock microseconds
+        assertTrue(Math.abs(frameStart / 1_000_000 - System.currentTimeMillis()) < 60_000);
+    }
+
+    @Test
+    public void spansCutByTogglingTracing_areLeftOut() throws Exception {
+        mEngine.setTracingEnabled(false);
+        mEngine.beginSpan("before");
+        mEngine.setTracingEnabled(true);
+        mEngine.beginSpan("frame");
+        mEngine.endSpan();
+        // ends "before"
+        mEngine.endSpan();
+        mEngine.beginSpan("after");
+        mEngine.setTracingEnabled(false);
+        mEngine.endSpan();
+        mEngine.setTracingEnabled(true);
+
+        List<String> events = export();
+        assertEquals(3, events.size());
+        assertTrue(events.get(2), events.get(2).endsWith(",\"name\":\"frame\"}"));
+    }
+
+    @Test
+    public void spansNestedTooDeep_areDroppedWithTheirEnds() throws Exception {
+        int depth = SpanRecorder.MAX_OPEN_SPANS + 3;
+        for (int i = 0; i < depth; i++) {
+            mEngine.beginSpan("level", "depth", i);
+        }
+        for (int i = 0; i < depth; i++) {
+            mEngine.endSpan();
+        }
+        mEngine.beginSpan("frame");
+        mEngine.endSpan();
+
+        List<String> events = export();
+        assertEquals(3, mEngine.getDroppedSpanCount());
+        assertEquals(2 + SpanRecorder.MAX_OPEN_SPANS + 1, events.size());
+        // the innermost recorded span ends first
+        assertTrue(events.get(2), events.get(2).endsWith("\"args\":{\"depth\":" + (SpanRecorder.MAX_OPEN_SPANS - 1) + "}}"));
+        assertTrue(events.get(events.size() - 2), events.get(events.size() - 2).endsWith("\"args\":{\"depth\":0}}"));
+        assertTrue(events.get(events.size() - 1), events.get(events.size() - 1).endsWith(",\"name\":\"frame\"}"));
+    }
+
+    @Test
+    public void everyThread_getsItsOwnTrack() throws Exception {
+        int threads = 4;
+        // more than a chunk per thread, so full chunks are handed over while spans are recorded
+        int spansPerThread = SpanRecorder.CHUNK_EVENTS;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < spansPerThread; i++) {
+                    mEngine.beginSpan("work", "i", i);
+                    mEngine.endSpan();
+                }
+            }, "worker-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        List<String> events = export();
+        assertEquals(0, mEngine.getDroppedSpanCount());
+        int threadNames = 0;
+        int[] begins = new int[threads];
+        for (String event : events) {
+            if (event.contains("\"name\":\"thread_name\"")) {
+                threadNames++;
+            }
+            for (int t = 0; t < threads; t++) {
+                if (event.contains("\"tid\":" + workers.get(t).getId() + ",") && event.startsWith("{\"ph\":\"X\"")) {
+                    begins[t]++;
+                }
+            }
+        }
+        assertEquals(threads, threadNames);
+        for (int t = 0; t < threads; t++) {
+            assertEquals(spansPerThread, begins[t]);
+        }
+    }
+
+    @Test
+    public void disabledTracing_recordsNothing() throws Exception {
+        mEngine.setTracingEnabled(false);
+        mEngine.beginSpan("frame");
+        mEngine.endSpan();
+
+        assertEquals(0, mEngine.exportTrace(new ByteArrayOutputStream(), 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void spans_areNeitherSearchedNorListed() throws Exception {
+        mEngine.postLog(LogTypes.Level.INFO, "main", "frame drawn");
+        mEngine.beginSpan("frame");
+        mEngine.endSpan();
+        mEngine.flushSpans();
+        // the search index catches up on whatever the store got since the last record it indexed
+        mEngine.postLog(LogTypes.Level.INFO, "main", "frame dropped");
+
+        assertEquals(2, search("frame"));
+        assertEquals(0, search("trace"));
+        assertEquals(2, mEngine.openLogCursor().getCount());
+
+        // nor once the index is read back on open
+        mEngine.close();
+        assertEquals(2, search("frame"));
+        assertEquals(1, mEngine.exportTrace(new ByteArrayOutputStream(), 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void malformedLines_areSkipped() throws Exception {
+        String[] records = {
+                "T\t1",
+                "S\t1\t0\nT\tx}\tmain\nX\t5\t1\tframe",
+                "S\t1\t0\nT\t1\tmain\nX\t5\t1\tframe\targ\t\nX\t5\t1\tframe\targ\tl1}\nX\t+5\t1\tframe\nX\t5\nX\t-9\t1\t\n"
+                        + "X\t5\t-1\tframe\n\nX\t5\t1001\tframe\targ\tl7",
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceExporter exporter = new TraceExporter(out);
+        for (String record : records) {
+            assertTrue(exporter.visit(new LogTypes.Log(1, LogTypes.Level.VERBOSE, SpanRecorder.TAG, record)));
+        }
+        assertEquals(1, exporter.finish());
+        assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n"
+                + "{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"args\":{\"name\":\"session 1\"}},\n"
+                + "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":1,\"args\":{\"name\":\"main\"}},\n"
+                + "{\"ph\":\"X\",\"ts\":0.005,\"dur\":1.001,\"pid\":1,\"tid\":1,\"name\":\"frame\",\"args\":{\"arg\":7}}\n"
+                + "]}\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private int search(String text) {
+        return mEngine.openLogCursor(new LogFilter(LogTypes.Level.VERBOSE, null, LogQuery.parse(text))).getCount();
+    }
+
+    private List<String> export() throws Exception {
+        mEngine.flushSpans();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = mEngine.exportTrace(out, 0, Long.MAX_VALUE);
+        String json = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+        String[] lines = json.split("\n");
+        assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[", lines[0]);
+        assertEquals("]}", lines[lines.length - 1]);
+        List<String> events = new ArrayList<>();
+        int spanEvents = 0;
+        for (int i = 1; i < lines.length - 1; i++) {
+            String event = lines[i].endsWith(",") ? lines[i].substring(0, lines[i].length() - 1) : lines[i];
+            events.add(event);
+            if (!event.contains("\"ph\":\"M\"")) {
+                spanEvents++;
+            }
+        }
+        assertEquals(spanEvents, count);
+        return events;
+    }
+
+    private static long timestampNanos(String event, Pattern pattern) {
+        Matcher matcher = pattern.matcher(event);
+        assertTrue(event, matcher.find());
+        return Long.parseLong(matcher.group(1)) * 1000 + Long.parseLong(matcher.group(2));
+    }
+}
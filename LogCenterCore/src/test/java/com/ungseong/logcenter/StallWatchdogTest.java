@@ -0,0 +1,114 @@
+package com.ungseong.logcenter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stalls a single-thread executor standing in for the main looper.
+ */
+public class StallWatchdogTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private ExecutorService mLooper;
+    private Thread mLooperThread;
+    private LogEngine mEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        mLooper = Executors.newSingleThreadExecutor();
+        mLooperThread = mLooper.submit(Thread::currentThread).get();
+        mEngine = new LogEngine(mTemporaryFolder.newFolder("log"));
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.close();
+        mLooper.shutdownNow();
+    }
+
+    @Test
+    public void stall_isPostedOnceWithItsHottestFrames() throws Exception {
+        mEngine.startStallWatchdog(mLooperThread, mLooper, 10, 100, TimeUnit.MILLISECONDS);
+        Thread.sleep(100);
+        mLooper.execute(StallWatchdogTest::freeze);
+
+        List<LogTypes.Log> stalls = awaitStalls(1);
+        assertEquals(1, stalls.size());
+        LogTypes.Log stall = stalls.get(0);
+        assertEquals(LogTypes.Level.WARN, stall.getLevel());
+
+        Matcher matcher = Pattern.compile("stalled for (\\d+) ms \\((\\d+) samples\\)").matcher(stall.getLogString());
+        assertTrue(stall.getLogString(), matcher.find());
+        assertTrue(stall.getLogString(), Long.parseLong(matcher.group(1)) >= 600);
+        int samples = Integer.parseInt(matcher.group(2));
+        assertTrue(stall.getLogString(), samples > 0);
+        // the frozen frame was in every sample
+        String frozenFrame = null;
+        for (String line : stall.getLogString().split("\n")) {
+            if (line.contains(StallWatchdogTest.class.getName() + ".freeze(")) {
+                frozenFrame = line;
+            }
+        }
+        assertTrue(stall.getLogString(), frozenFrame != null && frozenFrame.startsWith("  " + samples + "/" + samples + " at "));
+    }
+
+    @Test
+    public void busyButHealthyThread_postsNothing() throws Exception {
+        mEngine.startStallWatchdog(mLooperThread, mLooper, 10, 200, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 20; i++) {
+            mLooper.execute(() -> sleep(20));
+            Thread.sleep(30);
+        }
+        assertEquals(0, stalls().size());
+    }
+
+    private static void freeze() {
+        sleep(700);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<LogTypes.Log> awaitStalls(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        List<LogTypes.Log> stalls = stalls();
+        while (stalls.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            stalls = stalls();
+        }
+        // a second record would show up right behind the first
+        Thread.sleep(300);
+        return stalls();
+    }
+
+    private List<LogTypes.Log> stalls() {
+        List<LogTypes.Log> stalls = new ArrayList<>();
+        for (LogTypes.Log log : mEngine.getLogSet()) {
+            if (StallWatchdog.TAG.equals(log.getTag())) {
+                stalls.add(log);
+            }
+        }
+        return stalls;
+    }
+}